@@ -0,0 +1,10 @@
+package lox;
+
+// A box for a local variable that some closure captures, shared between the frame that declares it and the closures.
+final class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,100 @@
+package lox;
+
+import java.util.List;
+
+import static lox.Expr.*;
+import static lox.Stmt.*;
+
+/*
+A for-loop that counts, recognized in the shape the Parser gives 'for (var i = a; i < n; i = i + c) body':
+    While(i < n, Block(body..., Expression(i = i + c)))
+The tree-walker runs such a loop with a primitive counter and a bound read once, instead of evaluating the
+condition and the increment as trees on every iteration. The counter has to be an uncaptured local of the frame
+and the bound a number or another uncaptured local; the comparison can be any of <, <=, > and >=, and the step
+a number added or subtracted.
+
+Nothing here checks that the body leaves the counter and the bound alone: the interpreter notices when either
+slot no longer holds what it last saw there, and hands the loop over to the general path.
+*/
+public final class CountedLoop {
+    final int slot;
+    final TokenType comparison;
+    final Double bound;
+    final int boundSlot;
+    final double step;
+    final List<Stmt> body;
+    final Stmt increment;
+
+    private CountedLoop(int slot, TokenType comparison, Double bound, int boundSlot, double step, List<Stmt> body,
+                        Stmt increment) {
+        this.slot = slot;
+        this.comparison = comparison;
+        this.bound = bound;
+        this.boundSlot = boundSlot;
+        this.step = step;
+        this.body = body;
+        this.increment = increment;
+    }
+
+    // Returns null if the loop does not have the counted shape.
+    static CountedLoop recognize(While loop) {
+        if (!(loop.condition instanceof Binary condition) || !isComparison(condition.operator.tokenType())) {
+            return null;
+        }
+        int slot = frameSlot(condition.left);
+        if (slot == -1) {
+            return null;
+        }
+        Double bound = null;
+        int boundSlot = -1;
+        if (condition.right instanceof Literal literal && literal.value instanceof Double number) {
+            bound = number;
+        } else {
+            boundSlot = frameSlot(condition.right);
+            if (boundSlot == -1 || boundSlot == slot) {
+                return null;
+            }
+        }
+
+        if (!(loop.body instanceof Block block) || block.slotCount != 0 || block.statements.isEmpty()) {
+            return null;
+        }
+        Stmt increment = block.statements.get(block.statements.size() - 1);
+        if (!(increment instanceof Expression expression) || !(expression.expression instanceof Assign assign)
+                || assign.depth != 0 || assign.isCaptured || assign.slot != slot
+                || !(assign.value instanceof Binary next) || frameSlot(next.left) != slot
+                || !(next.right instanceof Literal literal) || !(literal.value instanceof Double step)) {
+            return null;
+        }
+        TokenType operator = next.operator.tokenType();
+        if (operator != TokenType.PLUS && operator != TokenType.MINUS) {
+            return null;
+        }
+
+        return new CountedLoop(slot, condition.operator.tokenType(), bound, boundSlot,
+                operator == TokenType.PLUS ? step : -step,
+                block.statements.subList(0, block.statements.size() - 1), increment);
+    }
+
+    boolean test(double counter, double bound) {
+        return switch (comparison) {
+            case LESS -> counter < bound;
+            case LESS_EQUAL -> counter <= bound;
+            case GREATER -> counter > bound;
+            default -> counter >= bound;
+        };
+    }
+
+    private static boolean isComparison(TokenType operator) {
+        return operator == TokenType.LESS || operator == TokenType.LESS_EQUAL
+                || operator == TokenType.GREATER || operator == TokenType.GREATER_EQUAL;
+    }
+
+    // The slot of an uncaptured local of the current frame, or -1 for any other expression.
+    private static int frameSlot(Expr expr) {
+        if (expr instanceof Variable variable && variable.depth == 0 && !variable.isCaptured) {
+            return variable.slot;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,12 @@
+package lox;
+
+/*
+How a for-in loop walks a native collection: the interpreter asks the cursor for one element after another,
+straight from the collection's storage, instead of calling Lox methods for each of them.
+*/
+public interface Cursor {
+    // What next() returns once there are no elements left, since nil is an element like any other.
+    Object END = new Object();
+
+    Object next();
+}
@@ -2,8 +2,8 @@ package lox;
 
 import java.util.List;
 
-abstract class Expr {
-    interface Visitor<R> {
+public abstract class Expr {
+    public interface Visitor<R> {
         R visitBinaryExpr(Binary expr);
 
         R visitAssignExpr(Assign expr);
@@ -35,7 +35,7 @@ abstract class Expr {
         R visitLambdaExpr(Lambda expr);
     }
 
-    static class Binary extends Expr {
+    public static class Binary extends Expr {
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
             this.operator = operator;
@@ -43,57 +43,62 @@ abstract class Expr {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitBinaryExpr(this);
         }
 
-        final Expr left;
-        final Token operator;
-        final Expr right;
+        public final Expr left;
+        public final Token operator;
+        public final Expr right;
     }
 
-    static class Assign extends Expr {
+    public static class Assign extends Expr {
         Assign(Token name, Expr value) {
             this.name = name;
             this.value = value;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitAssignExpr(this);
         }
 
-        final Token name;
-        final Expr value;
+        public final Token name;
+        public final Expr value;
+
+        // Filled in by the Resolver.
+        public int depth = -1;
+        public int slot;
+        public boolean isCaptured;
     }
 
-    static class Grouping extends Expr {
+    public static class Grouping extends Expr {
         Grouping(Expr expression) {
             this.expression = expression;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitGroupingExpr(this);
         }
 
-        final Expr expression;
+        public final Expr expression;
     }
 
-    static class Literal extends Expr {
+    public static class Literal extends Expr {
         Literal(Object value) {
             this.value = value;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitLiteralExpr(this);
         }
 
-        final Object value;
+        public final Object value;
     }
 
-    static class Logical extends Expr {
+    public static class Logical extends Expr {
         Logical(Expr left, Token operator, Expr right) {
             this.left = left;
             this.operator = operator;
@@ -101,16 +106,16 @@ abstract class Expr {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitLogicalExpr(this);
         }
 
-        final Expr left;
-        final Token operator;
-        final Expr right;
+        public final Expr left;
+        public final Token operator;
+        public final Expr right;
     }
 
-    static class Set extends Expr {
+    public static class Set extends Expr {
         Set(Expr object, Token name, Expr value) {
             this.object = object;
             this.name = name;
@@ -118,59 +123,71 @@ abstract class Expr {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitSetExpr(this);
         }
 
-        final Expr object;
-        final Token name;
-        final Expr value;
+        public final Expr object;
+        public final Token name;
+        public final Expr value;
+
+        // Filled in by the Resolver.
+        public InlineCache cache;
     }
 
-    static class This extends Expr {
+    public static class This extends Expr {
         This(Token keyword) {
             this.keyword = keyword;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitThisExpr(this);
         }
 
-        final Token keyword;
+        public final Token keyword;
+
+        // Filled in by the Resolver.
+        public int depth = -1;
+        public int slot;
+        public boolean isCaptured;
     }
 
-    static class Super extends Expr {
+    public static class Super extends Expr {
         Super(Token keyword, Token method) {
             this.keyword = keyword;
             this.method = method;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitSuperExpr(this);
         }
 
-        final Token keyword;
-        final Token method;
+        public final Token keyword;
+        public final Token method;
+
+        // Filled in by the Resolver.
+        public int slot;
+        public This receiver;
     }
 
-    static class Unary extends Expr {
+    public static class Unary extends Expr {
         Unary(Token operator, Expr right) {
             this.operator = operator;
             this.right = right;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitUnaryExpr(this);
         }
 
-        final Token operator;
-        final Expr right;
+        public final Token operator;
+        public final Expr right;
     }
 
-    static class Call extends Expr {
+    public static class Call extends Expr {
         Call(Expr callee, Token paren, List<Expr> arguments) {
             this.callee = callee;
             this.paren = paren;
@@ -178,31 +195,34 @@ abstract class Expr {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitCallExpr(this);
         }
 
-        final Expr callee;
-        final Token paren;
-        final List<Expr> arguments;
+        public final Expr callee;
+        public final Token paren;
+        public final List<Expr> arguments;
     }
 
-    static class Get extends Expr {
+    public static class Get extends Expr {
         Get(Expr object, Token name) {
             this.object = object;
             this.name = name;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitGetExpr(this);
         }
 
-        final Expr object;
-        final Token name;
+        public final Expr object;
+        public final Token name;
+
+        // Filled in by the Resolver.
+        public InlineCache cache;
     }
 
-    static class BinaryRPN extends Expr {
+    public static class BinaryRPN extends Expr {
         BinaryRPN(Expr left, Token operator, Expr right) {
             this.left = left;
             this.operator = operator;
@@ -210,16 +230,16 @@ abstract class Expr {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitBinaryRPNExpr(this);
         }
 
-        final Expr left;
-        final Token operator;
-        final Expr right;
+        public final Expr left;
+        public final Token operator;
+        public final Expr right;
     }
 
-    static class Ternary extends Expr {
+    public static class Ternary extends Expr {
         Ternary(Expr condition, Expr thenBranch, Expr elseBranch) {
             this.condition = condition;
             this.thenBranch = thenBranch;
@@ -227,41 +247,52 @@ abstract class Expr {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitTernaryExpr(this);
         }
 
-        final Expr condition;
-        final Expr thenBranch;
-        final Expr elseBranch;
+        public final Expr condition;
+        public final Expr thenBranch;
+        public final Expr elseBranch;
     }
 
-    static class Variable extends Expr {
+    public static class Variable extends Expr {
         Variable(Token name) {
             this.name = name;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitVariableExpr(this);
         }
 
-        final Token name;
+        public final Token name;
+
+        // Filled in by the Resolver.
+        public int depth = -1;
+        public int slot;
+        public boolean isCaptured;
     }
 
-    static class Lambda extends Expr implements FunctionLikeable{
+    public static class Lambda extends Expr implements FunctionLikeable {
         Lambda(List<Token> params, List<Stmt> body) {
             this.params = params;
             this.body = body;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitLambdaExpr(this);
         }
 
-        final List<Token> params;
-        final List<Stmt> body;
+        public final List<Token> params;
+        public final List<Stmt> body;
+
+        // Filled in by the Resolver.
+        public int slotCount;
+        public int[] boxedSlots;
+        public int[] captures;
+        public boolean isGenerator;
 
         @Override
         public List<Token> getParams() {
@@ -272,7 +303,27 @@ abstract class Expr {
         public List<Stmt> getBody() {
             return body;
         }
+
+        @Override
+        public int getSlotCount() {
+            return slotCount;
+        }
+
+        @Override
+        public int[] getBoxedSlots() {
+            return boxedSlots;
+        }
+
+        @Override
+        public int[] getCaptures() {
+            return captures;
+        }
+
+        @Override
+        public boolean isGenerator() {
+            return isGenerator;
+        }
     }
 
-    abstract <R> R accept(Visitor<R> visitor);
+    public abstract <R> R accept(Visitor<R> visitor);
 }
@@ -5,4 +5,17 @@ import java.util.List;
 public interface FunctionLikeable {
     List<Token> getParams();
     List<Stmt> getBody();
+
+    // The frame a call needs: the receiver of a method, the parameters and every local of the body.
+    int getSlotCount();
+
+    // Parameter slots, and the receiver's, that closures capture; a call boxes them into cells on entry.
+    int[] getBoxedSlots();
+
+    // Where each captured variable comes from when the function is created: a slot of the creating frame,
+    // or -1 - i for the creator's own captured variable i.
+    int[] getCaptures();
+
+    // Whether the body yields, so that a call returns a generator instead of running it.
+    boolean isGenerator();
 }
@@ -0,0 +1,111 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+A per-site cache for property gets and property sets.
+It remembers the last few instance shapes seen at the site together with what the slow lookup found for them: a
+field index, a method, a transition shape. A repeated access then only compares the shape against a handful of
+entries. Once more than MAX_ENTRIES different shapes show up the site is megamorphic and stops caching, since a
+longer list would be slower than the lookup it replaces.
+*/
+public final class InlineCache {
+    static final int MAX_ENTRIES = 4;
+
+    // Filled only while statistics are collected, so caches of code that is gone can be freed otherwise.
+    private static final List<InlineCache> sites = new ArrayList<>();
+    static boolean collectStatistics = false;
+
+    private final String kind;
+    private final String name;
+    private final int line;
+    private final Object[] keys = new Object[MAX_ENTRIES];
+    private final Object[] targets = new Object[MAX_ENTRIES];
+    private final int[] indexes = new int[MAX_ENTRIES];
+    private int size = 0;
+    private boolean isMegamorphic = false;
+    private long hits = 0;
+    private long misses = 0;
+
+    InlineCache(String kind, String name, int line) {
+        this.kind = kind;
+        this.name = name;
+        this.line = line;
+        if (collectStatistics) {
+            sites.add(this);
+        }
+    }
+
+    // A fresh, empty cache for a copy of this site, such as an inlined call.
+    InlineCache copy() {
+        return new InlineCache(kind, name, line);
+    }
+
+    // Returns the entry for the key, or -1 if the caller has to do the full lookup (and then call add).
+    int find(Object key) {
+        if (isMegamorphic) {
+            misses++;
+            return -1;
+        }
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                hits++;
+                return i;
+            }
+        }
+        misses++;
+        return -1;
+    }
+
+    // Returns the new entry, or -1 if the site has just become (or already was) megamorphic.
+    int add(Object key, Object target, int index) {
+        if (size == MAX_ENTRIES) {
+            isMegamorphic = true;
+            return -1;
+        }
+        keys[size] = key;
+        targets[size] = target;
+        indexes[size] = index;
+        return size++;
+    }
+
+    Object target(int entry) {
+        return targets[entry];
+    }
+
+    int index(int entry) {
+        return indexes[entry];
+    }
+
+    private String state() {
+        if (isMegamorphic) {
+            return "megamorphic";
+        }
+        return switch (size) {
+            case 0 -> "uninitialized";
+            case 1 -> "monomorphic";
+            default -> "polymorphic (" + size + ")";
+        };
+    }
+
+    static void printStatistics() {
+        int monomorphic = 0;
+        int polymorphic = 0;
+        int megamorphic = 0;
+        for (InlineCache site : sites) {
+            System.err.println("[line " + site.line + "] " + site.kind + " '" + site.name + "': "
+                    + site.state() + ", " + site.hits + " hits, " + site.misses + " misses");
+            if (site.isMegamorphic) {
+                megamorphic++;
+            } else if (site.size == 1) {
+                monomorphic++;
+            } else if (site.size > 1) {
+                polymorphic++;
+            }
+        }
+        System.err.println("Inline caches: " + sites.size() + " sites, " + monomorphic + " monomorphic, "
+                + polymorphic + " polymorphic, " + megamorphic + " megamorphic");
+        sites.clear();
+    }
+}
@@ -0,0 +1,365 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static lox.Expr.*;
+import static lox.Stmt.*;
+
+/*
+Replaces calls of small top-level functions with the function's body. A function qualifies when its body is a
+single 'return <expression>', the expression fits in INLINE_BUDGET nodes, refers to nothing but its parameters
+and globals, does not call the function itself, and the name is declared once and never assigned. A call is
+inlined only after the declaration in the program text, with the right number of arguments, each of which is a
+literal or a variable (anything else would have to be evaluated once and in order, which an expression cannot
+express). The parameters in the copied body are replaced by the arguments; globals keep their names.
+
+Functions are processed in program order, so a helper that calls earlier helpers is measured after they have
+been inlined into it.
+*/
+public class Inliner extends TreeRewriter {
+    // The largest body expression, in nodes, that is copied into a call site.
+    static final int INLINE_BUDGET = 24;
+
+    private final Map<String, Function> candidates = new HashMap<>();
+    private final Map<String, Integer> declarationCounts = new HashMap<>();
+    private final java.util.Set<String> assignedGlobals = new HashSet<>();
+    private final List<String> report = new ArrayList<>();
+    // Names declared locally anywhere in the top-level statement being rewritten.
+    private java.util.Set<String> localNames = java.util.Set.of();
+
+    public List<Stmt> inline(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            String name = declaredName(statement);
+            if (name != null) {
+                declarationCounts.merge(name, 1, Integer::sum);
+            }
+        }
+        NameCollector program = new NameCollector();
+        for (Stmt statement : statements) {
+            program.collect(statement);
+        }
+
+        List<Stmt> rewritten = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            NameCollector locals = new NameCollector();
+            locals.collect(statement);
+            localNames = locals.declared;
+
+            Stmt result = rewrite(statement);
+            changed |= result != statement;
+            rewritten.add(result);
+            if (result instanceof Function function && isCandidate(function)) {
+                candidates.put(function.name.lexeme(), function);
+            }
+        }
+        return changed ? rewritten : statements;
+    }
+
+    public void printReport() {
+        for (String line : report) {
+            System.err.println(line);
+        }
+        System.err.println("[inline] " + report.size() + " call sites inlined");
+    }
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+        Expr rewritten = super.visitCallExpr(expr);
+        if (!(rewritten instanceof Call call) || !(call.callee instanceof Variable callee) || callee.depth != -1) {
+            return rewritten;
+        }
+        Function function = candidates.get(callee.name.lexeme());
+        if (function == null || function.params.size() != call.arguments.size()) {
+            return rewritten;
+        }
+
+        Expr body = ((Return) function.body.get(0)).value;
+        BodyInfo info = new BodyInfo(function);
+        info.rewrite(body);
+        if (!argumentsCanBeSubstituted(call.arguments, info, firstRead(body))
+                || !Collections.disjoint(info.globals, localNames)) {
+            return rewritten;
+        }
+
+        report.add("[inline] " + function.name.lexeme() + " (line " + function.name.line() + ") inlined at line "
+                + call.paren.line());
+        return new Substitution(call.arguments).rewrite(body);
+    }
+
+    private boolean isCandidate(Function function) {
+        String name = function.name.lexeme();
+        if (declarationCounts.get(name) != 1 || assignedGlobals.contains(name)) {
+            return false;
+        }
+        if (function.body.size() != 1 || !(function.body.get(0) instanceof Return ret) || ret.value == null) {
+            return false;
+        }
+        if (NodeCounter.count(ret.value) > INLINE_BUDGET) {
+            return false;
+        }
+        BodyInfo info = new BodyInfo(function);
+        info.rewrite(ret.value);
+        return info.inlinable && !info.globals.contains(name);
+    }
+
+    /*
+    Arguments are evaluated before the call, but after inlining each one is read where its parameter is used.
+    A literal or a local is the same wherever it is read. A global can be undefined, so it is only allowed as the
+    parameter the body reads first, before any operator has run: then its error, if any, is still the first one.
+    A pure body assigns nothing, so reading the global again later gives the same value.
+    */
+    private static boolean argumentsCanBeSubstituted(List<Expr> arguments, BodyInfo info, int firstRead) {
+        int globalArguments = 0;
+        for (int i = 0; i < arguments.size(); i++) {
+            Expr argument = arguments.get(i);
+            if (argument instanceof Literal) {
+                continue;
+            }
+            if (!(argument instanceof Variable variable)) {
+                return false;
+            }
+            if (variable.depth == -1) {
+                globalArguments++;
+                if (globalArguments > 1 || !info.pure || !info.globals.isEmpty() || firstRead != i) {
+                    return false;
+                }
+            } else if (!info.pure) {
+                // A call in the body could reach a closure that assigns the caller's local.
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The parameter whose read is the first thing evaluating a pure body does, or -1 if it starts otherwise.
+    private static int firstRead(Expr body) {
+        Expr expr = body;
+        while (true) {
+            if (expr instanceof Binary binary) {
+                expr = binary.left;
+            } else if (expr instanceof BinaryRPN binary) {
+                expr = binary.left;
+            } else if (expr instanceof Logical logical) {
+                expr = logical.left;
+            } else if (expr instanceof Unary unary) {
+                expr = unary.right;
+            } else if (expr instanceof Grouping grouping) {
+                expr = grouping.expression;
+            } else if (expr instanceof Ternary ternary) {
+                expr = ternary.condition;
+            } else {
+                break;
+            }
+        }
+        return expr instanceof Variable variable && variable.depth == 0 ? variable.slot : -1;
+    }
+
+    private static String declaredName(Stmt statement) {
+        if (statement instanceof Function function) {
+            return function.name.lexeme();
+        }
+        if (statement instanceof Var var) {
+            return var.name.lexeme();
+        }
+        if (statement instanceof Stmt.Class loxClass) {
+            return loxClass.name.lexeme();
+        }
+        return null;
+    }
+
+    // Walks a candidate's body expression and records what inlining it would depend on.
+    private static final class BodyInfo extends TreeRewriter {
+        private final int[] uses;
+        private final java.util.Set<String> globals = new HashSet<>();
+        private boolean inlinable = true;
+        // No calls, property accesses or assignments: evaluating the body cannot run other code.
+        private boolean pure = true;
+
+        BodyInfo(Function function) {
+            this.uses = new int[function.params.size()];
+        }
+
+        @Override
+        public Expr visitVariableExpr(Variable expr) {
+            if (expr.depth == -1) {
+                globals.add(expr.name.lexeme());
+            } else if (expr.depth == 0 && expr.slot < uses.length) {
+                uses[expr.slot]++;
+            } else {
+                inlinable = false;
+            }
+            return expr;
+        }
+
+        @Override
+        public Expr visitAssignExpr(Assign expr) {
+            pure = false;
+            if (expr.depth != -1) {
+                inlinable = false;
+            } else {
+                globals.add(expr.name.lexeme());
+            }
+            return super.visitAssignExpr(expr);
+        }
+
+        @Override
+        public Expr visitCallExpr(Call expr) {
+            pure = false;
+            return super.visitCallExpr(expr);
+        }
+
+        @Override
+        public Expr visitGetExpr(Get expr) {
+            pure = false;
+            return super.visitGetExpr(expr);
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr) {
+            pure = false;
+            return super.visitSetExpr(expr);
+        }
+
+        @Override
+        public Expr visitThisExpr(This expr) {
+            inlinable = false;
+            return expr;
+        }
+
+        @Override
+        public Expr visitSuperExpr(Super expr) {
+            inlinable = false;
+            return expr;
+        }
+
+        @Override
+        public Expr visitLambdaExpr(Lambda expr) {
+            inlinable = false;
+            return expr;
+        }
+    }
+
+    // Copies a body expression with the parameters replaced by the arguments. Every site gets its own caches.
+    private static final class Substitution extends TreeRewriter {
+        private final List<Expr> arguments;
+
+        Substitution(List<Expr> arguments) {
+            this.arguments = arguments;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Variable expr) {
+            return expr.depth == 0 ? arguments.get(expr.slot) : expr;
+        }
+
+        @Override
+        public Expr visitCallExpr(Call expr) {
+            List<Expr> copied = new ArrayList<>();
+            for (Expr argument : expr.arguments) {
+                copied.add(rewrite(argument));
+            }
+            return new Call(rewrite(expr.callee), expr.paren, copied);
+        }
+
+        @Override
+        public Expr visitGetExpr(Get expr) {
+            Get get = new Get(rewrite(expr.object), expr.name);
+            get.cache = expr.cache.copy();
+            return get;
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr) {
+            Expr.Set set = new Expr.Set(rewrite(expr.object), expr.name, rewrite(expr.value));
+            set.cache = expr.cache.copy();
+            return set;
+        }
+    }
+
+    /*
+    Collects local declarations and assigned globals. The VM and the node engine resolve names themselves, so a
+    global in an inlined body must not land where a local of the same name is in scope.
+    */
+    private final class NameCollector extends TreeRewriter {
+        private final java.util.Set<String> declared = new HashSet<>();
+        private boolean topLevel = true;
+
+        // Nothing is rewritten; the visit methods only record names.
+        void collect(Stmt statement) {
+            topLevel = true;
+            rewrite(statement);
+        }
+
+        @Override
+        public Stmt visitVarStmt(Var stmt) {
+            declareLocal(stmt.name);
+            return super.visitVarStmt(stmt);
+        }
+
+        @Override
+        public Stmt visitForInStmt(ForIn stmt) {
+            declareLocal(stmt.name);
+            return super.visitForInStmt(stmt);
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.Class stmt) {
+            declareLocal(stmt.name);
+            return super.visitClassStmt(stmt);
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Block stmt) {
+            boolean enclosing = topLevel;
+            topLevel = false;
+            super.visitBlockStmt(stmt);
+            topLevel = enclosing;
+            return stmt;
+        }
+
+        @Override
+        Function rewriteFunction(Function stmt) {
+            declareLocal(stmt.name);
+            boolean enclosing = topLevel;
+            topLevel = false;
+            for (Token param : stmt.params) {
+                declared.add(param.lexeme());
+            }
+            super.rewriteFunction(stmt);
+            topLevel = enclosing;
+            return stmt;
+        }
+
+        @Override
+        public Expr visitLambdaExpr(Lambda expr) {
+            boolean enclosing = topLevel;
+            topLevel = false;
+            for (Token param : expr.params) {
+                declared.add(param.lexeme());
+            }
+            super.visitLambdaExpr(expr);
+            topLevel = enclosing;
+            return expr;
+        }
+
+        @Override
+        public Expr visitAssignExpr(Assign expr) {
+            if (expr.depth == -1) {
+                assignedGlobals.add(expr.name.lexeme());
+            }
+            return super.visitAssignExpr(expr);
+        }
+
+        private void declareLocal(Token name) {
+            if (!topLevel) {
+                declared.add(name.lexeme());
+            }
+        }
+    }
+}
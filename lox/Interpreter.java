@@ -1,24 +1,67 @@
 package lox;
 
-import lox.exceptions.BreakException;
-import lox.exceptions.ContinueException;
-import lox.exceptions.ReturnException;
 import lox.exceptions.RuntimeError;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import static lox.Expr.*;
 import static lox.Stmt.*;
+import static lox.Values.isEqual;
+import static lox.Values.isTruthy;
+import static lox.Values.stringify;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // Returned by readField() when the property is not a field.
+    public static final Object NOT_A_FIELD = new Object();
+    // Calls that may be active at once unless --max-call-depth says otherwise; the VM's frame limit as well.
+    public static final int DEFAULT_MAX_CALL_DEPTH = 1 << 16;
+
+    private static final Cell[] NO_CAPTURES = new Cell[0];
+
+    final Environment globals;
+    // The slots of the running function or top-level block, and the cells its closure captured; see Resolver.
+    private Object[] frame;
+    private Cell[] captured = NO_CAPTURES;
+
+    /*
+    How the last statement finished. 'return', 'break' and 'continue' set this instead of throwing,
+    and every statement list stops as soon as it is no longer NORMAL. The loop or call that the
+    signal belongs to resets it, so unwinding costs neither an allocation nor a stack walk.
+    */
+    private enum Completion {
+        NORMAL,
+        BREAK,
+        CONTINUE,
+        RETURN
+    }
+
+    /*
+    A call in tail position whose callee and arguments have been evaluated, but which has not been made. The
+    function that returned it makes it once its own body has finished (see LoxFunction.invoke), so tail-recursive
+    code runs in constant Java stack.
+    */
+    record TailCall(LoxFunction function, LoxInstance receiver, List<Object> arguments) {
+    }
+
+    private Completion completion = Completion.NORMAL;
+    private Object returnValue;
+    private TailCall tailCall;
+    // Calls currently running. Tail calls replace the running call instead of adding one.
+    private int callDepth = 0;
+    private int maxCallDepth = DEFAULT_MAX_CALL_DEPTH;
+    // The function whose body is running, so loops can report their iterations to it; null at the top level.
+    private LoxFunction currentFunction;
+    // The generator whose body this interpreter runs, which its yields hand their values to; null otherwise.
+    private final LoxGenerator.Body generator;
 
     Interpreter() {
+        globals = new Environment();
+        generator = null;
         globals.define("clock", new LoxCallable() {
             @Override
             public int arity() {
@@ -30,6 +73,38 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 return (double) System.currentTimeMillis() / 1000.0;
             }
 
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+        defineConstructor("Array", LoxArray::new);
+        defineConstructor("Map", LoxMap::new);
+        defineConstructor("PersistentVector", PersistentVector::new);
+        defineConstructor("PersistentMap", PersistentMap::new);
+    }
+
+    // The interpreter for the body of a generator, which runs on a thread of its own. It shares the program's
+    // globals and nothing else, and its calls nest no deeper than that thread's stack allows.
+    Interpreter(Interpreter parent, LoxGenerator.Body generator) {
+        this.globals = parent.globals;
+        this.maxCallDepth = Lox.generatorCallDepth();
+        this.generator = generator;
+    }
+
+    // Defines a global that takes no arguments and makes a new native object.
+    private void defineConstructor(String name, Supplier<NativeObject> constructor) {
+        globals.define(name, new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return constructor.get();
+            }
+
             @Override
             public String toString() {
                 return "<native fn>";
@@ -43,10 +118,16 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 execute(statement);
             }
         } catch (RuntimeError error) {
+            completion = Completion.NORMAL;
+            tailCall = null;
             Lox.runtimeError(error, this.getClass());
         }
     }
 
+    void setMaxCallDepth(int maxCallDepth) {
+        this.maxCallDepth = maxCallDepth;
+    }
+
     @Override
     public Void visitExpressionStmt(Expression stmt) {
         evaluate(stmt.expression);
@@ -59,9 +140,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     */
     @Override
     public Void visitFunctionStmt(Function stmt) {
-        // Pass the function's name, parameters, body, and closure environment
-        LoxFunction function = new LoxFunction(stmt.name.lexeme(), stmt.params, stmt.body, environment, false);
-        environment.define(stmt.name.lexeme(), function);
+        // A local function that calls itself captures its own variable, so that has to exist before the closure.
+        define(stmt.name, stmt.slot, stmt.isCaptured, null);
+        LoxFunction function = new LoxFunction(stmt.name.lexeme(), stmt, capture(stmt.captures), false, false);
+        initialize(stmt.name, stmt.slot, stmt.isCaptured, function);
         return null;
     }
 
@@ -85,10 +167,22 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Return stmt) {
         Object value = null;
-        if (stmt.value != null) {
+        if (stmt.isTailCall) {
+            value = prepareTailCall((Call) stmt.value);
+        } else if (stmt.value != null) {
             value = evaluate(stmt.value);
         }
-        throw new ReturnException(value);
+        returnValue = value;
+        completion = Completion.RETURN;
+        return null;
+    }
+
+    // Waits on the generator's thread until the value has been taken and the next one is asked for.
+    @Override
+    public Void visitYieldStmt(Yield stmt) {
+        Object value = stmt.value == null ? null : evaluate(stmt.value);
+        generator.yield(value);
+        return null;
     }
 
     @Override
@@ -98,47 +192,164 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme(), value);
+        define(stmt.name, stmt.slot, stmt.isCaptured, value);
         return null;
     }
 
     @Override
     public Void visitWhileStmt(While stmt) {
+        if (stmt.counted != null && executeCountedLoop(stmt.counted)) {
+            return null;
+        }
         while (isTruthy(evaluate(stmt.condition))) {
-            try {
-                execute(stmt.body); // Execute the loop body
-            } catch (BreakException breakExc) {
-                // Caught a break statement, exit the loop entirely.
+            if (currentFunction != null) {
+                currentFunction.countHotness(this);
+            }
+            execute(stmt.body); // Execute the loop body
+            if (completion == Completion.NORMAL) {
+                continue;
+            }
+            if (completion == Completion.RETURN) {
+                // The enclosing function consumes the return.
                 break;
-            } catch (ContinueException continueExc) {
-                // Caught a continue statement, skip to the next iteration.
-                // The 'while' loop's condition will be re-evaluated.
+            }
+            Completion signal = completion;
+            completion = Completion.NORMAL;
+            if (signal == Completion.BREAK) {
+                // A break statement exits the loop entirely.
+                break;
+            }
+            // A continue statement skips to the next iteration; the condition will be re-evaluated.
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitForInStmt(ForIn stmt) {
+        Cursor cursor = cursor(stmt, evaluate(stmt.iterable));
+        for (Object element = cursor.next(); element != Cursor.END; element = cursor.next()) {
+            if (currentFunction != null) {
+                currentFunction.countHotness(this);
+            }
+            // Defined afresh each time, so closures created in the body each see their own element.
+            define(stmt.name, stmt.slot, stmt.isCaptured, element);
+            execute(stmt.body);
+            if (completion == Completion.NORMAL) {
                 continue;
             }
+            if (completion == Completion.RETURN) {
+                break;
+            }
+            Completion signal = completion;
+            completion = Completion.NORMAL;
+            if (signal == Completion.BREAK) {
+                break;
+            }
         }
         return null;
     }
 
+    /*
+    The cursor a for-in loop walks. A native collection hands out its own, which reads its storage directly. An
+    instance is iterated through its iterator property: either a native collection to walk instead, or an object
+    whose next property gives one element per read until it gives nil. A class opts in by defining iterator and
+    next as methods without parameters, which makes them getters.
+    */
+    private Cursor cursor(ForIn stmt, Object iterable) {
+        if (iterable instanceof NativeObject nativeObject) {
+            return nativeObject.cursor(stmt.keyword);
+        }
+        if (!(iterable instanceof LoxInstance instance)) {
+            throw new RuntimeError(stmt.keyword, "Can only iterate over collections and instances.");
+        }
+        Object iterator = instance.get(this, property(stmt.keyword, "iterator"), stmt.iteratorCache);
+        if (iterator instanceof NativeObject nativeObject) {
+            return nativeObject.cursor(stmt.keyword);
+        }
+        if (!(iterator instanceof LoxInstance source)) {
+            throw new RuntimeError(stmt.keyword, "An iterator must be an instance.");
+        }
+        Token next = property(stmt.keyword, "next");
+        return () -> {
+            Object element = source.get(this, next, stmt.nextCache);
+            return element == null ? Cursor.END : element;
+        };
+    }
+
+    // The name of a property the interpreter reads on its own, reported at the line of the code that needs it.
+    private static Token property(Token site, String name) {
+        return new Token(TokenType.IDENTIFIER, name, null, site.line());
+    }
+
+    /*
+    Runs a counted loop on a primitive counter, storing each new value in the counter's slot for the body to read.
+    Returns false if the general loop has to take over, with the frame as that loop expects it: when the counter
+    or the bound is not a number to begin with, or when the body assigned either of them.
+    */
+    private boolean executeCountedLoop(CountedLoop loop) {
+        Object start = frame[loop.slot];
+        Object limit = loop.boundSlot == -1 ? loop.bound : frame[loop.boundSlot];
+        if (!(start instanceof Double) || !(limit instanceof Double)) {
+            return false;
+        }
+        double counter = (double) start;
+        double bound = (double) limit;
+        Object current = start;
+        while (loop.test(counter, bound)) {
+            if (currentFunction != null) {
+                currentFunction.countHotness(this);
+            }
+            executeBlock(loop.body);
+            if (completion == Completion.RETURN) {
+                return true;
+            }
+            if (completion == Completion.BREAK) {
+                completion = Completion.NORMAL;
+                return true;
+            }
+            // A continue statement skips the rest of the block, the increment included.
+            boolean increments = completion == Completion.NORMAL;
+            completion = Completion.NORMAL;
+            if (frame[loop.slot] != current || (loop.boundSlot != -1 && frame[loop.boundSlot] != limit)) {
+                if (increments) {
+                    execute(loop.increment);
+                }
+                return false;
+            }
+            if (increments) {
+                counter += loop.step;
+                current = counter;
+                frame[loop.slot] = current;
+            }
+        }
+        return true;
+    }
+
     @Override
     public Void visitBreakStmt(Break stmt) {
-        // Throw a special exception to signal breaking out of the loop.
-        throw new BreakException();
+        // Signal the enclosing loop to stop.
+        completion = Completion.BREAK;
+        return null;
     }
 
     @Override
     public Void visitContinueStmt(Continue stmt) {
-        // Throw a special exception to signal continuing to the next iteration.
-        throw new ContinueException();
+        // Signal the enclosing loop to skip to the next iteration.
+        completion = Completion.CONTINUE;
+        return null;
     }
 
     @Override
     public Object visitAssignExpr(Assign expr) {
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
-        } else {
+        if (expr.depth == -1) {
             globals.assign(expr.name, value);
+        } else if (expr.depth == 1) {
+            captured[expr.slot].value = value;
+        } else if (expr.isCaptured) {
+            ((Cell) frame[expr.slot]).value = value;
+        } else {
+            frame[expr.slot] = value;
         }
         return value;
     }
@@ -173,20 +384,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance) object).set(expr.name, value);
-        return value;
+        return setProperty(expr, object, value);
     }
 
     @Override
     public Object visitThisExpr(This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth, expr.slot, expr.isCaptured);
     }
 
     @Override
     public Object visitSuperExpr(Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superClass = (LoxClass) environment.getAt(distance, "super");
-        LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
+        // Methods capture "super" from the scope around them.
+        LoxClass superClass = (LoxClass) captured[expr.slot].value;
+        LoxInstance object = (LoxInstance) evaluate(expr.receiver);
         LoxFunction method = superClass.findMethod(expr.method.lexeme());
         if (method == null) {
             throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme() + "'.");
@@ -211,36 +421,210 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Call expr) {
+        if (expr.callee instanceof Get get) {
+            return invokeMethod(expr, get);
+        }
+        Object callee = evaluate(expr.callee);
+        return callValue(expr, callee, evaluateArguments(expr));
+    }
+
+    /*
+    A call of the form obj.method(args). When the property is a method the receiver is handed straight to
+    LoxFunction.invoke, so no bound method is created. Fields and getters produce a value that is called as usual.
+    */
+    private Object invokeMethod(Call expr, Get get) {
+        Object object = evaluate(get.object);
+        if (object instanceof NativeObject nativeObject && nativeObject.arity(get.name) > 0) {
+            return invokeNative(expr, nativeObject, get.name, evaluateArguments(expr));
+        }
+        LoxFunction method = methodToInvoke(get, object);
+        if (method == null) {
+            Object callee = getProperty(get, object);
+            return callValue(expr, callee, evaluateArguments(expr));
+        }
+        return invoke(expr, method, object, evaluateArguments(expr));
+    }
+
+    // Evaluates a call in tail position like visitCallExpr, but through tailCallValue() and tailInvoke().
+    private Object prepareTailCall(Call expr) {
+        if (expr.callee instanceof Get get) {
+            Object object = evaluate(get.object);
+            if (object instanceof NativeObject nativeObject && nativeObject.arity(get.name) > 0) {
+                return invokeNative(expr, nativeObject, get.name, evaluateArguments(expr));
+            }
+            LoxFunction method = methodToInvoke(get, object);
+            if (method == null) {
+                Object callee = getProperty(get, object);
+                return tailCallValue(expr, callee, evaluateArguments(expr));
+            }
+            return tailInvoke(expr, method, object, evaluateArguments(expr));
+        }
         Object callee = evaluate(expr.callee);
+        return tailCallValue(expr, callee, evaluateArguments(expr));
+    }
 
+    // Hands the pending tail call to the function that has just returned, or null if there is none.
+    TailCall takeTailCall() {
+        TailCall call = tailCall;
+        tailCall = null;
+        return call;
+    }
+
+    private List<Object> evaluateArguments(Call expr) {
         List<Object> arguments = new ArrayList<>();
         for (Expr argument : expr.arguments) {
             arguments.add(evaluate(argument));
         }
+        return arguments;
+    }
 
+    /*
+    The steps of property accesses and calls once their operands have been evaluated. The IR tier runs them
+    between its own instructions, so compiled code behaves exactly like the tree-walker.
+    */
+
+    // Returns the method to invoke for obj.name(...), or null if the property is a field or a getter.
+    public LoxFunction methodToInvoke(Get get, Object object) {
+        if (object instanceof NativeObject) {
+            return null;
+        }
+        if (!(object instanceof LoxInstance instance)) {
+            throw new RuntimeError(get.name, "Only instances have properties.");
+        }
+        LoxFunction method = instance.findMethod(get.name, get.cache);
+        return method == null || method.isGetter() ? null : method;
+    }
+
+    public Object invoke(Call expr, LoxFunction method, Object receiver, List<Object> arguments) {
+        checkArity(expr, method.arity(), arguments);
+        enterCall(expr.paren);
+        try {
+            return method.invoke(this, (LoxInstance) receiver, arguments);
+        } catch (StackOverflowError error) {
+            throw stackOverflow(expr.paren);
+        } finally {
+            callDepth--;
+        }
+    }
+
+    // A getter runs when its property is read, and counts against the depth limit like any other call.
+    Object callGetter(LoxFunction getter, LoxInstance receiver, Token name) {
+        enterCall(name);
+        try {
+            return getter.invoke(this, receiver, Collections.emptyList());
+        } catch (StackOverflowError error) {
+            throw stackOverflow(name);
+        } finally {
+            callDepth--;
+        }
+    }
+
+    // Natives run no Lox code, so the call does not count against the depth limit.
+    private Object invokeNative(Call expr, NativeObject object, Token name, List<Object> arguments) {
+        checkArity(expr, object.arity(name), arguments);
+        return object.invoke(name, arguments);
+    }
+
+    public Object callValue(Call expr, Object callee, List<Object> arguments) {
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable) callee;
-        if (arguments.size() != function.arity()) {
+        checkArity(expr, function.arity(), arguments);
+        return call(function, arguments, expr.paren);
+    }
+
+    /*
+    Makes a call whose arguments have been checked, counting it against the call depth limit. Lox calls nest Java
+    calls, so the limit is what keeps deep recursion a Lox runtime error; Lox runs the interpreter on a thread
+    with a stack sized for it. Should the Java stack still run out first, the call fails the same way.
+    */
+    public Object call(LoxCallable function, List<Object> arguments, Token paren) {
+        enterCall(paren);
+        try {
+            return function.call(this, arguments);
+        } catch (StackOverflowError error) {
+            throw stackOverflow(paren);
+        } finally {
+            callDepth--;
+        }
+    }
+
+    private void enterCall(Token paren) {
+        if (callDepth == maxCallDepth) {
+            throw stackOverflow(paren);
+        }
+        callDepth++;
+    }
+
+    private static RuntimeError stackOverflow(Token paren) {
+        return new RuntimeError(paren, "Stack overflow.");
+    }
+
+    /*
+    Like callValue() and invoke(), including their checks, but a call of a Lox function is left pending for
+    LoxFunction.invoke instead of being made, and null returned. Classes and native functions are called right away.
+    Compiled code uses these for its tail calls too.
+    */
+    public Object tailCallValue(Call expr, Object callee, List<Object> arguments) {
+        if (!(callee instanceof LoxFunction function)) {
+            return callValue(expr, callee, arguments);
+        }
+        checkArity(expr, function.arity(), arguments);
+        return deferCall(function, function.getReceiver(), arguments);
+    }
+
+    public Object tailInvoke(Call expr, LoxFunction method, Object receiver, List<Object> arguments) {
+        checkArity(expr, method.arity(), arguments);
+        return deferCall(method, (LoxInstance) receiver, arguments);
+    }
+
+    // Leaves a call whose arguments have been checked pending; the JIT's generated code calls this directly.
+    public Object deferCall(LoxFunction function, LoxInstance receiver, List<Object> arguments) {
+        tailCall = new TailCall(function, receiver, arguments);
+        return null;
+    }
+
+    private void checkArity(Call expr, int arity, List<Object> arguments) {
+        if (arguments.size() != arity) {
             throw new RuntimeError(expr.paren, "Expected " +
-                    function.arity() + " arguments but got " +
+                    arity + " arguments but got " +
                     arguments.size() + ".");
         }
-        return function.call(this, arguments);
     }
 
-    @Override
-    public Object visitGetExpr(Get expr) {
-        Object object = evaluate(expr.object);
+    public Object getProperty(Get expr, Object object) {
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(this, expr.name);
+            return ((LoxInstance) object).get(this, expr.name, expr.cache);
+        }
+        if (object instanceof NativeObject nativeObject) {
+            return nativeObject.get(expr.name);
         }
 
         throw new RuntimeError(expr.name, "Only instances have properties.");
     }
 
+    // The value of a field, or NOT_A_FIELD when the object has no such field. Never runs Lox code or fails.
+    public Object readField(Get expr, Object object) {
+        if (object instanceof LoxInstance instance) {
+            return instance.getField(expr.name, expr.cache);
+        }
+        return NOT_A_FIELD;
+    }
+
+    // Assumes the object has been checked to be an instance.
+    public Object setProperty(Set expr, Object object, Object value) {
+        ((LoxInstance) object).set(expr.name, value, expr.cache);
+        return value;
+    }
+
+    @Override
+    public Object visitGetExpr(Get expr) {
+        Object object = evaluate(expr.object);
+        return getProperty(expr, object);
+    }
+
     @Override
     public Object visitBinaryRPNExpr(BinaryRPN expr) {
         return visitBinaryExpr(new Binary(expr.left, expr.operator, expr.right));
@@ -259,13 +643,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth, expr.slot, expr.isCaptured);
     }
 
     @Override
     public Object visitLambdaExpr(Lambda expr) {
         // For lambdas, the name is null
-        return new LoxFunction(null, expr.params, expr.body, environment, false);
+        return new LoxFunction(null, expr, capture(expr.captures), false, false);
     }
 
     @Override
@@ -298,16 +682,16 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     return (double) left + (double) right;
                 }
 
-                if (left instanceof String && right instanceof String) {
-                    return (String) left + (String) right;
+                if (left instanceof CharSequence l && right instanceof CharSequence r) {
+                    return Rope.concat(l, r);
                 }
 
-                if (left instanceof String && right instanceof Double) {
-                    return (String) left + stringify(right);
+                if (left instanceof CharSequence l && right instanceof Double) {
+                    return Rope.concat(l, stringify(right));
                 }
 
-                if (left instanceof Double && right instanceof String) {
-                    return stringify(left) + right;
+                if (left instanceof Double && right instanceof CharSequence r) {
+                    return Rope.concat(stringify(left), r);
                 }
 
                 throw new RuntimeError(expr.operator,
@@ -333,13 +717,51 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return evaluate(expr.expression);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme());
-        } else {
+    // Depth -1 is a global, 0 a slot of the running frame and 1 a variable the running closure captured.
+    private Object lookUpVariable(Token name, int depth, int slot, boolean isCaptured) {
+        if (depth == -1) {
             return globals.get(name);
         }
+        if (depth == 1) {
+            return captured[slot].value;
+        }
+        return isCaptured ? ((Cell) frame[slot]).value : frame[slot];
+    }
+
+    // A slot of -1 means the Resolver saw the declaration at the top level. A captured local gets a fresh cell
+    // every time its declaration runs, so closures created in different iterations of a loop do not share it.
+    private void define(Token name, int slot, boolean isCaptured, Object value) {
+        if (slot == -1) {
+            globals.define(name.lexeme(), value);
+        } else if (isCaptured) {
+            frame[slot] = new Cell(value);
+        } else {
+            frame[slot] = value;
+        }
+    }
+
+    // Sets a variable that has just been declared.
+    private void initialize(Token name, int slot, boolean isCaptured, Object value) {
+        if (slot == -1) {
+            globals.assign(name, value);
+        } else if (isCaptured) {
+            ((Cell) frame[slot]).value = value;
+        } else {
+            frame[slot] = value;
+        }
+    }
+
+    // The cells a closure created now captures: slots of the running frame, or cells of the running closure.
+    private Cell[] capture(int[] sources) {
+        if (sources.length == 0) {
+            return NO_CAPTURES;
+        }
+        Cell[] cells = new Cell[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            int source = sources[i];
+            cells[i] = source >= 0 ? (Cell) frame[source] : captured[-1 - source];
+        }
+        return cells;
     }
 
     private void checkNumberOperand(Token operator, Object operand) {
@@ -364,27 +786,54 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         stmt.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
-
-    void executeBlock(List<Stmt> statements,
-                      Environment environment) {
-        Environment previous = this.environment;
+    void executeFrame(List<Stmt> statements, Object[] frame, Cell[] captured) {
+        Object[] previousFrame = this.frame;
+        Cell[] previousCaptured = this.captured;
         try {
-            this.environment = environment;
+            this.frame = frame;
+            this.captured = captured;
+            executeBlock(statements);
+        } finally {
+            this.frame = previousFrame;
+            this.captured = previousCaptured;
+        }
+    }
 
-            for (Stmt statement : statements) {
-                execute(statement);
+    private void executeBlock(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            execute(statement);
+            if (completion != Completion.NORMAL) {
+                break;
             }
-        } finally {
-            this.environment = previous;
         }
     }
 
+    // Returns the function that was running before, so the caller can restore it.
+    LoxFunction enterFunction(LoxFunction function) {
+        LoxFunction previous = currentFunction;
+        currentFunction = function;
+        return previous;
+    }
+
+    // Called by a function once its body has run: consumes a pending 'return' and hands back its value.
+    Object takeReturnValue() {
+        if (completion != Completion.RETURN) {
+            return null;
+        }
+        Object value = returnValue;
+        returnValue = null;
+        completion = Completion.NORMAL;
+        return value;
+    }
+
     @Override
     public Void visitBlockStmt(Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        // Only a block at the top level has a frame of its own; in a function it uses the function's.
+        if (stmt.slotCount == 0) {
+            executeBlock(stmt.statements);
+        } else {
+            executeFrame(stmt.statements, new Object[stmt.slotCount], NO_CAPTURES);
+        }
         return null;
     }
 
@@ -398,11 +847,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        environment.define(stmt.name.lexeme(), null);
+        define(stmt.name, stmt.slot, stmt.isCaptured, null);
 
+        // A subclass at the top level keeps "super" in a frame of its own.
+        Object[] enclosingFrame = frame;
+        if (stmt.slotCount > 0) {
+            frame = new Object[stmt.slotCount];
+        }
         if (stmt.superClass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superClass);
+            frame[stmt.superSlot] = new Cell(superClass);
         }
 
         Map<String, LoxFunction> instanceMethods = new HashMap<>();
@@ -414,65 +867,28 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             } else {
                 LoxFunction function = new LoxFunction(
                         method.name.lexeme(),
-                        method.params,
-                        method.body, environment,
-                        method.name.lexeme().equals("init"));
+                        method,
+                        capture(method.captures),
+                        method.name.lexeme().equals("init"),
+                        true);
                 instanceMethods.put(method.name.lexeme(), function);
             }
         }
         LoxClass loxClass = new LoxClass(stmt.name.lexeme(), instanceMethods, (LoxClass) superClass);
 
+        // Static methods are stored bound to the class, so "this" inside them is the class itself.
         for (Function staticMethod : staticMethods) {
             LoxFunction function = new LoxFunction(
                     staticMethod.name.lexeme(),
-                    staticMethod.params,
-                    staticMethod.body,
-                    environment,
-                    false);
-            loxClass.defineStaticMethod(staticMethod.name, function);
+                    staticMethod,
+                    capture(staticMethod.captures),
+                    false,
+                    true);
+            loxClass.defineStaticMethod(staticMethod.name, function.bind(loxClass));
         }
 
-        if (stmt.superClass != null) {
-            environment = environment.getEnclosing();
-        }
-        environment.assign(stmt.name, loxClass);
+        frame = enclosingFrame;
+        initialize(stmt.name, stmt.slot, stmt.isCaptured, loxClass);
         return null;
     }
-
-    private boolean isTruthy(Object object) {
-        if (object == null) {
-            return false;
-        }
-        if (object instanceof Boolean) {
-            return (boolean) object;
-        }
-        return true;
-    }
-
-    private boolean isEqual(Object left, Object right) {
-        if (left == null && right == null) {
-            return true;
-        }
-        if (left == null) {
-            return false;
-        }
-
-        return left.equals(right);
-    }
-
-    private String stringify(Object object) {
-        if (object == null) {
-            return "nil";
-        }
-
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
-        }
-
-        return object.toString();
-    }
 }
@@ -1,6 +1,10 @@
 package lox;
 
 import lox.exceptions.RuntimeError;
+import lox.ir.IrCompiler;
+import lox.jit.Jit;
+import lox.node.NodeEngine;
+import lox.vm.VM;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -12,21 +16,89 @@ import java.util.List;
 
 
 public class Lox {
+    // Java stack reserved per Lox call on the thread programs run on; a tree-walked call nests about a dozen Java frames.
+    private static final long STACK_BYTES_PER_CALL = 2048;
+    // Added to every such stack: the frames below the first call, and the larger frames of code not yet compiled.
+    private static final long STACK_BYTES_RESERVED = 1 << 20;
     private static final Interpreter interpreter = new Interpreter();
+    private static VM vm;
+    private static NodeEngine nodeEngine;
+    private static Engine engine = Engine.INTERPRETER;
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
+    private static boolean optimizerStatistics = false;
+    private static boolean inlinerReport = false;
+    private static boolean escapeStatistics = false;
+    private static int maxCallDepth = Interpreter.DEFAULT_MAX_CALL_DEPTH;
+
+    // The execution engines a script can be run on; the front end is shared by all of them.
+    private enum Engine {
+        INTERPRETER,
+        VM,
+        NODE
+    }
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        String script = null;
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                String name = arg.substring("--engine=".length());
+                switch (name) {
+                    case "interpreter" -> engine = Engine.INTERPRETER;
+                    case "vm" -> engine = Engine.VM;
+                    case "node" -> engine = Engine.NODE;
+                    default -> usage();
+                }
+            } else if (arg.equals("--jit")) {
+                Jit.enable(false);
+            } else if (arg.equals("--jit-log")) {
+                Jit.enable(true);
+            } else if (arg.equals("--ir")) {
+                IrCompiler.enable(false);
+            } else if (arg.equals("--ir-dump")) {
+                IrCompiler.enable(true);
+            } else if (arg.equals("--ic-stats")) {
+                InlineCache.collectStatistics = true;
+            } else if (arg.equals("--opt-stats")) {
+                optimizerStatistics = true;
+            } else if (arg.equals("--inline-report")) {
+                inlinerReport = true;
+            } else if (arg.equals("--escape-stats")) {
+                escapeStatistics = true;
+            } else if (arg.startsWith("--max-call-depth=")) {
+                maxCallDepth = parseCallDepth(arg.substring("--max-call-depth=".length()));
+            } else if (arg.startsWith("--") || script != null) {
+                usage();
+            } else {
+                script = arg;
+            }
+        }
+
+        interpreter.setMaxCallDepth(maxCallDepth);
+        if (script != null) {
+            runFile(script);
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--engine=interpreter|vm|node] [--jit] [--jit-log] [--ir] [--ir-dump] [--ic-stats] [--opt-stats] [--inline-report] [--escape-stats] [--max-call-depth=N] [script]");
+        System.exit(64);
+    }
+
+    private static int parseCallDepth(String value) {
+        try {
+            int depth = Integer.parseInt(value);
+            if (depth > 0) {
+                return depth;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        usage();
+        return 0;
+    }
+
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Path.of(path));
         run(new String(bytes, Charset.defaultCharset()));
@@ -54,7 +126,65 @@ public class Lox {
         }
     }
 
+    /*
+    Runs source on a thread of its own whose stack fits maxCallDepth nested calls, so how deep a program may recurse
+    is set by --max-call-depth rather than by the JVM's -Xss. Going deeper is a "Stack overflow." runtime error.
+    */
     private static void run(String source) {
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                execute(source);
+            } catch (Throwable throwable) {
+                failure[0] = throwable;
+            }
+        }, "lox", threadStackSize(maxCallDepth));
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            thread.interrupt();
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (failure[0] instanceof RuntimeException exception) {
+            throw exception;
+        }
+        if (failure[0] instanceof Error error) {
+            throw error;
+        }
+    }
+
+    // The stack of a thread that runs Lox code nested up to callDepth calls deep, the program's own or a generator's.
+    static long threadStackSize(int callDepth) {
+        return callDepth * STACK_BYTES_PER_CALL + STACK_BYTES_RESERVED;
+    }
+
+    // The most calls a generator's body may nest: the program's limit, but no more than LoxGenerator allows.
+    static int generatorCallDepth() {
+        return Math.min(maxCallDepth, LoxGenerator.MAX_CALL_DEPTH);
+    }
+
+    private static void execute(String source) {
+        List<Stmt> statements = analyze(source);
+        if (statements == null) {
+            return;
+        }
+        switch (engine) {
+            case VM -> runOnVm(statements);
+            case NODE -> runOnNodes(statements);
+            default -> {
+                interpreter.interpret(statements);
+                if (InlineCache.collectStatistics) {
+                    InlineCache.printStatistics();
+                }
+            }
+        }
+    }
+
+    // Scans, parses, resolves, inlines, replaces allocations and optimizes a program.
+    // Returns null if it has errors; they have already been reported.
+    public static List<Stmt> analyze(String source) {
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
         Parser parser = new Parser(tokens);
@@ -62,19 +192,59 @@ public class Lox {
 
         // Stop if there was a syntax error.
         if (hadError) {
-            return;
+            return null;
         }
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
 
         // Stop if there was a resolution error.
         if (hadError) {
-            return;
+            return null;
+        }
+
+        Inliner inliner = new Inliner();
+        List<Stmt> inlined = inliner.inline(statements);
+        if (inlinerReport) {
+            inliner.printReport();
+        }
+
+        ScalarReplacement scalarReplacement = new ScalarReplacement();
+        List<Stmt> replaced = scalarReplacement.replace(inlined);
+        if (escapeStatistics) {
+            scalarReplacement.printStatistics();
+        }
+
+        int before = optimizerStatistics ? NodeCounter.count(replaced) : 0;
+        List<Stmt> optimized = new Optimizer().optimize(replaced);
+        if (optimizerStatistics) {
+            System.err.println("[opt] " + before + " nodes before, " + NodeCounter.count(optimized) + " after");
+        }
+        return optimized;
+    }
+
+    private static void runOnVm(List<Stmt> statements) {
+        if (vm == null) {
+            vm = new VM(maxCallDepth);
+        }
+        try {
+            vm.interpret(statements);
+        } catch (RuntimeError error) {
+            runtimeError(error, VM.class);
+        }
+    }
+
+    private static void runOnNodes(List<Stmt> statements) {
+        if (nodeEngine == null) {
+            nodeEngine = new NodeEngine(maxCallDepth);
+        }
+        try {
+            nodeEngine.interpret(statements);
+        } catch (RuntimeError error) {
+            runtimeError(error, NodeEngine.class);
         }
-        interpreter.interpret(statements);
     }
 
-    static void error(int line, String message) {
+    public static void error(int line, String message) {
         report(line, "", message);
     }
 
@@ -83,7 +253,7 @@ public class Lox {
         hadError = true;
     }
 
-    static void error(Token token, String message) {
+    public static void error(Token token, String message) {
         if (token.tokenType() == TokenType.EOF) {
             report(token.line(), " at end", message);
         }
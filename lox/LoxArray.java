@@ -0,0 +1,161 @@
+package lox;
+
+import lox.exceptions.RuntimeError;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+The native array, made by the global Array(). It keeps its elements in one growable Java array instead of a
+chain of instances with a field table each. While every element is a number that array is a double[], so a
+numeric array holds no boxes at all; the first element of any other type moves the elements to an Object[]
+for good.
+
+    get(i)  set(i, value)  push(value)  pop  length  slice(start, end)
+
+pop and length take no arguments, so like getters of a Lox class they are read without parentheses. A for-in
+loop visits the elements in order, including any pushed while it runs.
+*/
+public final class LoxArray implements NativeObject {
+    private static final double[] NO_NUMBERS = new double[0];
+
+    private double[] numbers = NO_NUMBERS; // The elements while they are all numbers; null afterwards.
+    private Object[] values;               // The elements once one of them is not a number.
+    private int size = 0;
+
+    @Override
+    public int arity(Token name) {
+        return switch (name.lexeme()) {
+            case "pop", "length" -> 0;
+            case "get", "push" -> 1;
+            case "set", "slice" -> 2;
+            default -> throw NativeObject.undefined(name);
+        };
+    }
+
+    @Override
+    public Object invoke(Token name, List<Object> arguments) {
+        switch (name.lexeme()) {
+            case "get":
+                return get(index(name, arguments.get(0), size));
+            case "set":
+                set(index(name, arguments.get(0), size), arguments.get(1));
+                return arguments.get(1);
+            case "push":
+                push(arguments.get(0));
+                return null;
+            case "pop": {
+                if (size == 0) {
+                    throw new RuntimeError(name, "Can't pop from an empty array.");
+                }
+                Object last = get(size - 1);
+                size--;
+                if (values != null) {
+                    values[size] = null;
+                }
+                return last;
+            }
+            case "length":
+                return (double) size;
+            case "slice": {
+                int start = index(name, arguments.get(0), size + 1);
+                int end = index(name, arguments.get(1), size + 1);
+                if (end < start) {
+                    throw new RuntimeError(name, "Slice end must not come before its start.");
+                }
+                LoxArray slice = new LoxArray();
+                slice.size = end - start;
+                if (numbers != null) {
+                    slice.numbers = Arrays.copyOfRange(numbers, start, end);
+                } else {
+                    slice.numbers = null;
+                    slice.values = Arrays.copyOfRange(values, start, end);
+                }
+                return slice;
+            }
+            default:
+                throw NativeObject.undefined(name);
+        }
+    }
+
+    @Override
+    public Cursor cursor(Token keyword) {
+        return new Cursor() {
+            private int index = 0;
+
+            @Override
+            public Object next() {
+                return index < size ? get(index++) : END;
+            }
+        };
+    }
+
+    Object get(int index) {
+        return numbers != null ? (Object) numbers[index] : values[index];
+    }
+
+    void set(int index, Object value) {
+        if (numbers != null) {
+            if (value instanceof Double number) {
+                numbers[index] = number;
+                return;
+            }
+            generalize();
+        }
+        values[index] = value;
+    }
+
+    void push(Object value) {
+        if (numbers != null && !(value instanceof Double)) {
+            generalize();
+        }
+        if (numbers != null) {
+            if (size == numbers.length) {
+                numbers = Arrays.copyOf(numbers, Math.max(8, size * 2));
+            }
+            numbers[size++] = (double) value;
+        } else {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(8, size * 2));
+            }
+            values[size++] = value;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Moves the elements from the double[] to an Object[], boxing each number once.
+    private void generalize() {
+        values = new Object[Math.max(8, numbers.length)];
+        for (int i = 0; i < size; i++) {
+            values[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    // Checks that a Lox value is a whole number from 0 up to, but not including, the limit.
+    private static int index(Token name, Object value, int limit) {
+        if (!(value instanceof Double number)) {
+            throw new RuntimeError(name, "Index must be a number.");
+        }
+        int index = (int) (double) number;
+        if (index != number || index < 0 || index >= limit) {
+            throw new RuntimeError(name, "Index out of bounds.");
+        }
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return Values.stringifyCollection(this, "[", "]", text -> {
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    text.append(", ");
+                }
+                text.append(Values.stringify(get(i)));
+            }
+        });
+    }
+}
@@ -1,19 +1,31 @@
 package lox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class LoxClass extends LoxInstance implements LoxCallable{
     final String name;
     final LoxClass superClass;
+    // The class's own methods merged over everything it inherits, so a lookup never walks the hierarchy.
     private final Map<String, LoxFunction> methods;
+    private final LoxFunction initializer;
+    final Shape instanceShape = Shape.root(); // Where the instances of this class start out.
+    int expectedFieldCount = 0;                // The most fields an instance has had so far.
 
 
     LoxClass(String name, Map<String, LoxFunction> methods,  LoxClass superClass) {
         super(null);
         this.name = name;
-        this.methods = methods;
         this.superClass = superClass;
+
+        Map<String, LoxFunction> table = new HashMap<>();
+        if (superClass != null) {
+            table.putAll(superClass.methods);
+        }
+        table.putAll(methods);
+        this.methods = Map.copyOf(table);
+        this.initializer = this.methods.get("init");
     }
 
     @Override
@@ -23,7 +35,6 @@ public class LoxClass extends LoxInstance implements LoxCallable{
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null) {
             return 0;
         }
@@ -33,22 +44,14 @@ public class LoxClass extends LoxInstance implements LoxCallable{
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, arguments);
         }
         return instance;
     }
 
     LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-
-        if (superClass != null) {
-            return superClass.findMethod(name);
-        }
-        return null;
+        return methods.get(name);
     }
 
     void defineStaticMethod(Token name, Object value) {
@@ -1,8 +1,8 @@
 package lox;
 
-import lox.exceptions.BreakException;
-import lox.exceptions.ContinueException;
-import lox.exceptions.ReturnException;
+import lox.ir.IrCompiler;
+import lox.jit.CompiledCode;
+import lox.jit.Jit;
 
 import java.util.List;
 
@@ -10,20 +10,42 @@ public class LoxFunction implements LoxCallable {
     // Store parameters and body directly, as they are common to both named and anonymous functions.
     private final List<Token> params;
     private final List<Stmt> body;
-    private final Environment closure;
+    private final int slotCount; // The receiver of a method, the parameters and every local of the body.
+    private final int[] boxedSlots;
+    private final Cell[] captured; // The variables of enclosing functions the body uses, in the Resolver's order.
     private final String name; // For named functions; null for anonymous ones.
     private final boolean isInitializer;
     private final boolean isGetter;
+    private final boolean isGenerator; // A call returns a LoxGenerator that runs the body on demand.
+    // Methods keep "this" in slot 0 of their frame, ahead of the parameters.
+    private final boolean isMethod;
+    private final LoxInstance receiver; // Set on a bound method; null otherwise.
+    // Calls plus loop iterations, counted until the function is handed to the JIT or the IR tier.
+    private int hotness = 0;
+    // Installed by the JIT's background thread or the IR tier; from then on calls skip the tree-walker.
+    private volatile CompiledCode compiled;
 
     // Unified constructor for both named and anonymous functions.
     // The 'name' parameter is null for anonymous functions.
-    public LoxFunction(String name, List<Token> params, List<Stmt> body, Environment closure, boolean isInitializer) {
+    LoxFunction(String name, FunctionLikeable declaration, Cell[] captured, boolean isInitializer, boolean isMethod) {
+        this(name, declaration.getParams(), declaration.getBody(), declaration.getSlotCount(),
+                declaration.getBoxedSlots(), captured, isInitializer, declaration.isGenerator(), isMethod, null);
+    }
+
+    private LoxFunction(String name, List<Token> params, List<Stmt> body, int slotCount, int[] boxedSlots,
+                        Cell[] captured, boolean isInitializer, boolean isGenerator, boolean isMethod,
+                        LoxInstance receiver) {
         this.name = name;
         this.params = params;
         this.body = body;
-        this.closure = closure;
+        this.slotCount = slotCount;
+        this.boxedSlots = boxedSlots;
+        this.captured = captured;
         this.isInitializer = isInitializer;
         this.isGetter = params.isEmpty();
+        this.isGenerator = isGenerator;
+        this.isMethod = isMethod;
+        this.receiver = receiver;
     }
 
     @Override
@@ -33,39 +55,86 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        // Each function call gets its own environment.
-        // Its enclosing environment is the function's closure (where it was defined).
-        Environment environment = new Environment(closure);
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    /*
+    Calls a method on the given receiver without creating a bound method first. A tail call the body leaves pending
+    is made here, after the body's Java frames are gone, and so on until a body returns a value: a chain of tail
+    calls of any length runs in the stack of one.
+    */
+    Object invoke(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        Object result = activate(interpreter, receiver, arguments);
+        Interpreter.TailCall tailCall;
+        while ((tailCall = interpreter.takeTailCall()) != null) {
+            result = tailCall.function().activate(interpreter, tailCall.receiver(), tailCall.arguments());
+        }
+        return result;
+    }
+
+    // Runs the body once, compiled or in the tree-walker.
+    private Object activate(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        CompiledCode code = compiled;
+        if (code != null) {
+            Object result = code.run(interpreter, receiver, arguments);
+            return isInitializer ? receiver : result;
+        }
+        countHotness(interpreter);
+
+        // Each call gets its own frame. Variables of enclosing functions are reached through the captured cells.
+        Object[] frame = new Object[slotCount];
 
-        // Bind arguments to parameters in the new environment.
+        // Bind arguments to parameters in the new frame; the Resolver gives them the first slots,
+        // right after the receiver of a method.
+        int first = 0;
+        if (isMethod) {
+            frame[0] = receiver;
+            first = 1;
+        }
         for (int i = 0; i < params.size(); i++) {
-            environment.define(params.get(i).lexeme(), arguments.get(i));
+            frame[first + i] = arguments.get(i);
+        }
+        for (int slot : boxedSlots) {
+            frame[slot] = new Cell(frame[slot]);
+        }
+        if (isGenerator) {
+            return new LoxGenerator(interpreter, this, body, frame, captured);
         }
 
+        LoxFunction caller = interpreter.enterFunction(this);
         try {
-            interpreter.executeBlock(body, environment);
-        } catch (ReturnException returnValue) {
-            if (isInitializer) {
-                return closure.getAt(0, "this");
-            }
-            return returnValue.getValue();
-        } catch (BreakException breakException) {
-            var breakStmt = (Stmt.Break)body.stream().filter(stmt -> stmt instanceof Stmt.Break).findFirst().get();
-            Lox.error(breakStmt.keyword,"'break' outside of loop");
-        } catch (ContinueException continueException) {
-            var continueStmt = (Stmt.Continue)body.stream().filter(stmt -> stmt instanceof Stmt.Continue).findFirst().get();
-            Lox.error(continueStmt.keyword,"'continue' outside of loop");
+            interpreter.executeFrame(body, frame, captured);
+        } finally {
+            interpreter.enterFunction(caller);
         }
+        Object returnValue = interpreter.takeReturnValue();
         if (isInitializer) {
-            return closure.getAt(0, "this");
+            return receiver;
+        }
+        return returnValue;
+    }
+
+    /*
+    Called on every call and every loop iteration while the function runs in the tree-walker. Functions go to the
+    JIT when it is on and to the IR tier otherwise; methods only to the IR tier, since the JIT does not handle
+    'this' or properties. The IR tier compiles on the spot, and the compiled code takes over from the next call.
+    */
+    void countHotness(Interpreter interpreter) {
+        if (Jit.isEnabled() && !isMethod) {
+            if (hotness < Jit.COMPILE_THRESHOLD && ++hotness == Jit.COMPILE_THRESHOLD) {
+                Jit.submit(toString(), params, body, slotCount, interpreter.globals, code -> compiled = code);
+            }
+        } else if (IrCompiler.isEnabled()) {
+            if (hotness < IrCompiler.threshold() && ++hotness == IrCompiler.threshold()) {
+                compiled = IrCompiler.compile(toString(), params, body, slotCount, isMethod, interpreter.globals);
+            }
         }
-        return null;
     }
 
+    // Only needed when a method is used as a value; calls through a property go through invoke().
     LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(this.name, this.params, this.body, environment, isInitializer);
+        return new LoxFunction(this.name, this.params, this.body, this.slotCount, this.boxedSlots, this.captured,
+                isInitializer, isGenerator, isMethod, instance);
     }
 
     @Override
@@ -80,7 +149,7 @@ public class LoxFunction implements LoxCallable {
         return isGetter;
     }
 
-    public Environment getClosure() {
-        return closure;
+    public LoxInstance getReceiver() {
+        return receiver;
     }
 }
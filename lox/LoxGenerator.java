@@ -0,0 +1,220 @@
+package lox;
+
+import lox.exceptions.RuntimeError;
+
+import java.lang.ref.Cleaner;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+What a call of a generator function returns; a function is a generator when its body contains yield. The body does
+not start until the first element is asked for, and then runs only to its first yield. Every later request runs it
+on to the next one, so a pipeline of generators holds one element per stage however long the stream is.
+
+    next   the next element, or nil once the body has finished
+
+A for-in loop resumes the generator directly and ends when the body does, so there an element may be nil.
+
+The body runs on a thread of its own with an Interpreter of its own. Whatever it was in the middle of when it yielded,
+its frame, the loops it was in and how far each had got, stays on that thread's stack while it waits. Only one of the
+two threads runs at a time: each hands over by flipping a turn and waking the other, then parks until the turn comes
+back. JDK 17 has no virtual threads, so these are platform threads, taken from a pool that keeps finished ones for
+the next generator. A generator dropped before its body finishes would keep its thread parked forever; once the
+generator is unreachable a Cleaner closes it, and the thread unwinds the body and goes back to the pool.
+
+A program may hold many generators at once, each with a parked thread, so their stacks are much smaller than the
+one the program runs on. Inside a body, calls nest at most MAX_CALL_DEPTH deep, counted from the body, or as deep
+as --max-call-depth allows if that is less. Going deeper is a "Stack overflow." runtime error, which ends the
+generator like any other error in its body.
+*/
+public final class LoxGenerator implements NativeObject {
+    // The deepest a generator's body may nest calls; its thread's stack is sized for this many.
+    static final int MAX_CALL_DEPTH = 1 << 10;
+    private static final Cleaner cleaner = Cleaner.create();
+    private static final ExecutorService threads = Executors.newCachedThreadPool(body -> {
+        Thread thread = new Thread(null, body, "lox generator", Lox.threadStackSize(Lox.generatorCallDepth()));
+        thread.setDaemon(true);
+        return thread;
+    });
+    // On a single processor the other thread can't make progress while this one spins, so it parks at once.
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 8 : 0;
+
+    private final Body body;
+    private final String name;
+    private boolean isRunning = false;
+    private boolean isFinished = false;
+
+    LoxGenerator(Interpreter caller, LoxFunction function, List<Stmt> statements, Object[] frame, Cell[] captured) {
+        this.body = new Body(caller, function, statements, frame, captured);
+        this.name = function.toString();
+        // The action must not hold on to the generator, or it would never become unreachable.
+        cleaner.register(this, body::close);
+    }
+
+    @Override
+    public int arity(Token name) {
+        if (name.lexeme().equals("next")) {
+            return 0;
+        }
+        throw NativeObject.undefined(name);
+    }
+
+    @Override
+    public Object invoke(Token name, List<Object> arguments) {
+        if (!name.lexeme().equals("next")) {
+            throw NativeObject.undefined(name);
+        }
+        Object element = resume(name);
+        return element == Cursor.END ? null : element;
+    }
+
+    @Override
+    public Cursor cursor(Token keyword) {
+        return () -> resume(keyword);
+    }
+
+    // Runs the body to its next yield and returns the value, or Cursor.END once the body has finished.
+    private Object resume(Token token) {
+        if (isFinished) {
+            return Cursor.END;
+        }
+        if (isRunning) {
+            throw new RuntimeError(token, "Generator is already running.");
+        }
+        isRunning = true;
+        Object message;
+        try {
+            message = body.resume();
+        } finally {
+            isRunning = false;
+        }
+
+        if (message == Body.DONE) {
+            isFinished = true;
+            return Cursor.END;
+        }
+        // An error in the body ends the generator and surfaces where the element was asked for.
+        if (message instanceof RuntimeException exception) {
+            isFinished = true;
+            throw exception;
+        }
+        if (message instanceof Error error) {
+            isFinished = true;
+            throw error;
+        }
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "<generator " + name.substring("<fn ".length());
+    }
+
+    /*
+    The side of a generator that its thread works with. It never refers to the LoxGenerator, so the thread keeps
+    only the body alive and the generator can still be collected while the thread waits.
+    */
+    static final class Body implements Runnable {
+        static final Object DONE = new Object(); // The message once the body has finished.
+        private static final int CALLER = 0;
+        private static final int BODY = 1;
+
+        private final Interpreter interpreter;
+        private final LoxFunction function;
+        private final List<Stmt> statements;
+        private final Object[] frame;
+        private final Cell[] captured;
+        // Whose turn it is to run. Writing it publishes the message to the other side.
+        private volatile int turn = CALLER;
+        // A yielded value, DONE, or the error the body failed with.
+        private Object message;
+        private boolean isStarted = false;
+        private volatile boolean isClosed = false;
+        private volatile Thread caller;
+        private volatile Thread thread;
+
+        // Thrown on the body's thread when the generator has been collected, to unwind the body.
+        private static final class Abandoned extends RuntimeException {
+            Abandoned() {
+                super(null, null, false, false);
+            }
+        }
+
+        Body(Interpreter caller, LoxFunction function, List<Stmt> statements, Object[] frame, Cell[] captured) {
+            this.interpreter = new Interpreter(caller, this);
+            this.function = function;
+            this.statements = statements;
+            this.frame = frame;
+            this.captured = captured;
+        }
+
+        // Called on the caller's thread: hands the turn to the body and returns the message it hands back.
+        Object resume() {
+            caller = Thread.currentThread();
+            turn = BODY;
+            if (!isStarted) {
+                isStarted = true;
+                threads.execute(this);
+            } else {
+                LockSupport.unpark(thread);
+            }
+            await(CALLER);
+            Object result = message;
+            message = null;
+            return result;
+        }
+
+        // Called on the body's thread by a yield statement.
+        void yield(Object value) {
+            message = value;
+            turn = CALLER;
+            LockSupport.unpark(caller);
+            await(BODY);
+        }
+
+        private void await(int side) {
+            for (int spins = 0; turn != side; spins++) {
+                if (side == BODY && isClosed) {
+                    throw new Abandoned();
+                }
+                if (spins < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            Object result;
+            try {
+                interpreter.enterFunction(function);
+                interpreter.executeFrame(statements, frame, captured);
+                interpreter.takeReturnValue();
+                result = DONE;
+            } catch (Abandoned abandoned) {
+                return;
+            } catch (RuntimeException | Error error) {
+                result = error;
+            } finally {
+                thread = null;
+            }
+            message = result;
+            turn = CALLER;
+            LockSupport.unpark(caller);
+        }
+
+        // Run by the Cleaner. A body that is parked wakes up and unwinds; one that never started never will.
+        void close() {
+            isClosed = true;
+            Thread parked = thread;
+            if (parked != null) {
+                LockSupport.unpark(parked);
+            }
+        }
+    }
+}
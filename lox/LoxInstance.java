@@ -2,16 +2,25 @@ package lox;
 
 import lox.exceptions.RuntimeError;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
+    private static final Object[] NO_VALUES = new Object[0];
+
     private LoxClass currentClass;
-    private final Map<String, Object> fields = new HashMap<>();
+    // The fields live in a plain array laid out by the shape, which is shared with similar instances.
+    private Shape shape;
+    private Object[] values;
 
     LoxInstance(LoxClass currentClass) {
         this.currentClass = currentClass;
+        if (currentClass == null) {
+            this.shape = Shape.root();
+            this.values = NO_VALUES;
+        } else {
+            this.shape = currentClass.instanceShape;
+            this.values = currentClass.expectedFieldCount == 0 ? NO_VALUES : new Object[currentClass.expectedFieldCount];
+        }
     }
 
     @Override
@@ -19,26 +28,107 @@ public class LoxInstance {
         return currentClass.name + " instance";
     }
 
-    Object get(Interpreter interpreter, Token name) {
-        if (fields.containsKey(name.lexeme())) {
-            return fields.get(name.lexeme());
-        }
+    // The site's cache maps this instance's shape to a field index, or to the method the name finds.
+    Object get(Interpreter interpreter, Token name, InlineCache cache) {
+        int entry = cache.find(shape);
+        int index;
         LoxFunction method;
-        try {
-            method = currentClass.findMethod(name.lexeme());
-        } catch (NullPointerException e) {
+        if (entry != -1) {
+            index = cache.index(entry);
+            method = (LoxFunction) cache.target(entry);
+        } else {
+            index = shape.indexOf(name.lexeme());
+            method = index == -1 ? findMethod(name) : null;
+            cache.add(shape, method, index);
+        }
+
+        if (index != -1) {
+            return values[index];
+        }
+        if (method.isGetter()) {
+            return interpreter.callGetter(method, this, name);
+        }
+        return method.bind(this);
+    }
+
+    // Like get(), but only for fields: returns Interpreter.NOT_A_FIELD instead of looking at the methods.
+    Object getField(Token name, InlineCache cache) {
+        int entry = cache.find(shape);
+        int index;
+        if (entry != -1) {
+            index = cache.index(entry);
+        } else {
+            index = shape.indexOf(name.lexeme());
+            if (index == -1) {
+                // Left for get() to cache, together with the method the name finds.
+                return Interpreter.NOT_A_FIELD;
+            }
+            cache.add(shape, null, index);
+        }
+        return index == -1 ? Interpreter.NOT_A_FIELD : values[index];
+    }
+
+    // Resolves a property for a call site that wants to invoke it: returns the method the name finds,
+    // unbound, or null if the name is a field. Shares the cache entries of get().
+    LoxFunction findMethod(Token name, InlineCache cache) {
+        int entry = cache.find(shape);
+        if (entry != -1) {
+            return (LoxFunction) cache.target(entry);
+        }
+        int index = shape.indexOf(name.lexeme());
+        LoxFunction method = index == -1 ? findMethod(name) : null;
+        cache.add(shape, method, index);
+        return method;
+    }
+
+    private LoxFunction findMethod(Token name) {
+        if (currentClass == null) {
             throw new RuntimeError(name, "You cannot call a non-static method without first initialising the class!");
         }
-        if (method != null) {
-            if (method.isGetter()) {
-                return method.bind(this).call(interpreter, Collections.emptyList());
+        LoxFunction method = currentClass.findMethod(name.lexeme());
+        if (method == null) {
+            throw new RuntimeError(name, "Undefined property: '" + name.lexeme() + "'.");
+        }
+        return method;
+    }
+
+    // The site's cache maps the shape before the store to the field index and the shape after it.
+    void set(Token name, Object value, InlineCache cache) {
+        int entry = cache.find(shape);
+        if (entry != -1) {
+            Shape next = (Shape) cache.target(entry);
+            int index = cache.index(entry);
+            if (next != shape) {
+                addField(next, index);
             }
-            return method.bind(this);
+            values[index] = value;
+            return;
         }
-        throw new RuntimeError(name, "Undefined property: '" + name.lexeme() + "'.");
+
+        Shape before = shape;
+        int index = set(name, value);
+        cache.add(before, shape, index);
+    }
+
+    // Returns the index the field is stored at.
+    int set(Token name, Object value) {
+        int index = shape.indexOf(name.lexeme());
+        if (index == -1) {
+            index = shape.size();
+            addField(shape.withField(name.lexeme()), index);
+        }
+        values[index] = value;
+        return index;
     }
 
-    void set(Token name, Object value) {
-        fields.put(name.lexeme(), value);
+    private void addField(Shape next, int index) {
+        shape = next;
+        if (index >= values.length) {
+            values = Arrays.copyOf(values, index + 1);
+        }
+        // Later instances of the class start out with room for every field this one has.
+        if (currentClass != null && index >= currentClass.expectedFieldCount) {
+            currentClass.expectedFieldCount = index + 1;
+        }
     }
 }
@@ -0,0 +1,200 @@
+package lox;
+
+import lox.exceptions.RuntimeError;
+
+import java.util.List;
+
+/*
+The native hash map, made by the global Map(). It is an open-addressing table with linear probing: keys and
+values sit in two parallel arrays at the slot their hash picks, or the next free one after it, so a key costs
+two array cells and no entry object. Removing a key shifts the keys that probed past it back into place rather
+than leaving a tombstone, so a table that sees many removals does not fill up with dead slots.
+
+    get(key)  put(key, value)  has(key)  remove(key)  size  keys
+
+Keys match the way == compares values: numbers, strings and booleans by value, anything else by identity. A
+rope is flattened when it becomes a key, so it hashes like the String it spells. nil can't be a key.
+
+A for-in loop visits the keys in table order. Adding or removing a key while the loop runs stops it with an
+error, since either can move keys the loop has not reached yet to slots it has already passed.
+*/
+public final class LoxMap implements NativeObject {
+    private static final int MIN_CAPACITY = 8;
+
+    private Object[] keys = new Object[MIN_CAPACITY];
+    private Object[] values = new Object[MIN_CAPACITY];
+    private int size = 0;
+    private int modifications = 0; // Keys added or removed, so that a cursor notices the table change under it.
+
+    @Override
+    public int arity(Token name) {
+        return switch (name.lexeme()) {
+            case "size", "keys" -> 0;
+            case "get", "has", "remove" -> 1;
+            case "put" -> 2;
+            default -> throw NativeObject.undefined(name);
+        };
+    }
+
+    @Override
+    public Object invoke(Token name, List<Object> arguments) {
+        switch (name.lexeme()) {
+            case "get": {
+                int slot = find(key(name, arguments.get(0)));
+                return slot == -1 ? null : values[slot];
+            }
+            case "put":
+                put(key(name, arguments.get(0)), arguments.get(1));
+                return arguments.get(1);
+            case "has":
+                return find(key(name, arguments.get(0))) != -1;
+            case "remove": {
+                int slot = find(key(name, arguments.get(0)));
+                if (slot == -1) {
+                    return null;
+                }
+                Object value = values[slot];
+                removeAt(slot);
+                return value;
+            }
+            case "size":
+                return (double) size;
+            case "keys": {
+                // In table order, which has nothing to do with the order the keys were put in.
+                LoxArray array = new LoxArray();
+                for (Object key : keys) {
+                    if (key != null) {
+                        array.push(key);
+                    }
+                }
+                return array;
+            }
+            default:
+                throw NativeObject.undefined(name);
+        }
+    }
+
+    @Override
+    public Cursor cursor(Token keyword) {
+        return new Cursor() {
+            private final int expectedModifications = modifications;
+            private int slot = 0;
+
+            @Override
+            public Object next() {
+                if (modifications != expectedModifications) {
+                    throw new RuntimeError(keyword, "Map changed during iteration.");
+                }
+                while (slot < keys.length) {
+                    Object key = keys[slot++];
+                    if (key != null) {
+                        return key;
+                    }
+                }
+                return END;
+            }
+        };
+    }
+
+    // The value a Lox key is stored as.
+    static Object key(Token name, Object key) {
+        if (key == null) {
+            throw new RuntimeError(name, "Map keys can't be nil.");
+        }
+        return key instanceof CharSequence text ? text.toString() : key;
+    }
+
+    // The slot holding the key, or -1 if it is not in the map.
+    private int find(Object key) {
+        int mask = keys.length - 1;
+        for (int slot = home(key, mask); keys[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot].equals(key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void put(Object key, Object value) {
+        int mask = keys.length - 1;
+        int slot = home(key, mask);
+        while (keys[slot] != null) {
+            if (keys[slot].equals(key)) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        modifications++;
+        // Linear probing slows down quickly past two thirds full.
+        if (size * 3 > keys.length * 2) {
+            resize(keys.length * 2);
+        }
+    }
+
+    private void removeAt(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+            // A key can fill the hole if the hole lies on its way from its home slot to where it is now.
+            int home = home(keys[next], mask);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+        keys[hole] = null;
+        values[hole] = null;
+        size--;
+        modifications++;
+    }
+
+    private void resize(int capacity) {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = home(oldKeys[i], mask);
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int home(Object key, int mask) {
+        return hash(key) & mask;
+    }
+
+    // A hash of a stored key with every bit mixed into the low ones, which are the ones tables use.
+    static int hash(Object key) {
+        int hash = key.hashCode();
+        // Numbers that differ only in their high bits, such as small integers, would otherwise pile up together.
+        hash ^= hash >>> 16;
+        hash *= 0x9E3779B9;
+        return hash ^ hash >>> 16;
+    }
+
+    @Override
+    public String toString() {
+        return Values.stringifyCollection(this, "{", "}", text -> {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    if (text.length() > 1) {
+                        text.append(", ");
+                    }
+                    text.append(Values.stringify(keys[i])).append(": ").append(Values.stringify(values[i]));
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,50 @@
+package lox;
+
+import lox.exceptions.RuntimeError;
+
+import java.util.List;
+
+/*
+A value implemented in Java that Lox code works with through methods, like the native collections. A call
+obj.name(args) goes straight to invoke(), without a bound method in between. Reading obj.name without calling
+it follows the rules of Lox classes: a method that takes no arguments is a getter and runs right away, and any
+other comes back bound to the object.
+*/
+public interface NativeObject {
+    // The number of arguments the named method takes. Throws a RuntimeError if there is no such method.
+    int arity(Token name);
+
+    // Runs the named method with as many arguments as arity() asked for.
+    Object invoke(Token name, List<Object> arguments);
+
+    // A cursor over the elements a for-in loop visits. Throws a RuntimeError if the object can't be iterated.
+    Cursor cursor(Token keyword);
+
+    default Object get(Token name) {
+        int arity = arity(name);
+        if (arity == 0) {
+            return invoke(name, List.of());
+        }
+        NativeObject object = this;
+        return new LoxCallable() {
+            @Override
+            public int arity() {
+                return arity;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return object.invoke(name, arguments);
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        };
+    }
+
+    static RuntimeError undefined(Token name) {
+        return new RuntimeError(name, "Undefined property '" + name.lexeme() + "'.");
+    }
+}
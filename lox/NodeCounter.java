@@ -0,0 +1,220 @@
+package lox;
+
+import java.util.List;
+
+import static lox.Expr.*;
+import static lox.Stmt.*;
+
+// Measures syntax trees, for the optimizer statistics and the inliner's size budget.
+final class NodeCounter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private int count = 0;
+
+    // The number of expression and statement nodes in a tree.
+    static int count(List<Stmt> statements) {
+        NodeCounter counter = new NodeCounter();
+        counter.addAll(statements);
+        return counter.count;
+    }
+
+    static int count(Expr expr) {
+        NodeCounter counter = new NodeCounter();
+        counter.add(expr);
+        return counter.count;
+    }
+
+    private void addAll(List<? extends Stmt> statements) {
+        for (Stmt statement : statements) {
+            add(statement);
+        }
+    }
+
+    private void add(Stmt stmt) {
+        if (stmt != null) {
+            count++;
+            stmt.accept(this);
+        }
+    }
+
+    private void add(Expr expr) {
+        if (expr != null) {
+            count++;
+            expr.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        addAll(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        add(stmt.superClass);
+        addAll(stmt.methods);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Expression stmt) {
+        add(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        addAll(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        add(stmt.condition);
+        add(stmt.thenBranch);
+        add(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        add(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Return stmt) {
+        add(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        add(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        add(stmt.condition);
+        add(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitForInStmt(ForIn stmt) {
+        add(stmt.iterable);
+        add(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Continue stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Yield stmt) {
+        add(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) {
+        add(expr.left);
+        add(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        add(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) {
+        add(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        add(expr.left);
+        add(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        add(expr.object);
+        add(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) {
+        add(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        add(expr.callee);
+        for (Expr argument : expr.arguments) {
+            add(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Get expr) {
+        add(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryRPNExpr(BinaryRPN expr) {
+        add(expr.left);
+        add(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Ternary expr) {
+        add(expr.condition);
+        add(expr.thenBranch);
+        add(expr.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLambdaExpr(Lambda expr) {
+        addAll(expr.body);
+        return null;
+    }
+}
@@ -0,0 +1,253 @@
+package lox;
+
+import java.util.List;
+
+import static lox.Expr.*;
+import static lox.Stmt.*;
+import static lox.Values.isEqual;
+import static lox.Values.isTruthy;
+import static lox.Values.stringify;
+
+/*
+Rewrites the resolved syntax tree before it is run: folds operators whose operands are literals, drops branches
+and loops whose condition is a literal, removes groupings (the tree already encodes precedence) and a few
+identities that cannot change the result. It runs after the Resolver, so static errors in dead code are still
+reported. As the last pass, it also marks the loops the tree-walker can run as counted loops.
+
+An operation that would fail at runtime, such as 1 / 0 or -"a", is left alone, so the error is still raised
+when the code runs, at its own line.
+*/
+public class Optimizer extends TreeRewriter {
+    public List<Stmt> optimize(List<Stmt> statements) {
+        return rewrite(statements);
+    }
+
+    ////////////////////////////////// STATEMENTS //////////////////////////////////
+
+    @Override
+    public Stmt visitExpressionStmt(Expression stmt) {
+        Expr expression = rewrite(stmt.expression);
+        // A literal on its own has no effect.
+        if (expression instanceof Literal) {
+            return null;
+        }
+        return expression == stmt.expression ? stmt : new Expression(expression);
+    }
+
+    @Override
+    public Stmt visitIfStmt(If stmt) {
+        Expr condition = optimizeCondition(stmt.condition);
+        if (condition instanceof Literal literal) {
+            return rewrite(isTruthy(literal.value) ? stmt.thenBranch : stmt.elseBranch);
+        }
+        Stmt thenBranch = orEmpty(rewrite(stmt.thenBranch));
+        Stmt elseBranch = rewrite(stmt.elseBranch);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(While stmt) {
+        Expr condition = optimizeCondition(stmt.condition);
+        if (condition instanceof Literal literal && !isTruthy(literal.value)) {
+            return null;
+        }
+        Stmt body = orEmpty(rewrite(stmt.body));
+        While loop = condition == stmt.condition && body == stmt.body ? stmt : new While(condition, body);
+        loop.counted = CountedLoop.recognize(loop);
+        return loop;
+    }
+
+    ////////////////////////////////// EXPRESSIONS //////////////////////////////////
+
+    @Override
+    public Expr visitBinaryExpr(Binary expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+
+        if (left instanceof Literal l && right instanceof Literal r) {
+            Object value = fold(expr.operator.tokenType(), l.value, r.value);
+            if (value != CANNOT_FOLD) {
+                return new Literal(value);
+            }
+        }
+
+        Expr simplified = simplify(expr.operator.tokenType(), left, right);
+        if (simplified != null) {
+            return simplified;
+        }
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return new Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Grouping expr) {
+        return rewrite(expr.expression);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Logical expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+
+        // 'or' and 'and' produce their left operand when it decides the result, and otherwise the right one.
+        if (left instanceof Literal literal) {
+            boolean decided = expr.operator.tokenType() == TokenType.OR ? isTruthy(literal.value)
+                    : !isTruthy(literal.value);
+            return decided ? left : right;
+        }
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return new Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Unary expr) {
+        Expr right = rewrite(expr.right);
+
+        switch (expr.operator.tokenType()) {
+            case BANG:
+                if (right instanceof Literal literal) {
+                    return new Literal(!isTruthy(literal.value));
+                }
+                break;
+            case MINUS:
+                if (right instanceof Literal literal && literal.value instanceof Double number) {
+                    return new Literal(-number);
+                }
+                // -(-x) is x once the inner negation has checked that x is a number.
+                if (right instanceof Unary inner && inner.operator.tokenType() == TokenType.MINUS
+                        && isNumber(inner.right)) {
+                    return inner.right;
+                }
+                break;
+        }
+
+        return right == expr.right ? expr : new Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitBinaryRPNExpr(BinaryRPN expr) {
+        return visitBinaryExpr(new Binary(expr.left, expr.operator, expr.right));
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Ternary expr) {
+        Expr condition = optimizeCondition(expr.condition);
+        if (condition instanceof Literal literal) {
+            return rewrite(isTruthy(literal.value) ? expr.thenBranch : expr.elseBranch);
+        }
+        Expr thenBranch = rewrite(expr.thenBranch);
+        Expr elseBranch = rewrite(expr.elseBranch);
+        if (condition == expr.condition && thenBranch == expr.thenBranch && elseBranch == expr.elseBranch) {
+            return expr;
+        }
+        return new Ternary(condition, thenBranch, elseBranch);
+    }
+
+    ////////////////////////////////// HELPERS //////////////////////////////////
+
+    // Marks an operation that has to be left for runtime because it would raise an error.
+    private static final Object CANNOT_FOLD = new Object();
+
+    private static Object fold(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case EQUAL_EQUAL:
+                return isEqual(left, right);
+            case BANG_EQUAL:
+                return !isEqual(left, right);
+            case PLUS:
+                if (left instanceof String l && right instanceof String r) {
+                    return l + r;
+                }
+                if (left instanceof String l && right instanceof Double) {
+                    return l + stringify(right);
+                }
+                if (left instanceof Double && right instanceof String r) {
+                    return stringify(left) + r;
+                }
+                break;
+        }
+        if (!(left instanceof Double l) || !(right instanceof Double r)) {
+            return CANNOT_FOLD;
+        }
+        return switch (operator) {
+            case GREATER -> l > r;
+            case GREATER_EQUAL -> l >= r;
+            case LESS -> l < r;
+            case LESS_EQUAL -> l <= r;
+            case PLUS -> l + r;
+            case MINUS -> l - r;
+            case STAR -> l * r;
+            case SLASH -> r == 0.0 ? CANNOT_FOLD : l / r;
+            default -> CANNOT_FOLD;
+        };
+    }
+
+    /*
+    Identities that hold for every number, applied only when the other operand is known to be a number, so a
+    type error is never hidden. x + 0 is not among them: it turns -0 into 0.
+    */
+    private static Expr simplify(TokenType operator, Expr left, Expr right) {
+        switch (operator) {
+            case MINUS:
+                if (isConstant(right, 0.0) && isNumber(left)) {
+                    return left;
+                }
+                break;
+            case SLASH:
+                if (isConstant(right, 1.0) && isNumber(left)) {
+                    return left;
+                }
+                break;
+            case STAR:
+                if (isConstant(right, 1.0) && isNumber(left)) {
+                    return left;
+                }
+                if (isConstant(left, 1.0) && isNumber(right)) {
+                    return right;
+                }
+                break;
+        }
+        return null;
+    }
+
+    // A condition only needs the truthiness of its value, so double negations can go.
+    private Expr optimizeCondition(Expr condition) {
+        Expr optimized = rewrite(condition);
+        while (optimized instanceof Unary outer && outer.operator.tokenType() == TokenType.BANG
+                && outer.right instanceof Unary inner && inner.operator.tokenType() == TokenType.BANG) {
+            optimized = inner.right;
+        }
+        return optimized;
+    }
+
+    // Whether an expression is certain to produce a number if it completes without an error.
+    private static boolean isNumber(Expr expr) {
+        if (expr instanceof Literal literal) {
+            return literal.value instanceof Double;
+        }
+        if (expr instanceof Unary unary) {
+            return unary.operator.tokenType() == TokenType.MINUS;
+        }
+        if (expr instanceof Binary binary) {
+            return switch (binary.operator.tokenType()) {
+                case MINUS, STAR, SLASH -> true;
+                case PLUS -> isNumber(binary.left) && isNumber(binary.right);
+                default -> false;
+            };
+        }
+        return false;
+    }
+
+    private static boolean isConstant(Expr expr, double value) {
+        // Compares bit patterns, so -0 is not mistaken for 0.
+        return expr instanceof Literal literal && literal.value instanceof Double number
+                && Double.doubleToRawLongBits(number) == Double.doubleToRawLongBits(value);
+    }
+}
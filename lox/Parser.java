@@ -67,6 +67,9 @@ public class Parser {
         if (match(WHILE)) {
             return whileStatement();
         }
+        if (match(YIELD)) {
+            return yieldStatement();
+        }
         if (match(BREAK)) {
             return breakStatement();
         }
@@ -82,7 +85,11 @@ public class Parser {
     /////////////////////////////// STATEMENTS ////////////////////////////////////////
 
     private Stmt forStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
+        if (isForIn()) {
+            return forInStatement(keyword);
+        }
 
         Stmt initializer;
         if (match(SEMICOLON)) {
@@ -122,6 +129,28 @@ public class Parser {
         return body;
     }
 
+    // 'in' is not a reserved word, so a for-in loop shows itself by the name that follows the loop variable.
+    private boolean isForIn() {
+        int name = check(VAR) ? current + 1 : current;
+        if (tokens.get(name).tokenType() != IDENTIFIER) {
+            return false;
+        }
+        Token next = tokens.get(name + 1);
+        return next.tokenType() == IDENTIFIER && next.lexeme().equals("in");
+    }
+
+    private Stmt forInStatement(Token keyword) {
+        match(VAR);
+        Token name = consume(IDENTIFIER, "Expect loop variable name.");
+        advance(); // The 'in'.
+        Expr iterable = expression();
+        consume(RIGHT_PAREN, "Expect ')' after for-in clause.");
+        Stmt body = statement();
+
+        // The block gives a loop at the top level a frame for its variable, as it does the initializer of a for.
+        return new Block(Arrays.asList(new ForIn(keyword, name, iterable, body)));
+    }
+
     private Stmt ifStatement() {
         consume(LEFT_PAREN, "Expect '(' after 'if'.");
         Expr condition = expression();
@@ -152,6 +181,16 @@ public class Parser {
         return new Return(keyword, value);
     }
 
+    private Stmt yieldStatement() {
+        Token keyword = previous();
+        Expr value = null;
+        if (!check(SEMICOLON)) {
+            value = expression();
+        }
+        consume(SEMICOLON, "Expect ';' after yield value.");
+        return new Yield(keyword, value);
+    }
+
     private Stmt varDeclaration() {
         Token name = consume(IDENTIFIER, "Expect variable name.");
 
@@ -525,6 +564,7 @@ public class Parser {
                     case WHILE:
                     case PRINT:
                     case RETURN:
+                    case YIELD:
                         return;
                 }
 
@@ -0,0 +1,400 @@
+package lox;
+
+import lox.exceptions.RuntimeError;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+The native persistent map, made by the global PersistentMap(). Like PersistentVector, updates return a new map
+and leave the old one unchanged, sharing everything they did not touch with it.
+
+It is a hash array mapped trie. Each node takes five bits of a key's hash and keeps a 32-bit bitmap of which of
+the 32 possible children it has, and an array with just those: a key and its value, or a null key and the node
+one level down. Keys whose whole hash is the same share a collision node, a plain list of keys and values. An
+update copies the nodes on the path to the key, at most seven of them and usually two or three.
+
+    get(key)  put(key, value)  has(key)  remove(key)  size  keys  transient
+
+Keys match as they do in Map. A transient map is built and turned back into a persistent one the way a
+transient vector is; its put and remove change it in place. A for-in loop visits the keys of a persistent map
+in trie order; a transient can't be iterated.
+*/
+public final class PersistentMap implements NativeObject {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    // What find() returns for a missing key, since nil is a value a key can have.
+    private static final Object NOT_FOUND = new Object();
+
+    private static final class Node {
+        // The transient allowed to change this node in place; null for a node that is shared.
+        final Object edit;
+        // Which of the 32 children are present; unused in a collision node.
+        int bitmap;
+        // Pairs of key and value, or of null and the node below.
+        Object[] array;
+        // Set in a collision node, whose keys all have this hash.
+        final boolean isCollision;
+        final int hash;
+
+        Node(Object edit, int bitmap, Object[] array) {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.array = array;
+            this.isCollision = false;
+            this.hash = 0;
+        }
+
+        Node(Object edit, int hash, Object[] array, boolean isCollision) {
+            this.edit = edit;
+            this.array = array;
+            this.isCollision = isCollision;
+            this.hash = hash;
+        }
+    }
+
+    private static final Node EMPTY_NODE = new Node(null, 0, new Object[0]);
+
+    private int size;
+    private Node root;
+    // Set while the map is transient: the token its own nodes carry.
+    private final Object edit;
+    private boolean isRetired = false;
+    // Whether the last put added a key or the last remove took one away.
+    private boolean sizeChanged;
+
+    PersistentMap() {
+        this(0, EMPTY_NODE, null);
+    }
+
+    private PersistentMap(int size, Node root, Object edit) {
+        this.size = size;
+        this.root = root;
+        this.edit = edit;
+    }
+
+    @Override
+    public int arity(Token name) {
+        switch (name.lexeme()) {
+            case "size":
+            case "keys":
+                return 0;
+            case "transient":
+                if (edit == null) {
+                    return 0;
+                }
+                break;
+            case "persistent":
+                if (edit != null) {
+                    return 0;
+                }
+                break;
+            case "get":
+            case "has":
+            case "remove":
+                return 1;
+            case "put":
+                return 2;
+        }
+        throw NativeObject.undefined(name);
+    }
+
+    @Override
+    public Object invoke(Token name, List<Object> arguments) {
+        if (isRetired) {
+            throw new RuntimeError(name, "Transient used after it was made persistent.");
+        }
+        switch (name.lexeme()) {
+            case "get": {
+                Object key = LoxMap.key(name, arguments.get(0));
+                Object value = find(root, 0, LoxMap.hash(key), key);
+                return value == NOT_FOUND ? null : value;
+            }
+            case "has": {
+                Object key = LoxMap.key(name, arguments.get(0));
+                return find(root, 0, LoxMap.hash(key), key) != NOT_FOUND;
+            }
+            case "put": {
+                Object key = LoxMap.key(name, arguments.get(0));
+                PersistentMap target = target();
+                target.sizeChanged = false;
+                target.root = target.put(root, 0, LoxMap.hash(key), key, arguments.get(1));
+                if (target.sizeChanged) {
+                    target.size++;
+                }
+                return edit == null ? target : arguments.get(1);
+            }
+            case "remove": {
+                Object key = LoxMap.key(name, arguments.get(0));
+                PersistentMap target = target();
+                target.sizeChanged = false;
+                Node newRoot = target.remove(root, 0, LoxMap.hash(key), key);
+                target.root = newRoot == null ? EMPTY_NODE : newRoot;
+                if (target.sizeChanged) {
+                    target.size--;
+                }
+                return edit == null ? target : null;
+            }
+            case "size":
+                return (double) size;
+            case "keys": {
+                LoxArray keys = new LoxArray();
+                collectKeys(root, keys);
+                return keys;
+            }
+            case "transient":
+                return new PersistentMap(size, root, new Object());
+            case "persistent":
+                isRetired = true;
+                return new PersistentMap(size, root, null);
+            default:
+                throw NativeObject.undefined(name);
+        }
+    }
+
+    @Override
+    public Cursor cursor(Token keyword) {
+        if (edit != null) {
+            throw new RuntimeError(keyword, "Can't iterate over a transient.");
+        }
+        return new KeyCursor(root);
+    }
+
+    // Walks the trie depth first. Seven levels of five bits use up a hash, so with a collision node at the bottom
+    // a path is at most eight nodes long.
+    private static final class KeyCursor implements Cursor {
+        private final Node[] nodes = new Node[8];
+        private final int[] positions = new int[8];
+        private int depth = 0;
+
+        KeyCursor(Node root) {
+            nodes[0] = root;
+        }
+
+        @Override
+        public Object next() {
+            while (depth >= 0) {
+                Node node = nodes[depth];
+                int i = positions[depth];
+                if (i == node.array.length) {
+                    depth--;
+                    continue;
+                }
+                positions[depth] = i + 2;
+                if (node.array[i] != null) {
+                    return node.array[i];
+                }
+                depth++;
+                nodes[depth] = (Node) node.array[i + 1];
+                positions[depth] = 0;
+            }
+            return END;
+        }
+    }
+
+    // The map an update changes: a transient changes itself, a persistent map a copy of itself.
+    private PersistentMap target() {
+        return edit != null ? this : new PersistentMap(size, root, null);
+    }
+
+    private static Object find(Node node, int shift, int hash, Object key) {
+        while (!node.isCollision) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0) {
+                return NOT_FOUND;
+            }
+            int index = 2 * Integer.bitCount(node.bitmap & (bit - 1));
+            Object storedKey = node.array[index];
+            if (storedKey != null) {
+                return key.equals(storedKey) ? node.array[index + 1] : NOT_FOUND;
+            }
+            node = (Node) node.array[index + 1];
+            shift += BITS;
+        }
+        if (node.hash == hash) {
+            for (int i = 0; i < node.array.length; i += 2) {
+                if (key.equals(node.array[i])) {
+                    return node.array[i + 1];
+                }
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    // A node this map may change: the node itself if it belongs to this transient, or else a copy that does.
+    private Node editable(Node node) {
+        if (edit != null && node.edit == edit) {
+            return node;
+        }
+        return node.isCollision ? new Node(edit, node.hash, node.array.clone(), true)
+                : new Node(edit, node.bitmap, node.array.clone());
+    }
+
+    // The node with the array changed in one place, or the node itself if that would not change anything.
+    private Node with(Node node, int index, Object value) {
+        if (node.array[index] == value) {
+            return node;
+        }
+        Node copy = editable(node);
+        copy.array[index] = value;
+        return copy;
+    }
+
+    private Node withArray(Node node, int bitmap, Object[] array) {
+        Node copy = edit != null && node.edit == edit ? node : new Node(edit, bitmap, array);
+        copy.bitmap = bitmap;
+        copy.array = array;
+        return copy;
+    }
+
+    private Node put(Node node, int shift, int hash, Object key, Object value) {
+        if (node.isCollision) {
+            return putInCollision(node, shift, hash, key, value);
+        }
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int index = 2 * Integer.bitCount(node.bitmap & (bit - 1));
+        if ((node.bitmap & bit) == 0) {
+            Object[] array = new Object[node.array.length + 2];
+            System.arraycopy(node.array, 0, array, 0, index);
+            array[index] = key;
+            array[index + 1] = value;
+            System.arraycopy(node.array, index, array, index + 2, node.array.length - index);
+            sizeChanged = true;
+            return withArray(node, node.bitmap | bit, array);
+        }
+
+        Object storedKey = node.array[index];
+        if (storedKey == null) {
+            return with(node, index + 1, put((Node) node.array[index + 1], shift + BITS, hash, key, value));
+        }
+        if (key.equals(storedKey)) {
+            return with(node, index + 1, value);
+        }
+        // Two keys want the same child: they move one level down, together.
+        sizeChanged = true;
+        Node child = pair(shift + BITS, storedKey, node.array[index + 1], hash, key, value);
+        Node copy = editable(node);
+        copy.array[index] = null;
+        copy.array[index + 1] = child;
+        return copy;
+    }
+
+    private Node pair(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+        int hash1 = LoxMap.hash(key1);
+        if (hash1 == hash2) {
+            return new Node(edit, hash1, new Object[] {key1, value1, key2, value2}, true);
+        }
+        int child1 = (hash1 >>> shift) & MASK;
+        int child2 = (hash2 >>> shift) & MASK;
+        if (child1 == child2) {
+            return new Node(edit, 1 << child1,
+                    new Object[] {null, pair(shift + BITS, key1, value1, hash2, key2, value2)});
+        }
+        int bitmap = (1 << child1) | (1 << child2);
+        return child1 < child2
+                ? new Node(edit, bitmap, new Object[] {key1, value1, key2, value2})
+                : new Node(edit, bitmap, new Object[] {key2, value2, key1, value1});
+    }
+
+    private Node putInCollision(Node node, int shift, int hash, Object key, Object value) {
+        if (hash != node.hash) {
+            // A key with another hash: the collision node moves below a regular node that can hold both.
+            Node parent = new Node(edit, 1 << ((node.hash >>> shift) & MASK), new Object[] {null, node});
+            return put(parent, shift, hash, key, value);
+        }
+        for (int i = 0; i < node.array.length; i += 2) {
+            if (key.equals(node.array[i])) {
+                return with(node, i + 1, value);
+            }
+        }
+        Object[] array = Arrays.copyOf(node.array, node.array.length + 2);
+        array[node.array.length] = key;
+        array[node.array.length + 1] = value;
+        sizeChanged = true;
+        Node copy = editable(node);
+        copy.array = array;
+        return copy;
+    }
+
+    // The node without the key, or null if nothing would be left in it.
+    private Node remove(Node node, int shift, int hash, Object key) {
+        if (node.isCollision) {
+            if (hash != node.hash) {
+                return node;
+            }
+            for (int i = 0; i < node.array.length; i += 2) {
+                if (key.equals(node.array[i])) {
+                    sizeChanged = true;
+                    if (node.array.length == 2) {
+                        return null;
+                    }
+                    Node copy = editable(node);
+                    copy.array = without(node.array, i);
+                    return copy;
+                }
+            }
+            return node;
+        }
+
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((node.bitmap & bit) == 0) {
+            return node;
+        }
+        int index = 2 * Integer.bitCount(node.bitmap & (bit - 1));
+        Object storedKey = node.array[index];
+        if (storedKey == null) {
+            Node child = (Node) node.array[index + 1];
+            Node newChild = remove(child, shift + BITS, hash, key);
+            if (newChild == child) {
+                return node;
+            }
+            if (newChild != null) {
+                return with(node, index + 1, newChild);
+            }
+        } else if (!key.equals(storedKey)) {
+            return node;
+        } else {
+            sizeChanged = true;
+        }
+        if (node.bitmap == bit) {
+            return null;
+        }
+        return withArray(node, node.bitmap ^ bit, without(node.array, index));
+    }
+
+    private static Object[] without(Object[] array, int index) {
+        Object[] smaller = new Object[array.length - 2];
+        System.arraycopy(array, 0, smaller, 0, index);
+        System.arraycopy(array, index + 2, smaller, index, array.length - index - 2);
+        return smaller;
+    }
+
+    private static void collectKeys(Node node, LoxArray keys) {
+        for (int i = 0; i < node.array.length; i += 2) {
+            if (node.array[i] != null) {
+                keys.push(node.array[i]);
+            } else {
+                collectKeys((Node) node.array[i + 1], keys);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Values.stringifyCollection(this, "{", "}", text -> appendEntries(root, text));
+    }
+
+    private static void appendEntries(Node node, StringBuilder text) {
+        for (int i = 0; i < node.array.length; i += 2) {
+            if (node.array[i] == null) {
+                appendEntries((Node) node.array[i + 1], text);
+                continue;
+            }
+            if (text.length() > 1) {
+                text.append(", ");
+            }
+            text.append(Values.stringify(node.array[i])).append(": ")
+                    .append(Values.stringify(node.array[i + 1]));
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package lox;
+
+import lox.exceptions.RuntimeError;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+The native persistent vector, made by the global PersistentVector(). Updates return a new vector and leave the
+old one as it was, so a script can keep as many versions as it likes and hand them around without copying.
+
+The elements are the leaves of a trie with 32 children per node, indexed by five bits of the index per level,
+plus a tail of up to 32 elements outside the trie where pushes and pops happen. An update copies only the path
+from the root to the leaf it changes, about log32(n) nodes of 32 slots, and shares every other node with the
+version it came from.
+
+    get(i)  set(i, value)  push(value)  pop  length  transient
+
+A transient is a mutable vector for building one quickly: it is made from a persistent vector in constant time
+and its updates change it in place, copying a shared node only the first time they touch it. Its persistent
+getter turns it back into a persistent vector, also in constant time, after which the transient can no longer
+be used. Versions never change once made, so they can be shared freely; a transient belongs to whoever made it.
+A for-in loop visits the elements of a persistent vector in order, a leaf at a time; a transient can't be
+iterated.
+*/
+public final class PersistentVector implements NativeObject {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final Node EMPTY_NODE = new Node(null, new Object[WIDTH]);
+
+    private static final class Node {
+        // The transient allowed to change this node in place; null for a node that is shared.
+        final Object edit;
+        final Object[] array;
+
+        Node(Object edit, Object[] array) {
+            this.edit = edit;
+            this.array = array;
+        }
+    }
+
+    private int count;
+    private int shift; // The number of index bits below the root.
+    private Node root;
+    private Object[] tail; // Exactly as long as the tail is in a persistent vector, and always WIDTH in a transient.
+    // Set while the vector is transient: the token its own nodes carry.
+    private final Object edit;
+    private boolean isRetired = false;
+
+    PersistentVector() {
+        this(0, BITS, EMPTY_NODE, new Object[0], null);
+    }
+
+    private PersistentVector(int count, int shift, Node root, Object[] tail, Object edit) {
+        this.count = count;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+        this.edit = edit;
+    }
+
+    @Override
+    public int arity(Token name) {
+        switch (name.lexeme()) {
+            case "pop":
+            case "length":
+                return 0;
+            case "transient":
+                if (edit == null) {
+                    return 0;
+                }
+                break;
+            case "persistent":
+                if (edit != null) {
+                    return 0;
+                }
+                break;
+            case "get":
+            case "push":
+                return 1;
+            case "set":
+                return 2;
+        }
+        throw NativeObject.undefined(name);
+    }
+
+    @Override
+    public Object invoke(Token name, List<Object> arguments) {
+        if (isRetired) {
+            throw new RuntimeError(name, "Transient used after it was made persistent.");
+        }
+        switch (name.lexeme()) {
+            case "get": {
+                int index = index(name, arguments.get(0), count);
+                return elementsFor(index)[index & MASK];
+            }
+            case "set": {
+                PersistentVector target = target();
+                target.set(index(name, arguments.get(0), count), arguments.get(1));
+                return edit == null ? target : arguments.get(1);
+            }
+            case "push": {
+                PersistentVector target = target();
+                target.push(arguments.get(0));
+                return edit == null ? target : null;
+            }
+            case "pop": {
+                if (count == 0) {
+                    throw new RuntimeError(name, "Can't pop from an empty vector.");
+                }
+                PersistentVector target = target();
+                target.pop();
+                return edit == null ? target : null;
+            }
+            case "length":
+                return (double) count;
+            case "transient": {
+                Object token = new Object();
+                return new PersistentVector(count, shift, new Node(token, root.array.clone()),
+                        Arrays.copyOf(tail, WIDTH), token);
+            }
+            case "persistent":
+                isRetired = true;
+                return new PersistentVector(count, shift, root, Arrays.copyOf(tail, count - tailOffset()), null);
+            default:
+                throw NativeObject.undefined(name);
+        }
+    }
+
+    @Override
+    public Cursor cursor(Token keyword) {
+        if (edit != null) {
+            throw new RuntimeError(keyword, "Can't iterate over a transient.");
+        }
+        return new Cursor() {
+            private int index = 0;
+            private Object[] leaf;
+
+            @Override
+            public Object next() {
+                if (index == count) {
+                    return END;
+                }
+                if ((index & MASK) == 0) {
+                    leaf = elementsFor(index);
+                }
+                return leaf[index++ & MASK];
+            }
+        };
+    }
+
+    // The vector an update changes: a transient changes itself, a persistent vector a copy of itself.
+    private PersistentVector target() {
+        return edit != null ? this : new PersistentVector(count, shift, root, tail, null);
+    }
+
+    // Where the trie ends and the tail starts.
+    private int tailOffset() {
+        return count < WIDTH ? 0 : ((count - 1) >>> BITS) << BITS;
+    }
+
+    // The leaf array that holds element i.
+    private Object[] elementsFor(int i) {
+        if (i >= tailOffset()) {
+            return tail;
+        }
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node) node.array[(i >>> level) & MASK];
+        }
+        return node.array;
+    }
+
+    // A node this vector may change: the node itself if it belongs to this transient, or else a copy that does.
+    private Node editable(Node node) {
+        if (edit != null && node.edit == edit) {
+            return node;
+        }
+        return new Node(edit, node.array.clone());
+    }
+
+    private void set(int i, Object value) {
+        if (i >= tailOffset()) {
+            if (edit == null) {
+                tail = tail.clone();
+            }
+            tail[i & MASK] = value;
+            return;
+        }
+        root = set(shift, root, i, value);
+    }
+
+    private Node set(int level, Node node, int i, Object value) {
+        Node copy = editable(node);
+        if (level == 0) {
+            copy.array[i & MASK] = value;
+        } else {
+            int child = (i >>> level) & MASK;
+            copy.array[child] = set(level - BITS, (Node) node.array[child], i, value);
+        }
+        return copy;
+    }
+
+    private void push(Object value) {
+        int inTail = count - tailOffset();
+        if (inTail < WIDTH) {
+            if (edit == null) {
+                tail = Arrays.copyOf(tail, inTail + 1);
+            }
+            tail[inTail] = value;
+            count++;
+            return;
+        }
+
+        // The tail is full: it becomes a leaf of the trie, and the new element starts the next tail.
+        Node leaf = new Node(edit, tail);
+        if ((count >>> BITS) > (1 << shift)) {
+            // The trie is full as well, so it gets a new root one level up.
+            Node newRoot = new Node(edit, new Object[WIDTH]);
+            newRoot.array[0] = root;
+            newRoot.array[1] = newPath(shift, leaf);
+            root = newRoot;
+            shift += BITS;
+        } else {
+            root = pushLeaf(shift, root, leaf);
+        }
+        tail = new Object[edit == null ? 1 : WIDTH];
+        tail[0] = value;
+        count++;
+    }
+
+    private Node pushLeaf(int level, Node parent, Node leaf) {
+        Node copy = editable(parent);
+        int child = ((count - 1) >>> level) & MASK;
+        if (level == BITS) {
+            copy.array[child] = leaf;
+        } else if (parent.array[child] != null) {
+            copy.array[child] = pushLeaf(level - BITS, (Node) parent.array[child], leaf);
+        } else {
+            copy.array[child] = newPath(level - BITS, leaf);
+        }
+        return copy;
+    }
+
+    // A chain of nodes down to the leaf, for a part of the trie that has nothing in it yet.
+    private Node newPath(int level, Node leaf) {
+        if (level == 0) {
+            return leaf;
+        }
+        Node node = new Node(edit, new Object[WIDTH]);
+        node.array[0] = newPath(level - BITS, leaf);
+        return node;
+    }
+
+    private void pop() {
+        int inTail = count - tailOffset();
+        if (count == 1 || inTail > 1) {
+            if (edit == null) {
+                tail = Arrays.copyOf(tail, inTail - 1);
+            } else {
+                tail[inTail - 1] = null;
+            }
+            count--;
+            return;
+        }
+
+        // The tail is about to be empty: the last leaf of the trie becomes the tail.
+        Object[] newTail = elementsFor(count - 2);
+        Node newRoot = popLeaf(shift, root);
+        if (newRoot == null) {
+            newRoot = edit == null ? EMPTY_NODE : new Node(edit, new Object[WIDTH]);
+        }
+        if (shift > BITS && newRoot.array[1] == null) {
+            newRoot = (Node) newRoot.array[0];
+            shift -= BITS;
+        }
+        root = newRoot;
+        tail = edit == null ? newTail : Arrays.copyOf(newTail, WIDTH);
+        count--;
+    }
+
+    // The node without its last leaf, or null if nothing is left in it.
+    private Node popLeaf(int level, Node node) {
+        int child = ((count - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Node newChild = popLeaf(level - BITS, (Node) node.array[child]);
+            if (newChild == null && child == 0) {
+                return null;
+            }
+            Node copy = editable(node);
+            copy.array[child] = newChild;
+            return copy;
+        }
+        if (child == 0) {
+            return null;
+        }
+        Node copy = editable(node);
+        copy.array[child] = null;
+        return copy;
+    }
+
+    private static int index(Token name, Object value, int limit) {
+        if (!(value instanceof Double number)) {
+            throw new RuntimeError(name, "Index must be a number.");
+        }
+        int index = (int) (double) number;
+        if (index != number || index < 0 || index >= limit) {
+            throw new RuntimeError(name, "Index out of bounds.");
+        }
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return Values.stringifyCollection(this, "[", "]", text -> {
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    text.append(", ");
+                }
+                text.append(Values.stringify(elementsFor(i)[i & MASK]));
+            }
+        });
+    }
+}
@@ -1,23 +1,29 @@
 package lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.function.BiConsumer;
 import java.util.stream.IntStream;
 
 import static lox.Expr.*;
 import static lox.Stmt.*;
 
+/*
+Besides checking the program, the Resolver lays out the frames the Interpreter runs in. Every local of a function,
+in whichever of its blocks it is declared, gets its own slot in the function's frame; blocks at the top level get
+a frame of their own. A local that a nested function uses is captured: its slot holds a Cell, which the closure
+copies when it is created. Functions therefore keep only the variables they use, not the scopes around them.
+*/
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
     private final Stack<Map<String, VariableStatus>> scopes = new Stack<>();
+    private final List<Frame> frames = new ArrayList<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
-
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
-    }
+    private int loopDepth = 0; // Loops enclosing the current statement within the current function.
 
     private enum FunctionType {
         NONE,
@@ -32,11 +38,48 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         SUBCLASS
     }
 
+    // Receives where a local lives: depth 0 and a slot of the current frame, or depth 1 and an index into the
+    // running closure's captured variables.
+    private interface Resolution {
+        void resolve(int depth, int slot, boolean isCaptured);
+    }
+
+    // The frame of a function being resolved, or of a block or class at the top level.
+    private static final class Frame {
+        int slotCount = 0;
+        final List<VariableStatus> parameters = new ArrayList<>();
+        final List<Integer> captures = new ArrayList<>();
+        final Map<VariableStatus, Integer> captureIndexes = new IdentityHashMap<>();
+        // Run when the frame is done, once it is known which of its locals are captured.
+        final List<Runnable> resolutions = new ArrayList<>();
+        // Set when the function's body yields. A generator can't also return a value, so the first 'return' with
+        // one is kept until the whole body has been seen.
+        boolean isGenerator = false;
+        Token valueReturn = null;
+
+        int[] boxedSlots() {
+            return parameters.stream().filter(parameter -> parameter.isCaptured).mapToInt(parameter -> parameter.slot)
+                    .toArray();
+        }
+
+        int[] captures() {
+            return captures.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
     @Override
     public Void visitBlockStmt(Block stmt) {
+        // Inside a function the block's locals take slots of the function's frame.
+        boolean ownsFrame = frames.isEmpty();
+        if (ownsFrame) {
+            beginFrame();
+        }
         beginScope();
         resolve(stmt.statements);
         endScope();
+        if (ownsFrame) {
+            stmt.slotCount = endFrame().slotCount;
+        }
         return null;
     }
 
@@ -45,7 +88,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        declare(stmt.name, (slot, isCaptured) -> {
+            stmt.slot = slot;
+            stmt.isCaptured = isCaptured;
+        });
         define(stmt.name);
 
         if (stmt.superClass != null && stmt.name.lexeme().equals(stmt.superClass.name.lexeme())) {
@@ -57,27 +103,34 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolve(stmt.superClass);
         }
 
+        // At the top level, the scope holding "super" needs a frame of its own.
+        boolean ownsFrame = stmt.superClass != null && frames.isEmpty();
+        if (ownsFrame) {
+            beginFrame();
+        }
         if (stmt.superClass != null) {
             beginScope();
-            scopes.peek().put("super", new VariableStatus(stmt.superClass.name, true, true));
+            VariableStatus superClass = new VariableStatus(stmt.superClass.name, true, true, currentFrame().slotCount++,
+                    frames.size() - 1);
+            scopes.peek().put("super", superClass);
+            stmt.superSlot = superClass.slot;
         }
 
-        beginScope();
-        scopes.peek().put("this", new VariableStatus(stmt.name, true, true));
         for (Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.name.lexeme().equals("init")) {
                 declaration = FunctionType.INITIALIZER;
             }
             exceptionCheck(method);
-            resolveCallable(method, declaration);
+            resolveFunction(method, declaration);
         }
 
-        endScope();
-
         if (stmt.superClass != null) {
             endScope();
         }
+        if (ownsFrame) {
+            stmt.slotCount = endFrame().slotCount;
+        }
 
         currentClass = enclosingClass;
         return null;
@@ -116,6 +169,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 Lox.error(stmt.keyword, "Can't use 'return' a value from an initializer.");
             }
             resolve(stmt.value);
+            if (currentFunction != FunctionType.NONE && currentFrame().valueReturn == null) {
+                currentFrame().valueReturn = stmt.keyword;
+            }
+            // 'return f(...)' is a tail call: the Interpreter makes it after the returning function's frame is gone.
+            stmt.isTailCall = stmt.value instanceof Call;
         }
         return null;
     }
@@ -123,7 +181,44 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitWhileStmt(While stmt) {
         resolve(stmt.condition);
+        loopDepth++;
+        resolve(stmt.body);
+        loopDepth--;
+        return null;
+    }
+
+    @Override
+    public Void visitForInStmt(ForIn stmt) {
+        resolve(stmt.iterable);
+        beginScope();
+        VariableStatus variable = declare(stmt.name, (slot, isCaptured) -> {
+            stmt.slot = slot;
+            stmt.isCaptured = isCaptured;
+        });
+        define(stmt.name);
+        // Every iteration assigns the variable, which counts as using it.
+        variable.isUsed = true;
+        loopDepth++;
         resolve(stmt.body);
+        loopDepth--;
+        endScope();
+        stmt.iteratorCache = new InlineCache("get", "iterator", stmt.keyword.line());
+        stmt.nextCache = new InlineCache("get", "next", stmt.keyword.line());
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Yield stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            Lox.error(stmt.keyword, "Can't use 'yield' from top-level code.");
+        } else if (currentFunction == FunctionType.INITIALIZER) {
+            Lox.error(stmt.keyword, "Can't use 'yield' in an initializer.");
+        } else {
+            currentFrame().isGenerator = true;
+        }
+        if (stmt.value != null) {
+            resolve(stmt.value);
+        }
         return null;
     }
 
@@ -131,6 +226,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBreakStmt(Break stmt) {
         if (currentFunction == FunctionType.NONE) {
             Lox.error(stmt.keyword, "Can't use 'break' from top-level code.");
+        } else if (loopDepth == 0) {
+            Lox.error(stmt.keyword, "'break' outside of loop");
         }
         return null;
     }
@@ -139,6 +236,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitContinueStmt(Continue stmt) {
         if (currentFunction == FunctionType.NONE) {
             Lox.error(stmt.keyword, "Can't use 'continue' from top-level code.");
+        } else if (loopDepth == 0) {
+            Lox.error(stmt.keyword, "'continue' outside of loop");
         }
         return null;
     }
@@ -161,6 +260,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitGetExpr(Get expr) {
+        expr.cache = new InlineCache("get", expr.name.lexeme(), expr.name.line());
         resolve(expr.object);
         return null;
     }
@@ -200,6 +300,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitSetExpr(Set expr) {
+        expr.cache = new InlineCache("set", expr.name.lexeme(), expr.name.line());
         resolve(expr.value);
         resolve(expr.object);
         return null;
@@ -211,7 +312,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        resolveLocal("this", (depth, slot, isCaptured) -> {
+            expr.depth = depth;
+            expr.slot = slot;
+            expr.isCaptured = isCaptured;
+        });
         return null;
     }
 
@@ -222,7 +327,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         } else if (currentClass != ClassType.SUBCLASS) {
             Lox.error(expr.keyword, "Can't use 'super' outside in a class with no superclass.");
         }
-        resolveLocal(expr, expr.keyword);
+        // "super" is always captured: its scope is outside the method. The method is called on "this".
+        resolveLocal("super", (depth, slot, isCaptured) -> expr.slot = slot);
+        expr.receiver = new This(expr.keyword);
+        resolveLocal("this", (depth, slot, isCaptured) -> {
+            expr.receiver.depth = depth;
+            expr.receiver.slot = slot;
+            expr.receiver.isCaptured = isCaptured;
+        });
         return null;
     }
 
@@ -234,16 +346,22 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Function stmt) {
-        declare(stmt.name);
+        declare(stmt.name, (slot, isCaptured) -> {
+            stmt.slot = slot;
+            stmt.isCaptured = isCaptured;
+        });
         define(stmt.name);
 
-        resolveCallable(stmt, FunctionType.FUNCTION);
+        resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
     }
 
     @Override
     public Void visitVarStmt(Var stmt) {
-        declare(stmt.name);
+        declare(stmt.name, (slot, isCaptured) -> {
+            stmt.slot = slot;
+            stmt.isCaptured = isCaptured;
+        });
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -263,13 +381,21 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 status.isUsed = true; // Mark as used when read
             }
         }
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr.name.lexeme(), (depth, slot, isCaptured) -> {
+            expr.depth = depth;
+            expr.slot = slot;
+            expr.isCaptured = isCaptured;
+        });
         return null;
     }
 
     @Override
     public Void visitLambdaExpr(Lambda expr) {
-        resolveCallable(expr, FunctionType.FUNCTION);
+        Frame frame = resolveCallable(expr, FunctionType.FUNCTION);
+        expr.slotCount = frame.slotCount;
+        expr.boxedSlots = frame.boxedSlots();
+        expr.captures = frame.captures();
+        expr.isGenerator = frame.isGenerator;
         return null;
     }
 
@@ -282,11 +408,31 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             // Also mark as used, as an assignment implies intent to use the variable
             scopes.peek().get(expr.name.lexeme()).isUsed = true; // Assignment is a form of usage
         }
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr.name.lexeme(), (depth, slot, isCaptured) -> {
+            expr.depth = depth;
+            expr.slot = slot;
+            expr.isCaptured = isCaptured;
+        });
         return null;
     }
 
 
+    private void beginFrame() {
+        frames.add(new Frame());
+    }
+
+    private Frame endFrame() {
+        Frame frame = frames.remove(frames.size() - 1);
+        for (Runnable resolution : frame.resolutions) {
+            resolution.run();
+        }
+        return frame;
+    }
+
+    private Frame currentFrame() {
+        return frames.get(frames.size() - 1);
+    }
+
     private void beginScope() {
         scopes.push(new HashMap<>());
     }
@@ -303,17 +449,28 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
     }
 
-    private void declare(Token name) {
+    /*
+    Hands the declaration its slot and whether closures capture the variable, once its frame is done. Returns the
+    variable, or null for a global, whose declaration is left unresolved.
+    */
+    private VariableStatus declare(Token name, BiConsumer<Integer, Boolean> declaration) {
         if (scopes.isEmpty()) {
-            return;
+            return null;
         }
         Map<String, VariableStatus> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme())) {
+        VariableStatus previous = scope.get(name.lexeme());
+        if (previous != null) {
             Lox.error(name, "Already a variable with this name in this scope.");
         }
 
+        // A redeclaration reuses the slot of the variable it shadows.
+        Frame frame = currentFrame();
+        int slot = previous != null ? previous.slot : frame.slotCount++;
         // When declared, it's not yet defined (unless it's a named function, which is defined immediately)
-        scope.put(name.lexeme(), new VariableStatus(name, false, false));
+        VariableStatus variable = new VariableStatus(name, false, false, slot, frames.size() - 1);
+        scope.put(name.lexeme(), variable);
+        frame.resolutions.add(() -> declaration.accept(slot, variable.isCaptured));
+        return variable;
     }
 
     private void define(Token name) {
@@ -325,15 +482,37 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         scopes.peek().get(name.lexeme()).isDefined = true;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    // Hands the location of a local to the expression; globals are left unresolved.
+    private void resolveLocal(String name, Resolution resolution) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme())) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+            VariableStatus status = scopes.get(i).get(name);
+            if (status != null) {
+                int current = frames.size() - 1;
+                if (status.frame == current) {
+                    currentFrame().resolutions.add(() -> resolution.resolve(0, status.slot, status.isCaptured));
+                } else {
+                    resolution.resolve(1, capture(current, status), false);
+                }
                 return;
             }
         }
     }
 
+    // Returns the index of a variable among those the function of frames[frame] captures, capturing it in every
+    // function between there and the variable's own frame.
+    private int capture(int frame, VariableStatus variable) {
+        Frame function = frames.get(frame);
+        Integer index = function.captureIndexes.get(variable);
+        if (index == null) {
+            variable.isCaptured = true;
+            int source = variable.frame == frame - 1 ? variable.slot : -1 - capture(frame - 1, variable);
+            index = function.captures.size();
+            function.captures.add(source);
+            function.captureIndexes.put(variable, index);
+        }
+        return index;
+    }
+
     void resolve(List<Stmt> statements) {
         for (Stmt statement : statements) {
             resolve(statement);
@@ -365,16 +544,43 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
     }
 
-    private void resolveCallable(FunctionLikeable functionLikeable, FunctionType type) {
+    private void resolveFunction(Function function, FunctionType type) {
+        Frame frame = resolveCallable(function, type);
+        function.slotCount = frame.slotCount;
+        function.boxedSlots = frame.boxedSlots();
+        function.captures = frame.captures();
+        function.isGenerator = frame.isGenerator;
+    }
+
+    // Returns the frame a call of the function runs in.
+    private Frame resolveCallable(FunctionLikeable functionLikeable, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
+        int enclosingLoopDepth = loopDepth;
         currentFunction = type;
+        loopDepth = 0;
+        beginFrame();
         beginScope();
+        Frame frame = currentFrame();
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            // A method finds its receiver in slot 0 of its frame, ahead of the parameters.
+            VariableStatus receiver = new VariableStatus(((Function) functionLikeable).name, true, true,
+                    frame.slotCount++, frames.size() - 1);
+            scopes.peek().put("this", receiver);
+            frame.parameters.add(receiver);
+        }
         for (Token param : functionLikeable.getParams()) {
-            declare(param);
+            frame.parameters.add(declare(param, (slot, isCaptured) -> {
+            }));
             define(param);
         }
         resolve(functionLikeable.getBody());
+        if (frame.isGenerator && frame.valueReturn != null) {
+            Lox.error(frame.valueReturn, "Can't return a value from a generator.");
+        }
         endScope();
+        endFrame();
         currentFunction = enclosingFunction;
+        loopDepth = enclosingLoopDepth;
+        return frame;
     }
 }
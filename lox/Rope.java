@@ -0,0 +1,73 @@
+package lox;
+
+/*
+A Lox string built by concatenation. Appending to the newest rope of a chain adds to the buffer the chain shares
+and only records the new length, so 's = s + x' in a loop takes time linear in the length of the result instead
+of copying everything built so far on each step. Concatenating to an older rope copies its part of the buffer,
+so every rope keeps the text it was made with.
+
+A rope becomes a plain String, once, when something needs its text: print, equality, a native. A short result
+is made a String right away, as copying it is cheaper than starting a buffer. Lox strings are thus either a
+String or a Rope, and the engines test for a CharSequence where they used to test for a String.
+*/
+public final class Rope implements CharSequence {
+    // Concatenations shorter than this produce a plain String.
+    static final int MIN_LENGTH = 64;
+
+    private final StringBuilder buffer;
+    private final int length;
+    private String flat;
+
+    private Rope(StringBuilder buffer, int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    public static CharSequence concat(CharSequence left, CharSequence right) {
+        int length = left.length() + right.length();
+        if (length < MIN_LENGTH) {
+            return left.toString().concat(right.toString());
+        }
+        if (left instanceof Rope rope && rope.length == rope.buffer.length()) {
+            // Nothing was appended after this rope yet, so the buffer can grow in place.
+            return new Rope(append(rope.buffer, right), length);
+        }
+        StringBuilder buffer = new StringBuilder(length * 2);
+        append(buffer, left);
+        return new Rope(append(buffer, right), length);
+    }
+
+    private static StringBuilder append(StringBuilder buffer, CharSequence text) {
+        if (text instanceof Rope rope) {
+            // The rope may share this very buffer; its part of it is already in place and does not move.
+            return buffer.append(rope.buffer, 0, rope.length);
+        }
+        return buffer.append((String) text);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return buffer.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flat = buffer.substring(0, length);
+        }
+        return flat;
+    }
+}
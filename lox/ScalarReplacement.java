@@ -0,0 +1,436 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static lox.Expr.*;
+import static lox.Stmt.*;
+
+/*
+Removes the allocation of instances that never escape the function creating them. When a local is initialized
+with a call of a suitable class and is used for nothing but reading and writing the fields the initializer
+stores, the instance is not created: each field becomes a local of its own, set the way 'init' would have set it,
+and the property accesses on the local become reads and writes of those locals. Any other use lets the instance
+escape: returning it, passing it to a call, storing it in a field or a variable, calling a method on it, comparing
+or printing it, assigning the local, or a closure capturing it.
+
+A class is suitable when it is declared once at the top level and never assigned, and its 'init' is a list of
+'this.field = <expression>' statements whose expressions use nothing but literals, the parameters, operators and
+fields stored before. As with the Inliner, allocations are only replaced after the class in the program text.
+
+The fields take new slots of the frame (see Resolver). The arguments are stored in locals of their own first,
+unless they are all literals or locals, which read the same wherever they are read.
+*/
+public class ScalarReplacement extends TreeRewriter {
+    // A class whose instances can be replaced, with its initializer and the fields that stores.
+    private record Replaceable(Stmt.Class declaration, Function initializer, java.util.Set<String> fields) {
+    }
+
+    // A local holding an instance that does not escape, and the slots its fields have been given.
+    private record Allocation(Var declaration, Replaceable type, Map<String, Integer> fieldSlots) {
+    }
+
+    // The function or top-level block being rewritten.
+    private static final class Frame {
+        final Map<Integer, Allocation> allocations;
+        int slotCount;
+
+        Frame(Map<Integer, Allocation> allocations, int slotCount) {
+            this.allocations = allocations;
+            this.slotCount = slotCount;
+        }
+    }
+
+    private final Map<String, Replaceable> classes = new HashMap<>();
+    private final List<String> report = new ArrayList<>();
+    private Frame frame; // Null at the top level, where variables are globals.
+
+    public List<Stmt> replace(List<Stmt> statements) {
+        Map<String, Integer> declarationCounts = new HashMap<>();
+        for (Stmt statement : statements) {
+            String name = declaredName(statement);
+            if (name != null) {
+                declarationCounts.merge(name, 1, Integer::sum);
+            }
+        }
+        GlobalAssignments assignments = new GlobalAssignments();
+        assignments.rewrite(statements);
+
+        List<Stmt> rewritten = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt result = rewrite(statement);
+            changed |= result != statement;
+            rewritten.add(result);
+            if (result instanceof Stmt.Class loxClass && declarationCounts.get(loxClass.name.lexeme()) == 1
+                    && !assignments.names.contains(loxClass.name.lexeme())) {
+                Replaceable type = replaceable(loxClass);
+                if (type != null) {
+                    classes.put(loxClass.name.lexeme(), type);
+                }
+            }
+        }
+        return changed ? rewritten : statements;
+    }
+
+    public void printStatistics() {
+        for (String line : report) {
+            System.err.println(line);
+        }
+        System.err.println("[escape] " + report.size() + " allocations replaced by locals");
+    }
+
+    ////////////////////////////////// FRAMES //////////////////////////////////
+
+    @Override
+    Function rewriteFunction(Function stmt) {
+        Frame enclosing = frame;
+        frame = new Frame(new EscapeAnalysis().run(stmt.body), stmt.slotCount);
+        Function function = super.rewriteFunction(stmt);
+        // Replacing an allocation changes the body, so the function is a new node whenever the frame grew.
+        function.slotCount = frame.slotCount;
+        frame = enclosing;
+        return function;
+    }
+
+    @Override
+    public Expr visitLambdaExpr(Lambda expr) {
+        Frame enclosing = frame;
+        frame = new Frame(new EscapeAnalysis().run(expr.body), expr.slotCount);
+        Expr rewritten = super.visitLambdaExpr(expr);
+        ((Lambda) rewritten).slotCount = frame.slotCount;
+        frame = enclosing;
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Block stmt) {
+        if (frame != null) {
+            return super.visitBlockStmt(stmt);
+        }
+        // A block at the top level has a frame of its own.
+        frame = new Frame(new EscapeAnalysis().run(stmt.statements), stmt.slotCount);
+        Stmt rewritten = super.visitBlockStmt(stmt);
+        ((Block) rewritten).slotCount = frame.slotCount;
+        frame = null;
+        return rewritten;
+    }
+
+    ////////////////////////////////// REWRITING //////////////////////////////////
+
+    // Replaced declarations are expanded in place, so the field locals are in the scope the instance was.
+    @Override
+    List<Stmt> rewriteAll(List<Stmt> statements) {
+        if (frame == null || frame.allocations.isEmpty()) {
+            return super.rewriteAll(statements);
+        }
+        List<Stmt> expanded = null;
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt statement = statements.get(i);
+            Allocation allocation = statement instanceof Var var ? frame.allocations.get(var.slot) : null;
+            if (allocation != null && allocation.declaration == statement) {
+                if (expanded == null) {
+                    expanded = new ArrayList<>(statements.subList(0, i));
+                }
+                expanded.addAll(expand(allocation));
+            } else if (expanded != null) {
+                expanded.add(statement);
+            }
+        }
+        return super.rewriteAll(expanded == null ? statements : expanded);
+    }
+
+    @Override
+    public Expr visitGetExpr(Get expr) {
+        Allocation allocation = replaced(expr.object);
+        if (allocation == null) {
+            return super.visitGetExpr(expr);
+        }
+        return read(fieldName(allocation, expr.name), allocation.fieldSlots.get(expr.name.lexeme()));
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Allocation allocation = replaced(expr.object);
+        if (allocation == null) {
+            return super.visitSetExpr(expr);
+        }
+        return assign(fieldName(allocation, expr.name), rewrite(expr.value),
+                allocation.fieldSlots.get(expr.name.lexeme()));
+    }
+
+    private Allocation replaced(Expr object) {
+        if (frame == null || !(object instanceof Variable variable) || variable.depth != 0) {
+            return null;
+        }
+        return frame.allocations.get(variable.slot);
+    }
+
+    // The statements that take the place of 'var p = Class(arguments);'.
+    private List<Stmt> expand(Allocation allocation) {
+        Var declaration = allocation.declaration;
+        Call call = (Call) declaration.initializer;
+        Function initializer = allocation.type.initializer;
+        List<Stmt> statements = new ArrayList<>();
+
+        boolean readAnywhere = call.arguments.stream()
+                .allMatch(argument -> argument instanceof Literal
+                        || argument instanceof Variable variable && variable.depth != -1);
+        List<Expr> arguments = new ArrayList<>();
+        for (int i = 0; i < call.arguments.size(); i++) {
+            Expr argument = call.arguments.get(i);
+            if (readAnywhere || argument instanceof Literal) {
+                arguments.add(argument);
+                continue;
+            }
+            Token name = token(declaration.name, "(" + initializer.params.get(i).lexeme() + ")");
+            int slot = frame.slotCount++;
+            statements.add(declare(name, argument, slot));
+            arguments.add(read(name, slot));
+        }
+
+        FieldInitializer fields = new FieldInitializer(allocation, arguments);
+        for (Stmt statement : initializer.body) {
+            Expr.Set store = (Expr.Set) ((Expression) statement).expression;
+            Token name = fieldName(allocation, store.name);
+            Expr value = fields.rewrite(store.value);
+            Integer slot = allocation.fieldSlots.get(store.name.lexeme());
+            if (slot == null) {
+                slot = frame.slotCount++;
+                allocation.fieldSlots.put(store.name.lexeme(), slot);
+                statements.add(declare(name, value, slot));
+            } else {
+                statements.add(new Expression(assign(name, value, slot)));
+            }
+        }
+
+        report.add("[escape] " + allocation.type.declaration.name.lexeme() + " (line "
+                + allocation.type.declaration.name.line() + ") kept in locals at line " + declaration.name.line());
+        return statements;
+    }
+
+    // The field locals are named after the local and the field. No identifier contains a dot, so the engines
+    // that resolve names themselves cannot confuse them with a variable of the program.
+    private static Token fieldName(Allocation allocation, Token field) {
+        return token(allocation.declaration.name, "." + field.lexeme());
+    }
+
+    private static Token token(Token local, String suffix) {
+        return new Token(TokenType.IDENTIFIER, local.lexeme() + suffix, null, local.line());
+    }
+
+    private static Var declare(Token name, Expr value, int slot) {
+        Var var = new Var(name, value);
+        var.slot = slot;
+        return var;
+    }
+
+    private static Variable read(Token name, int slot) {
+        Variable variable = new Variable(name);
+        variable.depth = 0;
+        variable.slot = slot;
+        return variable;
+    }
+
+    private static Assign assign(Token name, Expr value, int slot) {
+        Assign assign = new Assign(name, value);
+        assign.depth = 0;
+        assign.slot = slot;
+        return assign;
+    }
+
+    ////////////////////////////////// CLASSES //////////////////////////////////
+
+    // Returns null if the class is not suitable.
+    private static Replaceable replaceable(Stmt.Class loxClass) {
+        Function initializer = null;
+        for (Function method : loxClass.methods) {
+            if (!method.isStatic && method.name.lexeme().equals("init")) {
+                initializer = method;
+            }
+        }
+        // Without an initializer an instance starts with no fields, so there would be nothing to replace.
+        if (initializer == null) {
+            return null;
+        }
+        java.util.Set<String> stored = new HashSet<>();
+        for (Stmt statement : initializer.body) {
+            if (!(statement instanceof Expression expression) || !(expression.expression instanceof Expr.Set store)
+                    || !(store.object instanceof This)
+                    || !isSimple(store.value, initializer.params.size(), stored)) {
+                return null;
+            }
+            stored.add(store.name.lexeme());
+        }
+        return new Replaceable(loxClass, initializer, stored);
+    }
+
+    // Whether evaluating the expression can run no Lox code and read nothing but parameters and stored fields.
+    private static boolean isSimple(Expr expr, int arity, java.util.Set<String> stored) {
+        if (expr instanceof Literal) {
+            return true;
+        }
+        if (expr instanceof Variable variable) {
+            // The receiver takes slot 0 of a method's frame, so the parameters are slots 1 to arity.
+            return variable.depth == 0 && variable.slot >= 1 && variable.slot <= arity;
+        }
+        if (expr instanceof Get get) {
+            return get.object instanceof This && stored.contains(get.name.lexeme());
+        }
+        if (expr instanceof Grouping grouping) {
+            return isSimple(grouping.expression, arity, stored);
+        }
+        if (expr instanceof Unary unary) {
+            return isSimple(unary.right, arity, stored);
+        }
+        if (expr instanceof Binary binary) {
+            return isSimple(binary.left, arity, stored) && isSimple(binary.right, arity, stored);
+        }
+        if (expr instanceof Logical logical) {
+            return isSimple(logical.left, arity, stored) && isSimple(logical.right, arity, stored);
+        }
+        if (expr instanceof Ternary ternary) {
+            return isSimple(ternary.condition, arity, stored) && isSimple(ternary.thenBranch, arity, stored)
+                    && isSimple(ternary.elseBranch, arity, stored);
+        }
+        return false;
+    }
+
+    private static String declaredName(Stmt statement) {
+        if (statement instanceof Function function) {
+            return function.name.lexeme();
+        }
+        if (statement instanceof Var var) {
+            return var.name.lexeme();
+        }
+        if (statement instanceof Stmt.Class loxClass) {
+            return loxClass.name.lexeme();
+        }
+        return null;
+    }
+
+    ////////////////////////////////// ANALYSIS //////////////////////////////////
+
+    /*
+    Finds the locals of one frame that hold an instance of a suitable class and do not let it escape. Nested
+    functions are left out: they can only reach a local of this frame by capturing it, and a captured local is
+    never a candidate. Nothing is rewritten; the visit methods only record what they see.
+    */
+    private final class EscapeAnalysis extends TreeRewriter {
+        private final Map<Integer, Allocation> allocations = new HashMap<>();
+        private final java.util.Set<Integer> escaped = new HashSet<>();
+
+        Map<Integer, Allocation> run(List<Stmt> body) {
+            rewrite(body);
+            allocations.keySet().removeAll(escaped);
+            return allocations;
+        }
+
+        @Override
+        public Stmt visitVarStmt(Var stmt) {
+            if (stmt.slot != -1 && !stmt.isCaptured && stmt.initializer instanceof Call call
+                    && call.callee instanceof Variable callee && callee.depth == -1) {
+                Replaceable type = classes.get(callee.name.lexeme());
+                if (type != null && type.initializer.params.size() == call.arguments.size()) {
+                    allocations.put(stmt.slot, new Allocation(stmt, type, new HashMap<>()));
+                }
+            }
+            return super.visitVarStmt(stmt);
+        }
+
+        @Override
+        public Expr visitVariableExpr(Variable expr) {
+            if (expr.depth == 0) {
+                escaped.add(expr.slot);
+            }
+            return expr;
+        }
+
+        @Override
+        public Expr visitAssignExpr(Assign expr) {
+            if (expr.depth == 0) {
+                escaped.add(expr.slot);
+            }
+            return super.visitAssignExpr(expr);
+        }
+
+        @Override
+        public Expr visitGetExpr(Get expr) {
+            return isField(expr.object, expr.name) ? expr : super.visitGetExpr(expr);
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr) {
+            if (!isField(expr.object, expr.name)) {
+                return super.visitSetExpr(expr);
+            }
+            rewrite(expr.value);
+            return expr;
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.Class stmt) {
+            if (stmt.superClass != null) {
+                visitVariableExpr(stmt.superClass);
+            }
+            return stmt;
+        }
+
+        @Override
+        Function rewriteFunction(Function stmt) {
+            return stmt;
+        }
+
+        @Override
+        public Expr visitLambdaExpr(Lambda expr) {
+            return expr;
+        }
+
+        // Only the fields the initializer stores exist for sure; any other property could be a method.
+        private boolean isField(Expr object, Token name) {
+            if (!(object instanceof Variable variable) || variable.depth != 0) {
+                return false;
+            }
+            Allocation allocation = allocations.get(variable.slot);
+            return allocation != null && allocation.type.fields.contains(name.lexeme());
+        }
+    }
+
+    // Copies an expression of the initializer for one allocation: parameters become the arguments, and the
+    // fields stored before become the locals holding them.
+    private static final class FieldInitializer extends TreeRewriter {
+        private final Allocation allocation;
+        private final List<Expr> arguments;
+
+        FieldInitializer(Allocation allocation, List<Expr> arguments) {
+            this.allocation = allocation;
+            this.arguments = arguments;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Variable expr) {
+            return arguments.get(expr.slot - 1);
+        }
+
+        @Override
+        public Expr visitGetExpr(Get expr) {
+            return read(fieldName(allocation, expr.name), allocation.fieldSlots.get(expr.name.lexeme()));
+        }
+    }
+
+    // Collects the globals the program assigns anywhere.
+    private static final class GlobalAssignments extends TreeRewriter {
+        private final java.util.Set<String> names = new HashSet<>();
+
+        @Override
+        public Expr visitAssignExpr(Assign expr) {
+            if (expr.depth == -1) {
+                names.add(expr.name.lexeme());
+            }
+            return super.visitAssignExpr(expr);
+        }
+    }
+}
@@ -132,7 +132,10 @@ public class Scanner {
         String text = source.substring(start, current);
         TokenType type = keywords.get(text);
         if (type == null) {
-            type = IDENTIFIER;
+            // Identifiers are interned, so every occurrence of a name is the same string and
+            // the lookups in method tables and shapes usually succeed on the reference check.
+            tokens.add(new Token(IDENTIFIER, text.intern(), null, line));
+            return;
         }
         addToken(type);
     }
@@ -249,5 +252,6 @@ public class Scanner {
         keywords.put("while",    WHILE);
         keywords.put("break",    BREAK);
         keywords.put("continue", CONTINUE);
+        keywords.put("yield",    YIELD);
     }
 }
@@ -0,0 +1,45 @@
+package lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+A hidden class: the field layout shared by every instance that received the same fields in the same order.
+It maps field names to indexes in the instance's value array. Adding a field moves the instance to a child
+shape, which is created the first time and then found again through the transition table, so instances
+built the same way end up sharing one shape and the per-instance cost is just the value array.
+*/
+final class Shape {
+    private final Map<String, Integer> indexes;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    private Shape(Map<String, Integer> indexes) {
+        this.indexes = indexes;
+    }
+
+    // Every class has its own root, so a shape also tells which class its instances belong to.
+    static Shape root() {
+        return new Shape(Map.of());
+    }
+
+    int size() {
+        return indexes.size();
+    }
+
+    // Returns the index of the field, or -1 if instances of this shape do not have it.
+    int indexOf(String name) {
+        Integer index = indexes.get(name);
+        return index == null ? -1 : index;
+    }
+
+    Shape withField(String name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Map<String, Integer> extended = new HashMap<>(indexes);
+            extended.put(name, indexes.size());
+            next = new Shape(extended);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
@@ -2,8 +2,8 @@ package lox;
 
 import java.util.List;
 
-abstract class Stmt {
-    interface Visitor<R> {
+public abstract class Stmt {
+    public interface Visitor<R> {
         R visitBlockStmt(Block stmt);
 
         R visitClassStmt(Class stmt);
@@ -22,25 +22,32 @@ abstract class Stmt {
 
         R visitWhileStmt(While stmt);
 
+        R visitForInStmt(ForIn stmt);
+
         R visitBreakStmt(Break stmt);
 
         R visitContinueStmt(Continue stmt);
+
+        R visitYieldStmt(Yield stmt);
     }
 
-    static class Block extends Stmt {
+    public static class Block extends Stmt {
         Block(List<Stmt> statements) {
             this.statements = statements;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitBlockStmt(this);
         }
 
-        final List<Stmt> statements;
+        public final List<Stmt> statements;
+
+        // Filled in by the Resolver.
+        public int slotCount;
     }
 
-    static class Class extends Stmt {
+    public static class Class extends Stmt {
         Class(Token name, List<Stmt.Function> methods, Expr.Variable superClass) {
             this.name = name;
             this.methods = methods;
@@ -48,29 +55,35 @@ abstract class Stmt {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitClassStmt(this);
         }
 
-        final Token name;
-        final List<Stmt.Function> methods;
-        final Expr.Variable superClass;
+        public final Token name;
+        public final List<Stmt.Function> methods;
+        public final Expr.Variable superClass;
+
+        // Filled in by the Resolver.
+        public int slot = -1;
+        public boolean isCaptured;
+        public int slotCount;
+        public int superSlot;
     }
 
-    static class Expression extends Stmt {
+    public static class Expression extends Stmt {
         Expression(Expr expression) {
             this.expression = expression;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitExpressionStmt(this);
         }
 
-        final Expr expression;
+        public final Expr expression;
     }
 
-    static class Function extends Stmt implements  FunctionLikeable {
+    public static class Function extends Stmt implements FunctionLikeable {
         Function(Token name, List<Token> params, List<Stmt> body, boolean isStatic) {
             this.name = name;
             this.params = params;
@@ -79,14 +92,22 @@ abstract class Stmt {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitFunctionStmt(this);
         }
 
-        final Token name;
-        final List<Token> params;
-        final List<Stmt> body;
-        final boolean isStatic;
+        public final Token name;
+        public final List<Token> params;
+        public final List<Stmt> body;
+        public final boolean isStatic;
+
+        // Filled in by the Resolver.
+        public int slotCount;
+        public int[] boxedSlots;
+        public int[] captures;
+        public int slot = -1;
+        public boolean isCaptured;
+        public boolean isGenerator;
 
         @Override
         public List<Token> getParams() {
@@ -97,9 +118,29 @@ abstract class Stmt {
         public List<Stmt> getBody() {
             return body;
         }
+
+        @Override
+        public int getSlotCount() {
+            return slotCount;
+        }
+
+        @Override
+        public int[] getBoxedSlots() {
+            return boxedSlots;
+        }
+
+        @Override
+        public int[] getCaptures() {
+            return captures;
+        }
+
+        @Override
+        public boolean isGenerator() {
+            return isGenerator;
+        }
     }
 
-    static class If extends Stmt {
+    public static class If extends Stmt {
         If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
             this.condition = condition;
             this.thenBranch = thenBranch;
@@ -107,98 +148,148 @@ abstract class Stmt {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitIfStmt(this);
         }
 
-        final Expr condition;
-        final Stmt thenBranch;
-        final Stmt elseBranch;
+        public final Expr condition;
+        public final Stmt thenBranch;
+        public final Stmt elseBranch;
     }
 
-    static class Print extends Stmt {
+    public static class Print extends Stmt {
         Print(Expr expression) {
             this.expression = expression;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitPrintStmt(this);
         }
 
-        final Expr expression;
+        public final Expr expression;
     }
 
-    static class Return extends Stmt {
+    public static class Return extends Stmt {
         Return(Token keyword, Expr value) {
             this.keyword = keyword;
             this.value = value;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitReturnStmt(this);
         }
 
-        final Token keyword;
-        final Expr value;
+        public final Token keyword;
+        public final Expr value;
+
+        // Filled in by the Resolver.
+        public boolean isTailCall;
     }
 
-    static class Var extends Stmt {
+    public static class Var extends Stmt {
         Var(Token name, Expr initializer) {
             this.name = name;
             this.initializer = initializer;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitVarStmt(this);
         }
 
-        final Token name;
-        final Expr initializer;
+        public final Token name;
+        public final Expr initializer;
+
+        // Filled in by the Resolver.
+        public int slot = -1;
+        public boolean isCaptured;
     }
 
-    static class While extends Stmt {
+    public static class While extends Stmt {
         While(Expr condition, Stmt body) {
             this.condition = condition;
             this.body = body;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitWhileStmt(this);
         }
 
-        final Expr condition;
-        final Stmt body;
+        public final Expr condition;
+        public final Stmt body;
+
+        // Filled in by the Resolver.
+        public CountedLoop counted;
+    }
+
+    public static class ForIn extends Stmt {
+        ForIn(Token keyword, Token name, Expr iterable, Stmt body) {
+            this.keyword = keyword;
+            this.name = name;
+            this.iterable = iterable;
+            this.body = body;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitForInStmt(this);
+        }
+
+        public final Token keyword;
+        public final Token name;
+        public final Expr iterable;
+        public final Stmt body;
+
+        // Filled in by the Resolver.
+        public int slot = -1;
+        public boolean isCaptured;
+        public InlineCache iteratorCache;
+        public InlineCache nextCache;
     }
 
-    static class Break extends Stmt {
+    public static class Break extends Stmt {
         Break(Token keyword) {
             this.keyword = keyword;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitBreakStmt(this);
         }
 
-        final Token keyword;
+        public final Token keyword;
     }
 
-    static class Continue extends Stmt {
+    public static class Continue extends Stmt {
         Continue(Token keyword) {
             this.keyword = keyword;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitContinueStmt(this);
         }
 
-        final Token keyword;
+        public final Token keyword;
+    }
+
+    public static class Yield extends Stmt {
+        Yield(Token keyword, Expr value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visitYieldStmt(this);
+        }
+
+        public final Token keyword;
+        public final Expr value;
     }
 
-    abstract <R> R accept(Visitor<R> visitor);
+    public abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,336 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static lox.Expr.*;
+import static lox.Stmt.*;
+
+/*
+Base class of the passes that transform the resolved syntax tree. Every visit method rewrites the children of a
+node and returns the node itself if none of them changed, so untouched parts of the tree are shared. A node that
+has to be rebuilt keeps the Resolver's annotations. A statement rewritten to null is removed.
+*/
+abstract class TreeRewriter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private static final Block EMPTY = new Block(List.of());
+
+    public List<Stmt> rewrite(List<Stmt> statements) {
+        return rewriteAll(statements);
+    }
+
+    ////////////////////////////////// STATEMENTS //////////////////////////////////
+
+    @Override
+    public Stmt visitBlockStmt(Block stmt) {
+        List<Stmt> statements = rewriteAll(stmt.statements);
+        if (statements == stmt.statements) {
+            return stmt;
+        }
+        Block block = new Block(statements);
+        block.slotCount = stmt.slotCount;
+        return block;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Function> methods = new ArrayList<>();
+        boolean changed = false;
+        for (Function method : stmt.methods) {
+            Function rewritten = rewriteFunction(method);
+            changed |= rewritten != method;
+            methods.add(rewritten);
+        }
+        if (!changed) {
+            return stmt;
+        }
+        Stmt.Class loxClass = new Stmt.Class(stmt.name, methods, stmt.superClass);
+        loxClass.slot = stmt.slot;
+        loxClass.isCaptured = stmt.isCaptured;
+        loxClass.slotCount = stmt.slotCount;
+        loxClass.superSlot = stmt.superSlot;
+        return loxClass;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Expression stmt) {
+        Expr expression = rewrite(stmt.expression);
+        return expression == stmt.expression ? stmt : new Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+        return rewriteFunction(stmt);
+    }
+
+    @Override
+    public Stmt visitIfStmt(If stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt thenBranch = orEmpty(rewrite(stmt.thenBranch));
+        Stmt elseBranch = rewrite(stmt.elseBranch);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Print stmt) {
+        Expr expression = rewrite(stmt.expression);
+        return expression == stmt.expression ? stmt : new Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Return stmt) {
+        Expr value = rewrite(stmt.value);
+        if (value == stmt.value) {
+            return stmt;
+        }
+        Return rewritten = new Return(stmt.keyword, value);
+        // Stays a tail call only while the value is still a call; one that became a call is left as it is.
+        rewritten.isTailCall = stmt.isTailCall && value instanceof Call;
+        return rewritten;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Var stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+        if (initializer == stmt.initializer) {
+            return stmt;
+        }
+        Var var = new Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        var.isCaptured = stmt.isCaptured;
+        return var;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(While stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt body = orEmpty(rewrite(stmt.body));
+        if (condition == stmt.condition && body == stmt.body) {
+            return stmt;
+        }
+        return new While(condition, body);
+    }
+
+    @Override
+    public Stmt visitForInStmt(ForIn stmt) {
+        Expr iterable = rewrite(stmt.iterable);
+        Stmt body = orEmpty(rewrite(stmt.body));
+        if (iterable == stmt.iterable && body == stmt.body) {
+            return stmt;
+        }
+        ForIn loop = new ForIn(stmt.keyword, stmt.name, iterable, body);
+        loop.slot = stmt.slot;
+        loop.isCaptured = stmt.isCaptured;
+        loop.iteratorCache = stmt.iteratorCache;
+        loop.nextCache = stmt.nextCache;
+        return loop;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitYieldStmt(Yield stmt) {
+        Expr value = rewrite(stmt.value);
+        return value == stmt.value ? stmt : new Yield(stmt.keyword, value);
+    }
+
+    ////////////////////////////////// EXPRESSIONS //////////////////////////////////
+
+    @Override
+    public Expr visitBinaryExpr(Binary expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return new Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) {
+        Expr value = rewrite(expr.value);
+        if (value == expr.value) {
+            return expr;
+        }
+        Assign assign = new Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        assign.isCaptured = expr.isCaptured;
+        return assign;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Grouping expr) {
+        Expr expression = rewrite(expr.expression);
+        return expression == expr.expression ? expr : new Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Logical expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return new Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = rewrite(expr.object);
+        Expr value = rewrite(expr.value);
+        if (object == expr.object && value == expr.value) {
+            return expr;
+        }
+        Expr.Set set = new Expr.Set(object, expr.name, value);
+        set.cache = expr.cache;
+        return set;
+    }
+
+    @Override
+    public Expr visitThisExpr(This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Unary expr) {
+        Expr right = rewrite(expr.right);
+        return right == expr.right ? expr : new Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+        Expr callee = rewrite(expr.callee);
+        List<Expr> arguments = new ArrayList<>();
+        boolean changed = callee != expr.callee;
+        for (Expr argument : expr.arguments) {
+            Expr rewritten = rewrite(argument);
+            changed |= rewritten != argument;
+            arguments.add(rewritten);
+        }
+        if (!changed) {
+            return expr;
+        }
+        return new Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Get expr) {
+        Expr object = rewrite(expr.object);
+        if (object == expr.object) {
+            return expr;
+        }
+        Get get = new Get(object, expr.name);
+        get.cache = expr.cache;
+        return get;
+    }
+
+    @Override
+    public Expr visitBinaryRPNExpr(BinaryRPN expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return new BinaryRPN(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Ternary expr) {
+        Expr condition = rewrite(expr.condition);
+        Expr thenBranch = rewrite(expr.thenBranch);
+        Expr elseBranch = rewrite(expr.elseBranch);
+        if (condition == expr.condition && thenBranch == expr.thenBranch && elseBranch == expr.elseBranch) {
+            return expr;
+        }
+        return new Ternary(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLambdaExpr(Lambda expr) {
+        List<Stmt> body = rewriteAll(expr.body);
+        if (body == expr.body) {
+            return expr;
+        }
+        Lambda lambda = new Lambda(expr.params, body);
+        lambda.slotCount = expr.slotCount;
+        lambda.boxedSlots = expr.boxedSlots;
+        lambda.captures = expr.captures;
+        lambda.isGenerator = expr.isGenerator;
+        return lambda;
+    }
+
+    ////////////////////////////////// HELPERS //////////////////////////////////
+
+    Function rewriteFunction(Function stmt) {
+        List<Stmt> body = rewriteAll(stmt.body);
+        if (body == stmt.body) {
+            return stmt;
+        }
+        Function function = new Function(stmt.name, stmt.params, body, stmt.isStatic);
+        function.slotCount = stmt.slotCount;
+        function.boxedSlots = stmt.boxedSlots;
+        function.captures = stmt.captures;
+        function.slot = stmt.slot;
+        function.isCaptured = stmt.isCaptured;
+        function.isGenerator = stmt.isGenerator;
+        return function;
+    }
+
+    // Returns the same list when nothing changed. Removed statements and code after a jump are left out.
+    List<Stmt> rewriteAll(List<Stmt> statements) {
+        List<Stmt> rewritten = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt result = rewrite(statement);
+            changed |= result != statement;
+            if (result == null) {
+                continue;
+            }
+            rewritten.add(result);
+            if (result instanceof Return || result instanceof Break || result instanceof Continue) {
+                changed |= rewritten.size() < statements.size();
+                break;
+            }
+        }
+        return changed ? rewritten : statements;
+    }
+
+    Stmt rewrite(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    Expr rewrite(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    // Where the grammar requires a statement, a removed one becomes an empty block.
+    static Stmt orEmpty(Stmt stmt) {
+        return stmt == null ? EMPTY : stmt;
+    }
+}
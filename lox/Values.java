@@ -0,0 +1,78 @@
+package lox;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/*
+What truth, equality and printing mean for Lox values. Every engine uses these, so a program behaves the same
+whichever one runs it. Only Rope is needed besides, which keeps them usable in a jar that carries the VM alone.
+*/
+public final class Values {
+    // The collections whose text is being built on this thread.
+    private static final ThreadLocal<Set<Object>> printing =
+            ThreadLocal.withInitial(() -> Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    private Values() {
+    }
+
+    public static boolean isTruthy(Object object) {
+        if (object == null) {
+            return false;
+        }
+        if (object instanceof Boolean) {
+            return (boolean) object;
+        }
+        return true;
+    }
+
+    public static boolean isEqual(Object left, Object right) {
+        if (left == null && right == null) {
+            return true;
+        }
+        if (left == null) {
+            return false;
+        }
+        if (left instanceof CharSequence l && right instanceof CharSequence r) {
+            // Either may be a rope; they are equal if they spell the same text.
+            return l.toString().equals(r.toString());
+        }
+        return left.equals(right);
+    }
+
+    public static String stringify(Object object) {
+        if (object == null) {
+            return "nil";
+        }
+
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+
+        return object.toString();
+    }
+
+    /*
+    The text of a collection: open, what elements appends, and close. A collection can hold itself, directly or
+    through others, so one that comes back while its own text is being built is printed as [...] or {...}.
+    */
+    public static String stringifyCollection(Object collection, String open, String close,
+                                             Consumer<StringBuilder> elements) {
+        Set<Object> active = printing.get();
+        if (!active.add(collection)) {
+            return open + "..." + close;
+        }
+        try {
+            StringBuilder text = new StringBuilder(open);
+            elements.accept(text);
+            return text.append(close).toString();
+        } finally {
+            active.remove(collection);
+        }
+    }
+}
@@ -6,9 +6,14 @@ public class VariableStatus {
     boolean isDefined;            // True if the variable has been initialized/defined.
     boolean isUsed;               // True if the variable has been read from.
     boolean isKeyword;
+    boolean isCaptured;           // True if a nested function uses the variable.
+    final int slot;               // Index of the variable in its frame.
+    final int frame;              // Nesting depth of the frame holding the variable.
 
-    VariableStatus(Token declarationToken, boolean isDefined, boolean isKeyword) {
+    VariableStatus(Token declarationToken, boolean isDefined, boolean isKeyword, int slot, int frame) {
         this.declarationToken = declarationToken;
+        this.slot = slot;
+        this.frame = frame;
         this.isDefined = isDefined;
         this.isKeyword = isKeyword;
         this.isUsed = false; // Initially, no variable is used.
@@ -0,0 +1,164 @@
+package lox.aot;
+
+import lox.Lox;
+import lox.Stmt;
+import lox.vm.ProgramImage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/*
+The ahead-of-time compiler. It runs the front end and the bytecode compiler once, at build time, and writes
+an executable jar holding the compiled program and the classes of the VM that runs it. Starting the jar
+skips scanning, parsing, resolving and compiling, and the jar carries none of those classes:
+
+    jloxc [-o program.jar] script.lox
+    java -jar program.jar
+*/
+public final class Jloxc {
+    /*
+    Everything the VM needs at run time, with the classes nested in them; the front end and the other engines are
+    left out. So is the bytecode Compiler, which lox.vm also holds: it works on the syntax tree. VM and
+    ProgramImage still name Stmt and Compiler in the methods that compile a tree, which the jar never calls, and
+    the JVM only looks for those classes when one of them runs.
+    */
+    private static final List<String> RUNTIME_CLASSES = List.of(
+            "lox/aot/Main",
+            "lox/vm/Chunk",
+            "lox/vm/GlobalTable",
+            "lox/vm/ObjBoundMethod",
+            "lox/vm/ObjClass",
+            "lox/vm/ObjClosure",
+            "lox/vm/ObjFunction",
+            "lox/vm/ObjInstance",
+            "lox/vm/ObjNative",
+            "lox/vm/ObjUpvalue",
+            "lox/vm/OpCode",
+            "lox/vm/ProgramImage",
+            "lox/vm/VM",
+            "lox/exceptions/RuntimeError",
+            "lox/Rope",
+            "lox/Token",
+            "lox/TokenType",
+            "lox/Values");
+
+    private Jloxc() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path output = null;
+        Path script = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o") && i + 1 < args.length) {
+                output = Path.of(args[++i]);
+            } else if (script == null && !args[i].startsWith("-")) {
+                script = Path.of(args[i]);
+            } else {
+                usage();
+            }
+        }
+        if (script == null) {
+            usage();
+        }
+        if (output == null) {
+            String name = script.getFileName().toString();
+            output = script.resolveSibling(name.replaceFirst("\\.lox$", "") + ".jar");
+        }
+
+        String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+        List<Stmt> statements = Lox.analyze(source);
+        byte[] program = statements == null ? null : ProgramImage.compile(statements);
+        if (program == null) {
+            System.exit(65);
+        }
+        writeJar(output, program);
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jloxc [-o program.jar] script.lox");
+        System.exit(64);
+    }
+
+    private static void writeJar(Path output, byte[] program) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.put(Attributes.Name.MAIN_CLASS, Main.class.getName());
+
+        try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(output), manifest)) {
+            jar.putNextEntry(new JarEntry(Main.PROGRAM_RESOURCE));
+            jar.write(program);
+            jar.closeEntry();
+            copyRuntime(jar);
+        }
+    }
+
+    // Copies the runtime classes from wherever this class was loaded, a class directory or a jar.
+    private static void copyRuntime(JarOutputStream jar) throws IOException {
+        Path codeSource;
+        try {
+            codeSource = Path.of(Jloxc.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Cannot locate the runtime classes.", e);
+        }
+
+        if (Files.isDirectory(codeSource)) {
+            List<Path> classes = new ArrayList<>();
+            try (Stream<Path> files = Files.walk(codeSource)) {
+                files.filter(Files::isRegularFile).forEach(classes::add);
+            }
+            for (Path file : classes) {
+                String name = codeSource.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+                if (isRuntimeClass(name)) {
+                    try (InputStream in = Files.newInputStream(file)) {
+                        copyEntry(jar, name, in);
+                    }
+                }
+            }
+        } else {
+            try (JarFile source = new JarFile(codeSource.toFile())) {
+                Enumeration<JarEntry> entries = source.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    if (!entry.isDirectory() && isRuntimeClass(entry.getName())) {
+                        try (InputStream in = source.getInputStream(entry)) {
+                            copyEntry(jar, entry.getName(), in);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isRuntimeClass(String name) {
+        if (!name.endsWith(".class")) {
+            return false;
+        }
+        String className = name.substring(0, name.length() - ".class".length());
+        int nested = className.indexOf('$');
+        if (nested != -1) {
+            className = className.substring(0, nested);
+        }
+        return RUNTIME_CLASSES.contains(className);
+    }
+
+    private static void copyEntry(JarOutputStream jar, String name, InputStream in) throws IOException {
+        jar.putNextEntry(new JarEntry(name));
+        in.transferTo((OutputStream) jar);
+        jar.closeEntry();
+    }
+}
@@ -0,0 +1,31 @@
+package lox.aot;
+
+import lox.exceptions.RuntimeError;
+import lox.vm.VM;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// The entry point of a jar written by jloxc: runs the program stored next to it on the VM.
+public final class Main {
+    static final String PROGRAM_RESOURCE = "lox/aot/program.loxc";
+
+    private Main() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        try (InputStream program = Main.class.getClassLoader().getResourceAsStream(PROGRAM_RESOURCE)) {
+            if (program == null) {
+                System.err.println("No compiled program in this jar.");
+                System.exit(66);
+            }
+            new VM().interpret(program);
+        } catch (RuntimeError error) {
+            // Same report as Lox.runtimeError, which is not part of the runtime.
+            System.out.println("[line " + error.token.line() + "]: Runtime error");
+            System.out.println("[line " + error.token.line() + "]: Error at " + VM.class.getName() + ": "
+                    + error.getMessage());
+            System.exit(70);
+        }
+    }
+}
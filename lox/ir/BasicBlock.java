@@ -0,0 +1,37 @@
+package lox.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A straight-line run of instructions ending in a terminator. Phis come first and are kept apart.
+final class BasicBlock {
+    final int id;
+    final List<Instruction> phis = new ArrayList<>();
+    final List<Instruction> instructions = new ArrayList<>();
+    final List<BasicBlock> predecessors = new ArrayList<>();
+    final List<BasicBlock> successors = new ArrayList<>();
+
+    // Filled in by IrFunction.computeDominators().
+    BasicBlock dominator;
+    final List<BasicBlock> dominated = new ArrayList<>();
+    int order; // Position in reverse postorder.
+
+    BasicBlock(int id) {
+        this.id = id;
+    }
+
+    boolean isTerminated() {
+        return !instructions.isEmpty() && instructions.get(instructions.size() - 1).op.isTerminator();
+    }
+
+    // Adds an instruction ahead of the terminator.
+    void insertBeforeTerminator(Instruction instruction) {
+        instruction.block = this;
+        instructions.add(instructions.size() - 1, instruction);
+    }
+
+    @Override
+    public String toString() {
+        return "b" + id;
+    }
+}
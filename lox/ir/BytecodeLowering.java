@@ -0,0 +1,387 @@
+package lox.ir;
+
+import lox.Environment;
+import lox.Expr;
+import lox.jit.ClassWriter;
+import lox.jit.MethodWriter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Lowers an optimized IrFunction to the run() method of a CompiledCode subclass, which HotSpot then compiles as a
+whole. Every instruction that has a value gets a JVM local, blocks become labels, and the phi copies of an edge are
+done on the operand stack on the way to its target, so they happen all at once. Operations call IrRuntime and
+JitRuntime, which HotSpot inlines.
+
+Property reads that reuse an earlier read keep the epoch scheme of IrCode: the epoch is an int local, and every
+property read has a second, int local with the epoch it found a field in.
+*/
+final class BytecodeLowering {
+    private static final String OBJECT = "java/lang/Object";
+    private static final String TOKEN = "lox/Token";
+    private static final String STRING = "java/lang/String";
+    private static final String ENVIRONMENT = "lox/Environment";
+    private static final String INTERPRETER = "lox/Interpreter";
+    private static final String IR_RUNTIME = "lox/ir/IrRuntime";
+    private static final String JIT_RUNTIME = "lox/jit/JitRuntime";
+    private static final String VALUES = "lox/Values";
+    private static final String COMPILED_CODE = "lox/jit/CompiledCode";
+    private static final String RUN = "(Llox/Interpreter;Llox/LoxInstance;Ljava/util/List;)Ljava/lang/Object;";
+    private static final String BINARY = "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String GUARD = "(Ljava/lang/Object;Llox/Token;Ljava/lang/String;)V";
+
+    private static final int INTERPRETER_LOCAL = 1;
+    private static final int RECEIVER_LOCAL = 2;
+    private static final int ARGUMENTS_LOCAL = 3;
+    private static final int EPOCH_LOCAL = 4;
+    private static final int FIRST_LOCAL = 5;
+    private static final int MAX_LOCALS = 0xffff;
+
+    static final class NotLowerable extends RuntimeException {
+        NotLowerable(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    // The class file and the constants its constructor expects.
+    record Generated(byte[] classFile, Object[] constants) {
+    }
+
+    private final IrFunction function;
+    private final MethodWriter method;
+    private final Environment globals;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndexes = new IdentityHashMap<>();
+    private final Map<BasicBlock, MethodWriter.Label> labels = new HashMap<>();
+    // The int local holding the epoch of each property read.
+    private final Map<Instruction, Integer> epochLocals = new IdentityHashMap<>();
+
+    private BytecodeLowering(IrFunction function, MethodWriter method, Environment globals) {
+        this.function = function;
+        this.method = method;
+        this.globals = globals;
+    }
+
+    static Generated lower(String className, IrFunction function, Environment globals) {
+        ClassWriter classWriter = new ClassWriter(className, COMPILED_CODE);
+
+        MethodWriter constructor = classWriter.addMethod(ClassWriter.ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V");
+        constructor.loadLocal(0);
+        constructor.loadLocal(1);
+        constructor.invokeSpecial(COMPILED_CODE, "<init>", "([Ljava/lang/Object;)V");
+        constructor.op(MethodWriter.RETURN, 0);
+
+        MethodWriter run = classWriter.addMethod(ClassWriter.ACC_PUBLIC, "run", RUN);
+        BytecodeLowering lowering = new BytecodeLowering(function, run, globals);
+        lowering.lowerBody();
+        if (run.length() > MethodWriter.MAX_CODE_LENGTH) {
+            throw new NotLowerable("the function is too long");
+        }
+        return new Generated(classWriter.toByteArray(), lowering.constants.toArray());
+    }
+
+    private void lowerBody() {
+        int nextLocal = FIRST_LOCAL + function.number();
+        for (BasicBlock block : function.blocks) {
+            labels.put(block, method.newLabel());
+            for (Instruction instruction : block.instructions) {
+                if (instruction.op == Op.GET_PROPERTY || instruction.op == Op.READ_FIELD) {
+                    epochLocals.put(instruction, nextLocal++);
+                }
+            }
+        }
+        if (nextLocal > MAX_LOCALS) {
+            throw new NotLowerable("it has too many values");
+        }
+
+        method.pushInt(1);
+        method.storeIntLocal(EPOCH_LOCAL);
+        // Blocks are in reverse postorder, so the entry block comes first and falls through to nothing.
+        for (BasicBlock block : function.blocks) {
+            method.place(labels.get(block));
+            for (Instruction instruction : block.instructions) {
+                lower(instruction);
+            }
+        }
+    }
+
+    ////////////////////////////////// INSTRUCTIONS //////////////////////////////////
+
+    private void lower(Instruction instruction) {
+        switch (instruction.op) {
+            case CONST -> {
+                Object value = instruction.payload;
+                if (value == null) {
+                    method.op(MethodWriter.ACONST_NULL, 1);
+                } else if (value instanceof Boolean bool) {
+                    method.getStatic("java/lang/Boolean", bool ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+                } else {
+                    loadConstant(value, null);
+                }
+                store(instruction);
+            }
+            case PARAM -> {
+                method.loadLocal(ARGUMENTS_LOCAL);
+                method.pushInt((Integer) instruction.payload);
+                method.invokeInterface("java/util/List", "get", "(I)Ljava/lang/Object;");
+                store(instruction);
+            }
+            case RECEIVER -> {
+                method.loadLocal(RECEIVER_LOCAL);
+                store(instruction);
+            }
+            case PHI -> throw new IllegalStateException("Phis are not instructions of a block");
+            case GLOBAL_GET -> {
+                loadConstant(globals, ENVIRONMENT);
+                loadConstant(instruction.token, TOKEN);
+                method.invokeVirtual(ENVIRONMENT, "get", "(Llox/Token;)Ljava/lang/Object;");
+                store(instruction);
+            }
+            case GLOBAL_SET -> {
+                load(instruction.input(0));
+                loadConstant(globals, ENVIRONMENT);
+                loadConstant(instruction.token, TOKEN);
+                method.invokeStatic(JIT_RUNTIME, "assignGlobal",
+                        "(Ljava/lang/Object;Llox/Environment;Llox/Token;)Ljava/lang/Object;");
+                method.op(MethodWriter.POP, -1);
+            }
+            case CHECK_NUMBER -> guard(instruction, "checkNumber");
+            case CHECK_NONZERO -> guard(instruction, "checkNonZero");
+            case CHECK_INSTANCE -> guard(instruction, "checkInstance");
+            case ADD -> {
+                loadInputs(instruction);
+                loadConstant(instruction.token, TOKEN);
+                method.invokeStatic(JIT_RUNTIME, "add",
+                        "(Ljava/lang/Object;Ljava/lang/Object;Llox/Token;)Ljava/lang/Object;");
+                store(instruction);
+            }
+            case ADD_NUM -> binary(instruction, IR_RUNTIME, "addNumbers");
+            case SUB_NUM -> binary(instruction, IR_RUNTIME, "subtractNumbers");
+            case MUL_NUM -> binary(instruction, IR_RUNTIME, "multiplyNumbers");
+            case DIV_NUM -> binary(instruction, IR_RUNTIME, "divideNumbers");
+            case LESS -> binary(instruction, IR_RUNTIME, "less");
+            case LESS_EQUAL -> binary(instruction, IR_RUNTIME, "lessEqual");
+            case GREATER -> binary(instruction, IR_RUNTIME, "greater");
+            case GREATER_EQUAL -> binary(instruction, IR_RUNTIME, "greaterEqual");
+            case NEG_NUM -> {
+                load(instruction.input(0));
+                method.invokeStatic(IR_RUNTIME, "negateNumber", "(Ljava/lang/Object;)Ljava/lang/Object;");
+                store(instruction);
+            }
+            case EQUAL, NOT_EQUAL -> {
+                loadInputs(instruction);
+                method.op(MethodWriter.ACONST_NULL, 1);
+                method.invokeStatic(JIT_RUNTIME, instruction.op == Op.EQUAL ? "equal" : "notEqual",
+                        "(Ljava/lang/Object;Ljava/lang/Object;Llox/Token;)Ljava/lang/Object;");
+                store(instruction);
+            }
+            case NOT -> {
+                load(instruction.input(0));
+                method.invokeStatic(JIT_RUNTIME, "not", "(Ljava/lang/Object;)Ljava/lang/Object;");
+                store(instruction);
+            }
+            case GET_PROPERTY -> getProperty(instruction);
+            case READ_FIELD -> readField(instruction, null);
+            case SET_PROPERTY -> {
+                method.loadLocal(INTERPRETER_LOCAL);
+                loadConstant(instruction.payload, "lox/Expr$Set");
+                loadInputs(instruction);
+                method.invokeVirtual(INTERPRETER, "setProperty",
+                        "(Llox/Expr$Set;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+                method.op(MethodWriter.POP, -1);
+                method.increment(EPOCH_LOCAL, 1);
+            }
+            case CALL, TAIL_CALL -> {
+                method.loadLocal(INTERPRETER_LOCAL);
+                loadConstant(instruction.payload, "lox/Expr$Call");
+                load(instruction.input(0));
+                loadArguments(instruction, 1);
+                method.invokeStatic(IR_RUNTIME, instruction.op == Op.CALL ? "call" : "tailCall",
+                        "(Llox/Interpreter;Llox/Expr$Call;Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;");
+                store(instruction);
+                method.increment(EPOCH_LOCAL, 1);
+            }
+            case LOOKUP_METHOD -> {
+                method.loadLocal(INTERPRETER_LOCAL);
+                loadConstant(instruction.payload, "lox/Expr$Get");
+                load(instruction.input(0));
+                method.invokeStatic(IR_RUNTIME, "lookupMethod",
+                        "(Llox/Interpreter;Llox/Expr$Get;Ljava/lang/Object;)Ljava/lang/Object;");
+                store(instruction);
+                // Anything but a method came from reading the property, which may have run a getter.
+                MethodWriter.Label isMethod = method.newLabel();
+                load(instruction);
+                method.typeInstruction(MethodWriter.INSTANCEOF, "lox/LoxFunction");
+                method.jump(MethodWriter.IFNE, isMethod);
+                method.increment(EPOCH_LOCAL, 1);
+                method.place(isMethod);
+            }
+            case INVOKE, TAIL_INVOKE -> {
+                method.loadLocal(INTERPRETER_LOCAL);
+                loadConstant(instruction.payload, "lox/Expr$Call");
+                load(instruction.input(0));
+                load(instruction.input(1));
+                loadArguments(instruction, 2);
+                method.invokeStatic(IR_RUNTIME, instruction.op == Op.INVOKE ? "invoke" : "tailInvoke",
+                        "(Llox/Interpreter;Llox/Expr$Call;Ljava/lang/Object;"
+                        + "Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;");
+                store(instruction);
+                method.increment(EPOCH_LOCAL, 1);
+            }
+            case PRINT -> {
+                load(instruction.input(0));
+                method.invokeStatic(JIT_RUNTIME, "print", "(Ljava/lang/Object;)V");
+            }
+            case JUMP -> edge(instruction.block, instruction.block.successors.get(0));
+            case BRANCH -> {
+                BasicBlock block = instruction.block;
+                MethodWriter.Label ifFalse = method.newLabel();
+                load(instruction.input(0));
+                method.invokeStatic(VALUES, "isTruthy", "(Ljava/lang/Object;)Z");
+                method.jump(MethodWriter.IFEQ, ifFalse);
+                edge(block, block.successors.get(0));
+                method.place(ifFalse);
+                edge(block, block.successors.get(1));
+            }
+            case RETURN -> {
+                load(instruction.input(0));
+                method.op(MethodWriter.ARETURN, -1);
+            }
+        }
+    }
+
+    /*
+    A read linked to an earlier one takes that read's value if the epoch has not moved since it found a field.
+    Otherwise it reads the field, and falls back to a full property access if there is none.
+    */
+    private void getProperty(Instruction instruction) {
+        MethodWriter.Label done = method.newLabel();
+        if (instruction.inputs.size() == 2) {
+            MethodWriter.Label stale = method.newLabel();
+            Instruction source = instruction.input(1);
+            method.loadIntLocal(epochLocals.get(source));
+            method.loadIntLocal(EPOCH_LOCAL);
+            method.jump(MethodWriter.IF_ICMPNE, stale);
+            load(source);
+            store(instruction);
+            method.loadIntLocal(EPOCH_LOCAL);
+            method.storeIntLocal(epochLocals.get(instruction));
+            method.jump(MethodWriter.GOTO, done);
+            method.place(stale);
+        }
+
+        MethodWriter.Label notAField = method.newLabel();
+        readField(instruction, notAField);
+        method.jump(MethodWriter.GOTO, done);
+
+        // A method or a getter; the getter may change fields.
+        method.place(notAField);
+        method.loadLocal(INTERPRETER_LOCAL);
+        loadConstant(instruction.payload, "lox/Expr$Get");
+        load(instruction.input(0));
+        method.invokeVirtual(INTERPRETER, "getProperty", "(Llox/Expr$Get;Ljava/lang/Object;)Ljava/lang/Object;");
+        store(instruction);
+        method.increment(EPOCH_LOCAL, 1);
+        method.place(done);
+    }
+
+    // Reads a field and records the epoch it was found in, or 0. Jumps to notAField instead, if given, when the
+    // object has no such field.
+    private void readField(Instruction instruction, MethodWriter.Label notAField) {
+        MethodWriter.Label found = method.newLabel();
+        MethodWriter.Label done = method.newLabel();
+        method.loadLocal(INTERPRETER_LOCAL);
+        loadConstant(instruction.payload, "lox/Expr$Get");
+        load(instruction.input(0));
+        method.invokeVirtual(INTERPRETER, "readField", "(Llox/Expr$Get;Ljava/lang/Object;)Ljava/lang/Object;");
+        store(instruction);
+        load(instruction);
+        method.getStatic(INTERPRETER, "NOT_A_FIELD", "Ljava/lang/Object;");
+        method.jump(MethodWriter.IF_ACMPNE, found);
+        method.pushInt(0);
+        method.storeIntLocal(epochLocals.get(instruction));
+        if (notAField != null) {
+            method.jump(MethodWriter.GOTO, notAField);
+        } else {
+            method.jump(MethodWriter.GOTO, done);
+        }
+        method.place(found);
+        method.loadIntLocal(EPOCH_LOCAL);
+        method.storeIntLocal(epochLocals.get(instruction));
+        method.place(done);
+    }
+
+    private void guard(Instruction instruction, String helper) {
+        load(instruction.input(0));
+        loadConstant(instruction.token, TOKEN);
+        loadConstant(instruction.payload, STRING);
+        method.invokeStatic(IR_RUNTIME, helper, GUARD);
+    }
+
+    private void binary(Instruction instruction, String owner, String helper) {
+        loadInputs(instruction);
+        method.invokeStatic(owner, helper, BINARY);
+        store(instruction);
+    }
+
+    // Copies the values of the target's phis and jumps there. All sources are on the stack before the first
+    // phi is written, since a source may be one of the phis.
+    private void edge(BasicBlock from, BasicBlock to) {
+        int index = to.predecessors.indexOf(from);
+        for (Instruction phi : to.phis) {
+            load(phi.input(index));
+        }
+        for (int i = to.phis.size() - 1; i >= 0; i--) {
+            store(to.phis.get(i));
+        }
+        method.jump(MethodWriter.GOTO, labels.get(to));
+    }
+
+    ////////////////////////////////// HELPERS //////////////////////////////////
+
+    private void load(Instruction value) {
+        method.loadLocal(FIRST_LOCAL + value.id);
+    }
+
+    private void store(Instruction value) {
+        method.storeLocal(FIRST_LOCAL + value.id);
+    }
+
+    private void loadInputs(Instruction instruction) {
+        for (Instruction input : instruction.inputs) {
+            load(input);
+        }
+    }
+
+    // Leaves an Object[] with the inputs from the given one on.
+    private void loadArguments(Instruction instruction, int first) {
+        method.pushInt(instruction.inputs.size() - first);
+        method.typeInstruction(MethodWriter.ANEWARRAY, OBJECT);
+        for (int i = first; i < instruction.inputs.size(); i++) {
+            method.op(MethodWriter.DUP, 1);
+            method.pushInt(i - first);
+            load(instruction.input(i));
+            method.op(MethodWriter.AASTORE, -3);
+        }
+    }
+
+    private void loadConstant(Object value, String type) {
+        Integer index = constantIndexes.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndexes.put(value, index);
+        }
+        method.loadLocal(0);
+        method.getField(COMPILED_CODE, "constants", "[Ljava/lang/Object;");
+        method.pushInt(index);
+        method.op(MethodWriter.AALOAD, -1);
+        if (type != null) {
+            method.typeInstruction(MethodWriter.CHECKCAST, type);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package lox.ir;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+Removes type checks whose outcome is already known, and turns '+' into numeric addition where both operands are
+known to be numbers. A value is known to be a number when it is a numeric constant, the result of numeric
+arithmetic, a phi of such values, or when a check of it dominates the point in question.
+
+Specializing an addition makes its result a number, which can make a loop phi numeric and remove the check of
+the loop variable in turn, so the pass repeats until nothing changes.
+*/
+final class CheckElimination {
+    private final IrFunction function;
+    private Set<Instruction> numeric;
+    private int removed = 0;
+    private int specialized = 0;
+
+    private CheckElimination(IrFunction function) {
+        this.function = function;
+    }
+
+    // Returns a summary for the dump.
+    static String run(IrFunction function) {
+        CheckElimination pass = new CheckElimination(function);
+        boolean changed = true;
+        while (changed) {
+            pass.numeric = numericValues(function);
+            int before = pass.removed + pass.specialized;
+            pass.walk(function.entry, new HashSet<>(), new HashSet<>(), new HashSet<>());
+            changed = pass.removed + pass.specialized != before;
+        }
+        return pass.removed + " checks removed, " + pass.specialized + " additions specialized";
+    }
+
+    // The sets hold the values checked on every path to this block; each child of the dominator tree gets a copy.
+    private void walk(BasicBlock block, Set<Instruction> numbers, Set<Instruction> nonZero,
+                      Set<Instruction> instances) {
+        List<Instruction> kept = new ArrayList<>(block.instructions.size());
+        for (Instruction instruction : block.instructions) {
+            switch (instruction.op) {
+                case CHECK_NUMBER -> {
+                    Instruction value = instruction.input(0);
+                    if (isNumber(value, numbers)) {
+                        removed++;
+                        continue;
+                    }
+                    numbers.add(value);
+                }
+                case CHECK_NONZERO -> {
+                    Instruction value = instruction.input(0);
+                    if (nonZero.contains(value) || isNonZeroConstant(value)) {
+                        removed++;
+                        continue;
+                    }
+                    nonZero.add(value);
+                }
+                case CHECK_INSTANCE -> {
+                    if (!instances.add(instruction.input(0))) {
+                        removed++;
+                        continue;
+                    }
+                }
+                case ADD -> {
+                    if (isNumber(instruction.input(0), numbers) && isNumber(instruction.input(1), numbers)) {
+                        instruction.op = Op.ADD_NUM;
+                        specialized++;
+                    }
+                }
+                default -> {
+                }
+            }
+            kept.add(instruction);
+        }
+        block.instructions.clear();
+        block.instructions.addAll(kept);
+
+        for (BasicBlock child : block.dominated) {
+            walk(child, new HashSet<>(numbers), new HashSet<>(nonZero), new HashSet<>(instances));
+        }
+    }
+
+    private boolean isNumber(Instruction value, Set<Instruction> checked) {
+        return numeric.contains(value) || checked.contains(value);
+    }
+
+    private static boolean isNonZeroConstant(Instruction value) {
+        return value.op == Op.CONST && value.payload instanceof Double number && number != 0.0;
+    }
+
+    /*
+    The values that are numbers whenever they are computed. Phis start out assumed numeric and lose that as soon
+    as one input is not, until nothing changes; a loop variable that starts as a number and is only ever
+    incremented stays numeric.
+    */
+    private static Set<Instruction> numericValues(IrFunction function) {
+        Set<Instruction> numeric = new HashSet<>();
+        List<Instruction> phis = new ArrayList<>();
+        for (BasicBlock block : function.blocks) {
+            phis.addAll(block.phis);
+            for (Instruction instruction : block.instructions) {
+                switch (instruction.op) {
+                    case CONST -> {
+                        if (instruction.payload instanceof Double) {
+                            numeric.add(instruction);
+                        }
+                    }
+                    case ADD_NUM, SUB_NUM, MUL_NUM, DIV_NUM, NEG_NUM -> numeric.add(instruction);
+                    default -> {
+                    }
+                }
+            }
+        }
+        numeric.addAll(phis);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Instruction phi : phis) {
+                if (numeric.contains(phi) && !numeric.containsAll(phi.inputs)) {
+                    numeric.remove(phi);
+                    changed = true;
+                }
+            }
+        }
+        return numeric;
+    }
+}
@@ -0,0 +1,57 @@
+package lox.ir;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Removes pure instructions, phis and speculative reads whose values nothing uses.
+final class DeadCodeElimination {
+    private DeadCodeElimination() {
+    }
+
+    // Returns a summary for the dump.
+    static String run(IrFunction function) {
+        int removed = 0;
+        boolean changed = true;
+        while (changed) {
+            Map<Instruction, Integer> uses = new HashMap<>();
+            for (BasicBlock block : function.blocks) {
+                countUses(block.phis, uses);
+                countUses(block.instructions, uses);
+            }
+            changed = false;
+            for (BasicBlock block : function.blocks) {
+                int before = block.phis.size() + block.instructions.size();
+                block.phis.removeIf(phi -> isUnused(phi, uses));
+                block.instructions.removeIf(instruction -> isRemovable(instruction) && isUnused(instruction, uses));
+                int after = block.phis.size() + block.instructions.size();
+                removed += before - after;
+                changed |= after != before;
+            }
+        }
+        return removed + " instructions removed";
+    }
+
+    private static boolean isRemovable(Instruction instruction) {
+        return instruction.op.isPure() || instruction.op == Op.READ_FIELD;
+    }
+
+    // A phi that only feeds itself is unused as well.
+    private static boolean isUnused(Instruction instruction, Map<Instruction, Integer> uses) {
+        int count = uses.getOrDefault(instruction, 0);
+        for (Instruction input : instruction.inputs) {
+            if (input == instruction) {
+                count--;
+            }
+        }
+        return count == 0;
+    }
+
+    private static void countUses(List<Instruction> instructions, Map<Instruction, Integer> uses) {
+        for (Instruction instruction : instructions) {
+            for (Instruction input : instruction.inputs) {
+                uses.merge(input, 1, Integer::sum);
+            }
+        }
+    }
+}
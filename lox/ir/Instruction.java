@@ -0,0 +1,38 @@
+package lox.ir;
+
+import lox.Token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+One instruction, which is also the SSA value it defines. The payload holds what the operation needs besides its
+inputs: the value of a constant, the index of a parameter, the message of a guard, or the syntax node of a
+property access or call, whose token and inline cache the runtime uses.
+*/
+final class Instruction {
+    Op op;
+    final List<Instruction> inputs;
+    final Object payload;
+    final Token token; // Where errors raised by the instruction are reported; null if it cannot fail.
+    BasicBlock block;
+    int id;
+    int[] operands; // The ids of the inputs, fixed when the function is finished.
+
+    Instruction(Op op, Object payload, Token token, Instruction... inputs) {
+        this.op = op;
+        this.payload = payload;
+        this.token = token;
+        this.inputs = new ArrayList<>(Arrays.asList(inputs));
+    }
+
+    Instruction input(int index) {
+        return inputs.get(index);
+    }
+
+    @Override
+    public String toString() {
+        return "v" + id;
+    }
+}
@@ -0,0 +1,577 @@
+package lox.ir;
+
+import lox.Expr;
+import lox.Stmt;
+import lox.Token;
+import lox.TokenType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+Builds the IR of one function from its resolved syntax tree, constructing SSA form directly with the algorithm of
+Braun et al. ("Simple and Efficient Construction of Static Single Assignment Form"): every local is a variable
+number, assignments record the current definition per block, and reads look it up through the predecessors,
+placing phis where paths meet. Blocks whose predecessors are not all known yet (loop headers) are sealed later.
+
+Evaluation order and the error checks follow the Interpreter exactly. Functions that create closures or classes,
+use 'super', or read locals of an enclosing function are not compiled.
+*/
+final class IrBuilder implements Expr.Visitor<Instruction>, Stmt.Visitor<Void> {
+    private static final String OPERANDS_MESSAGE = "Operands must be a numbers";
+    private static final String OPERAND_MESSAGE = "Operand must be a number";
+
+    static final class NotCompilable extends RuntimeException {
+        NotCompilable(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    private record Loop(BasicBlock header, BasicBlock exit) {
+    }
+
+    private final IrFunction function;
+    // Maps the slots of the function's frame to variable numbers.
+    private int[] slots;
+    private final List<Map<BasicBlock, Instruction>> definitions = new ArrayList<>();
+    private final Map<BasicBlock, Map<Integer, Instruction>> incompletePhis = new HashMap<>();
+    private final Set<BasicBlock> sealed = new HashSet<>();
+    private final Deque<Loop> loops = new ArrayDeque<>();
+    private final Map<Object, Instruction> constants = new HashMap<>();
+    private Instruction nil;
+    private BasicBlock current;
+
+    private IrBuilder(IrFunction function) {
+        this.function = function;
+    }
+
+    static IrFunction build(String name, List<Token> params, List<Stmt> body, int slotCount, boolean isMethod) {
+        IrFunction function = new IrFunction(name);
+        IrBuilder builder = new IrBuilder(function);
+        builder.buildBody(params, body, slotCount, isMethod);
+        return function;
+    }
+
+    private void buildBody(List<Token> params, List<Stmt> body, int slotCount, boolean isMethod) {
+        // The entry block holds the parameters and every constant, so they dominate all uses.
+        BasicBlock entry = function.entry;
+        sealed.add(entry);
+        nil = constant(null);
+        slots = new int[slotCount];
+        Arrays.fill(slots, -1);
+        int first = 0;
+        if (isMethod) {
+            slots[0] = newVariable();
+            writeVariable(slots[0], entry, append(entry, new Instruction(Op.RECEIVER, null, null)));
+            first = 1;
+        }
+        for (int i = 0; i < params.size(); i++) {
+            slots[first + i] = newVariable();
+            writeVariable(slots[first + i], entry, append(entry, new Instruction(Op.PARAM, i, null)));
+        }
+
+        BasicBlock start = newBlock(entry);
+        current = start;
+        build(body);
+        if (!current.isTerminated()) {
+            emit(Op.RETURN, null, null, nil);
+        }
+        // Constants were added to the entry block as they came up; only now can it jump to the body.
+        append(entry, new Instruction(Op.JUMP, null, null));
+        // Dropping the unreachable blocks first takes their inputs out of the phis.
+        function.computeDominators();
+        removeTrivialPhis();
+    }
+
+    ////////////////////////////////// STATEMENTS //////////////////////////////////
+
+    private void build(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        build(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new NotCompilable("it declares a class");
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression != null) {
+            build(stmt.expression);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new NotCompilable("it declares a function");
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        Instruction condition = build(stmt.condition);
+        BasicBlock thenBlock = function.newBlock();
+        BasicBlock elseBlock = function.newBlock();
+        branch(condition, thenBlock, elseBlock);
+        seal(thenBlock);
+        seal(elseBlock);
+
+        BasicBlock merge = function.newBlock();
+        current = thenBlock;
+        stmt.thenBranch.accept(this);
+        jump(merge);
+        current = elseBlock;
+        if (stmt.elseBranch != null) {
+            stmt.elseBranch.accept(this);
+        }
+        jump(merge);
+        seal(merge);
+        current = merge;
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        emit(Op.PRINT, null, null, build(stmt.expression));
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        Instruction value;
+        if (stmt.isTailCall) {
+            value = call((Expr.Call) stmt.value, Op.TAIL_CALL, Op.TAIL_INVOKE);
+        } else {
+            value = stmt.value == null ? nil : build(stmt.value);
+        }
+        emit(Op.RETURN, null, null, value);
+        current = deadBlock();
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        Instruction value = stmt.initializer == null ? nil : build(stmt.initializer);
+        int variable = newVariable();
+        slots[stmt.slot] = variable;
+        writeVariable(variable, current, value);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        BasicBlock header = function.newBlock();
+        jump(header);
+        current = header;
+        Instruction condition = build(stmt.condition);
+
+        BasicBlock body = function.newBlock();
+        BasicBlock exit = function.newBlock();
+        branch(condition, body, exit);
+        seal(body);
+
+        loops.push(new Loop(header, exit));
+        current = body;
+        stmt.body.accept(this);
+        jump(header);
+        loops.pop();
+
+        // Every jump back to the header ('continue' included) and out of the loop is known now.
+        seal(header);
+        seal(exit);
+        current = exit;
+        return null;
+    }
+
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        throw new NotCompilable("it has a for-in loop");
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        throw new NotCompilable("it is a generator");
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        jump(loops.peek().exit());
+        current = deadBlock();
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        jump(loops.peek().header());
+        current = deadBlock();
+        return null;
+    }
+
+    ////////////////////////////////// EXPRESSIONS //////////////////////////////////
+
+    private Instruction build(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public Instruction visitBinaryExpr(Expr.Binary expr) {
+        return binary(expr.left, expr.operator, expr.right);
+    }
+
+    @Override
+    public Instruction visitBinaryRPNExpr(Expr.BinaryRPN expr) {
+        return binary(expr.left, expr.operator, expr.right);
+    }
+
+    private Instruction binary(Expr leftExpr, Token operator, Expr rightExpr) {
+        Instruction left = build(leftExpr);
+        Instruction right = build(rightExpr);
+
+        Op op = switch (operator.tokenType()) {
+            case PLUS -> Op.ADD;
+            case MINUS -> Op.SUB_NUM;
+            case STAR -> Op.MUL_NUM;
+            case SLASH -> Op.DIV_NUM;
+            case GREATER -> Op.GREATER;
+            case GREATER_EQUAL -> Op.GREATER_EQUAL;
+            case LESS -> Op.LESS;
+            case LESS_EQUAL -> Op.LESS_EQUAL;
+            case EQUAL_EQUAL -> Op.EQUAL;
+            case BANG_EQUAL -> Op.NOT_EQUAL;
+            default -> throw new NotCompilable("it uses the operator " + operator.lexeme());
+        };
+        if (op == Op.ADD) {
+            return emit(Op.ADD, null, operator, left, right);
+        }
+        if (op != Op.EQUAL && op != Op.NOT_EQUAL) {
+            emit(Op.CHECK_NUMBER, OPERANDS_MESSAGE, operator, left);
+            emit(Op.CHECK_NUMBER, OPERANDS_MESSAGE, operator, right);
+        }
+        if (op == Op.DIV_NUM) {
+            emit(Op.CHECK_NONZERO, "Division by zero", operator, right);
+        }
+        return emit(op, null, null, left, right);
+    }
+
+    @Override
+    public Instruction visitUnaryExpr(Expr.Unary expr) {
+        Instruction right = build(expr.right);
+        return switch (expr.operator.tokenType()) {
+            case BANG -> emit(Op.NOT, null, null, right);
+            case MINUS -> {
+                emit(Op.CHECK_NUMBER, OPERAND_MESSAGE, expr.operator, right);
+                yield emit(Op.NEG_NUM, null, null, right);
+            }
+            // The Interpreter evaluates other unary operators to nil.
+            default -> nil;
+        };
+    }
+
+    @Override
+    public Instruction visitGroupingExpr(Expr.Grouping expr) {
+        return build(expr.expression);
+    }
+
+    @Override
+    public Instruction visitLiteralExpr(Expr.Literal expr) {
+        return constant(expr.value);
+    }
+
+    // 'and' and 'or' produce whichever operand decided the result, so they merge two values.
+    @Override
+    public Instruction visitLogicalExpr(Expr.Logical expr) {
+        int result = newVariable();
+        Instruction left = build(expr.left);
+        writeVariable(result, current, left);
+
+        BasicBlock right = function.newBlock();
+        BasicBlock merge = function.newBlock();
+        if (expr.operator.tokenType() == TokenType.OR) {
+            branch(left, merge, right);
+        } else {
+            branch(left, right, merge);
+        }
+        seal(right);
+        current = right;
+        writeVariable(result, current, build(expr.right));
+        jump(merge);
+        seal(merge);
+        current = merge;
+        return readVariable(result, current);
+    }
+
+    @Override
+    public Instruction visitTernaryExpr(Expr.Ternary expr) {
+        int result = newVariable();
+        Instruction condition = build(expr.condition);
+        BasicBlock thenBlock = function.newBlock();
+        BasicBlock elseBlock = function.newBlock();
+        BasicBlock merge = function.newBlock();
+        branch(condition, thenBlock, elseBlock);
+        seal(thenBlock);
+        seal(elseBlock);
+
+        current = thenBlock;
+        writeVariable(result, current, build(expr.thenBranch));
+        jump(merge);
+        current = elseBlock;
+        writeVariable(result, current, build(expr.elseBranch));
+        jump(merge);
+        seal(merge);
+        current = merge;
+        return readVariable(result, current);
+    }
+
+    @Override
+    public Instruction visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth == -1) {
+            return emit(Op.GLOBAL_GET, null, expr.name);
+        }
+        return readVariable(variableAt(expr.depth, expr.slot), current);
+    }
+
+    @Override
+    public Instruction visitAssignExpr(Expr.Assign expr) {
+        Instruction value = build(expr.value);
+        if (expr.depth == -1) {
+            emit(Op.GLOBAL_SET, null, expr.name, value);
+        } else {
+            writeVariable(variableAt(expr.depth, expr.slot), current, value);
+        }
+        return value;
+    }
+
+    @Override
+    public Instruction visitThisExpr(Expr.This expr) {
+        return readVariable(variableAt(expr.depth, expr.slot), current);
+    }
+
+    @Override
+    public Instruction visitSuperExpr(Expr.Super expr) {
+        throw new NotCompilable("it uses 'super'");
+    }
+
+    @Override
+    public Instruction visitLambdaExpr(Expr.Lambda expr) {
+        throw new NotCompilable("it creates a lambda");
+    }
+
+    @Override
+    public Instruction visitGetExpr(Expr.Get expr) {
+        Instruction object = build(expr.object);
+        return emit(Op.GET_PROPERTY, expr, expr.name, object);
+    }
+
+    @Override
+    public Instruction visitSetExpr(Expr.Set expr) {
+        Instruction object = build(expr.object);
+        emit(Op.CHECK_INSTANCE, "Only instances have fields.", expr.name, object);
+        Instruction value = build(expr.value);
+        emit(Op.SET_PROPERTY, expr, expr.name, object, value);
+        return value;
+    }
+
+    @Override
+    public Instruction visitCallExpr(Expr.Call expr) {
+        return call(expr, Op.CALL, Op.INVOKE);
+    }
+
+    private Instruction call(Expr.Call expr, Op call, Op invoke) {
+        // obj.name(args) finds the method before the arguments are evaluated, like the Interpreter.
+        if (expr.callee instanceof Expr.Get get) {
+            Instruction object = build(get.object);
+            Instruction method = emit(Op.LOOKUP_METHOD, get, get.name, object);
+            List<Instruction> inputs = new ArrayList<>(List.of(method, object));
+            for (Expr argument : expr.arguments) {
+                inputs.add(build(argument));
+            }
+            return emit(invoke, expr, expr.paren, inputs.toArray(new Instruction[0]));
+        }
+        List<Instruction> inputs = new ArrayList<>();
+        inputs.add(build(expr.callee));
+        for (Expr argument : expr.arguments) {
+            inputs.add(build(argument));
+        }
+        return emit(call, expr, expr.paren, inputs.toArray(new Instruction[0]));
+    }
+
+    ////////////////////////////////// SSA CONSTRUCTION //////////////////////////////////
+
+    private int newVariable() {
+        definitions.add(new HashMap<>());
+        return definitions.size() - 1;
+    }
+
+    private int variableAt(int depth, int slot) {
+        if (depth != 0) {
+            throw new NotCompilable("it uses a variable of an enclosing function");
+        }
+        int variable = slots[slot];
+        if (variable == -1) {
+            throw new NotCompilable("it uses a local function or class");
+        }
+        return variable;
+    }
+
+    private void writeVariable(int variable, BasicBlock block, Instruction value) {
+        definitions.get(variable).put(block, value);
+    }
+
+    private Instruction readVariable(int variable, BasicBlock block) {
+        Instruction value = definitions.get(variable).get(block);
+        return value != null ? value : readVariableRecursive(variable, block);
+    }
+
+    private Instruction readVariableRecursive(int variable, BasicBlock block) {
+        Instruction value;
+        if (!sealed.contains(block)) {
+            // Not all predecessors are known: the phi gets its inputs once the block is sealed.
+            value = newPhi(block);
+            incompletePhis.computeIfAbsent(block, b -> new HashMap<>()).put(variable, value);
+        } else if (block.predecessors.size() == 1) {
+            value = readVariable(variable, block.predecessors.get(0));
+        } else if (block.predecessors.isEmpty()) {
+            // Only in code that cannot be reached.
+            value = nil;
+        } else {
+            // The phi is recorded first, so a loop that leads back here finds it instead of recursing forever.
+            value = newPhi(block);
+            writeVariable(variable, block, value);
+            addPhiInputs(variable, value);
+        }
+        writeVariable(variable, block, value);
+        return value;
+    }
+
+    private Instruction newPhi(BasicBlock block) {
+        Instruction phi = new Instruction(Op.PHI, null, null);
+        phi.block = block;
+        block.phis.add(phi);
+        return phi;
+    }
+
+    private void addPhiInputs(int variable, Instruction phi) {
+        for (BasicBlock predecessor : phi.block.predecessors) {
+            phi.inputs.add(readVariable(variable, predecessor));
+        }
+    }
+
+    private void seal(BasicBlock block) {
+        Map<Integer, Instruction> phis = incompletePhis.remove(block);
+        if (phis != null) {
+            for (Map.Entry<Integer, Instruction> entry : phis.entrySet()) {
+                addPhiInputs(entry.getKey(), entry.getValue());
+            }
+        }
+        sealed.add(block);
+    }
+
+    /*
+    A phi whose inputs are all the same value, or the phi itself, is replaced by that value. Removing one can make
+    others trivial, so this repeats until nothing changes.
+    */
+    private void removeTrivialPhis() {
+        Map<Instruction, Instruction> replacements = new HashMap<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : function.blocks) {
+                for (Instruction phi : List.copyOf(block.phis)) {
+                    Instruction same = null;
+                    boolean trivial = true;
+                    for (Instruction input : phi.inputs) {
+                        Instruction value = resolve(input, replacements);
+                        if (value == phi || value == same) {
+                            continue;
+                        }
+                        if (same != null) {
+                            trivial = false;
+                            break;
+                        }
+                        same = value;
+                    }
+                    if (trivial) {
+                        replacements.put(phi, same == null ? nil : same);
+                        block.phis.remove(phi);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        function.replaceUses(replacements);
+    }
+
+    private static Instruction resolve(Instruction value, Map<Instruction, Instruction> replacements) {
+        Instruction replacement = replacements.get(value);
+        while (replacement != null) {
+            value = replacement;
+            replacement = replacements.get(value);
+        }
+        return value;
+    }
+
+    ////////////////////////////////// EMITTING //////////////////////////////////
+
+    private Instruction constant(Object value) {
+        // Keyed by value and type, so 1 and "1" stay apart; -0 and 0 are apart too, as Double.equals says.
+        Object key = value == null ? Void.class : List.of(value.getClass(), value);
+        Instruction instruction = constants.get(key);
+        if (instruction == null) {
+            instruction = append(function.entry, new Instruction(Op.CONST, value, null));
+            constants.put(key, instruction);
+        }
+        return instruction;
+    }
+
+    private Instruction emit(Op op, Object payload, Token token, Instruction... inputs) {
+        return append(current, new Instruction(op, payload, token, inputs));
+    }
+
+    private static Instruction append(BasicBlock block, Instruction instruction) {
+        instruction.block = block;
+        block.instructions.add(instruction);
+        return instruction;
+    }
+
+    private BasicBlock newBlock(BasicBlock predecessor) {
+        BasicBlock block = function.newBlock();
+        IrFunction.link(predecessor, block);
+        seal(block);
+        return block;
+    }
+
+    private BasicBlock deadBlock() {
+        BasicBlock block = function.newBlock();
+        seal(block);
+        return block;
+    }
+
+    private void jump(BasicBlock target) {
+        if (current.isTerminated()) {
+            return;
+        }
+        emit(Op.JUMP, null, null);
+        IrFunction.link(current, target);
+    }
+
+    private void branch(Instruction condition, BasicBlock ifTrue, BasicBlock ifFalse) {
+        emit(Op.BRANCH, null, null, condition);
+        IrFunction.link(current, ifTrue);
+        IrFunction.link(current, ifFalse);
+    }
+}
@@ -0,0 +1,207 @@
+package lox.ir;
+
+import lox.Environment;
+import lox.Expr;
+import lox.Interpreter;
+import lox.LoxFunction;
+import lox.LoxInstance;
+import lox.Values;
+import lox.jit.CompiledCode;
+import lox.jit.JitRuntime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Runs an optimized IrFunction that BytecodeLowering could not turn into a class, such as one too long for a JVM
+method. Values live in an array indexed by instruction id; a block runs its instructions in order and its
+terminator picks the edge to follow, which copies the values of the target's phis all at once.
+
+Property reads that were linked to an earlier read (by ValueNumbering or LoopInvariantCodeMotion) are guarded by
+an epoch: a counter that every instruction able to change a field or run Lox code advances. A read that found a
+field records the epoch it happened in, and a linked read reuses that value only while the epoch is unchanged;
+otherwise it reads the property like the tree-walker would.
+*/
+final class IrCode extends CompiledCode {
+    /*
+    The phi copies done when control moves to a block. They happen all at once, so when a source is itself one
+    of the phis being written, the sources are read into a scratch array first.
+    */
+    private record Edge(int target, int[] phis, int[] sources, boolean overlapping) {
+    }
+
+    private final Instruction[][] blocks;
+    private final Edge[][] edges;
+    // The values array every call starts from, with the constants already in place.
+    private final Object[] initialValues;
+    private final int maxPhis;
+    private final Environment globals;
+
+    IrCode(IrFunction function, Environment globals) {
+        this.initialValues = new Object[function.number()];
+        this.globals = globals;
+        this.blocks = new Instruction[function.blocks.size()][];
+        this.edges = new Edge[function.blocks.size()][];
+        int maxPhis = 0;
+        for (BasicBlock block : function.blocks) {
+            List<Instruction> code = new ArrayList<>();
+            for (Instruction instruction : block.instructions) {
+                if (instruction.op == Op.CONST) {
+                    initialValues[instruction.id] = instruction.payload;
+                    continue;
+                }
+                instruction.operands = ids(instruction.inputs);
+                code.add(instruction);
+            }
+            blocks[block.order] = code.toArray(new Instruction[0]);
+            edges[block.order] = new Edge[block.successors.size()];
+            for (int i = 0; i < block.successors.size(); i++) {
+                BasicBlock successor = block.successors.get(i);
+                int index = successor.predecessors.indexOf(block);
+                List<Instruction> sources = new ArrayList<>();
+                boolean overlapping = false;
+                for (Instruction phi : successor.phis) {
+                    sources.add(phi.input(index));
+                    overlapping |= successor.phis.contains(phi.input(index));
+                }
+                edges[block.order][i] = new Edge(successor.order, ids(successor.phis), ids(sources), overlapping);
+            }
+            maxPhis = Math.max(maxPhis, block.phis.size());
+        }
+        this.maxPhis = maxPhis;
+    }
+
+    @Override
+    public Object run(Interpreter interpreter, LoxInstance receiver, List<Object> arguments) {
+        Object[] values = initialValues.clone();
+        // The epoch in which each property read found a field, or 0.
+        int[] readEpochs = new int[values.length];
+        Object[] copies = null;
+        int epoch = 1;
+        int block = 0;
+        while (true) {
+            Edge next = null;
+            for (Instruction instruction : blocks[block]) {
+                int[] in = instruction.operands;
+                int id = instruction.id;
+                switch (instruction.op) {
+                    case PARAM -> values[id] = arguments.get((Integer) instruction.payload);
+                    case RECEIVER -> values[id] = receiver;
+                    case GLOBAL_GET -> values[id] = globals.get(instruction.token);
+                    case GLOBAL_SET -> globals.assign(instruction.token, values[in[0]]);
+                    case CHECK_NUMBER -> IrRuntime.checkNumber(values[in[0]], instruction.token,
+                            (String) instruction.payload);
+                    case CHECK_NONZERO -> IrRuntime.checkNonZero(values[in[0]], instruction.token,
+                            (String) instruction.payload);
+                    case CHECK_INSTANCE -> IrRuntime.checkInstance(values[in[0]], instruction.token,
+                            (String) instruction.payload);
+                    case ADD -> values[id] = JitRuntime.add(values[in[0]], values[in[1]], instruction.token);
+                    case ADD_NUM -> values[id] = IrRuntime.addNumbers(values[in[0]], values[in[1]]);
+                    case SUB_NUM -> values[id] = IrRuntime.subtractNumbers(values[in[0]], values[in[1]]);
+                    case MUL_NUM -> values[id] = IrRuntime.multiplyNumbers(values[in[0]], values[in[1]]);
+                    case DIV_NUM -> values[id] = IrRuntime.divideNumbers(values[in[0]], values[in[1]]);
+                    case NEG_NUM -> values[id] = IrRuntime.negateNumber(values[in[0]]);
+                    case LESS -> values[id] = IrRuntime.less(values[in[0]], values[in[1]]);
+                    case LESS_EQUAL -> values[id] = IrRuntime.lessEqual(values[in[0]], values[in[1]]);
+                    case GREATER -> values[id] = IrRuntime.greater(values[in[0]], values[in[1]]);
+                    case GREATER_EQUAL -> values[id] = IrRuntime.greaterEqual(values[in[0]], values[in[1]]);
+                    case EQUAL -> values[id] = JitRuntime.equal(values[in[0]], values[in[1]], null);
+                    case NOT_EQUAL -> values[id] = JitRuntime.notEqual(values[in[0]], values[in[1]], null);
+                    case NOT -> values[id] = JitRuntime.not(values[in[0]]);
+                    case GET_PROPERTY -> {
+                        Expr.Get get = (Expr.Get) instruction.payload;
+                        Object object = values[in[0]];
+                        if (in.length == 2 && readEpochs[in[1]] == epoch) {
+                            values[id] = values[in[1]];
+                            readEpochs[id] = epoch;
+                            continue;
+                        }
+                        Object field = interpreter.readField(get, object);
+                        if (field != Interpreter.NOT_A_FIELD) {
+                            values[id] = field;
+                            readEpochs[id] = epoch;
+                        } else {
+                            // A method or a getter; the getter may change fields.
+                            values[id] = interpreter.getProperty(get, object);
+                            readEpochs[id] = 0;
+                            epoch++;
+                        }
+                    }
+                    case READ_FIELD -> {
+                        Object field = interpreter.readField((Expr.Get) instruction.payload, values[in[0]]);
+                        values[id] = field;
+                        readEpochs[id] = field != Interpreter.NOT_A_FIELD ? epoch : 0;
+                    }
+                    case SET_PROPERTY -> {
+                        interpreter.setProperty((Expr.Set) instruction.payload, values[in[0]], values[in[1]]);
+                        epoch++;
+                    }
+                    case CALL, TAIL_CALL -> {
+                        Expr.Call call = (Expr.Call) instruction.payload;
+                        Object[] callArguments = arguments(values, in, 1);
+                        values[id] = instruction.op == Op.CALL
+                                ? IrRuntime.call(interpreter, call, values[in[0]], callArguments)
+                                : IrRuntime.tailCall(interpreter, call, values[in[0]], callArguments);
+                        epoch++;
+                    }
+                    case LOOKUP_METHOD -> {
+                        values[id] = IrRuntime.lookupMethod(interpreter, (Expr.Get) instruction.payload,
+                                values[in[0]]);
+                        if (!(values[id] instanceof LoxFunction)) {
+                            epoch++;
+                        }
+                    }
+                    case INVOKE, TAIL_INVOKE -> {
+                        Expr.Call call = (Expr.Call) instruction.payload;
+                        Object[] callArguments = arguments(values, in, 2);
+                        values[id] = instruction.op == Op.INVOKE
+                                ? IrRuntime.invoke(interpreter, call, values[in[0]], values[in[1]], callArguments)
+                                : IrRuntime.tailInvoke(interpreter, call, values[in[0]], values[in[1]], callArguments);
+                        epoch++;
+                    }
+                    case PRINT -> JitRuntime.print(values[in[0]]);
+                    case JUMP -> next = edges[block][0];
+                    case BRANCH -> next = edges[block][Values.isTruthy(values[in[0]]) ? 0 : 1];
+                    case RETURN -> {
+                        return values[in[0]];
+                    }
+                    case CONST, PHI -> throw new IllegalStateException("Not executed: " + instruction.op);
+                }
+            }
+            int[] phis = next.phis();
+            int[] sources = next.sources();
+            if (!next.overlapping()) {
+                for (int i = 0; i < phis.length; i++) {
+                    values[phis[i]] = values[sources[i]];
+                }
+            } else {
+                if (copies == null) {
+                    copies = new Object[maxPhis];
+                }
+                for (int i = 0; i < phis.length; i++) {
+                    copies[i] = values[sources[i]];
+                }
+                for (int i = 0; i < phis.length; i++) {
+                    values[phis[i]] = copies[i];
+                }
+            }
+            block = next.target();
+        }
+    }
+
+    private static Object[] arguments(Object[] values, int[] operands, int first) {
+        Object[] arguments = new Object[operands.length - first];
+        for (int i = first; i < operands.length; i++) {
+            arguments[i - first] = values[operands[i]];
+        }
+        return arguments;
+    }
+
+    private static int[] ids(List<Instruction> instructions) {
+        int[] ids = new int[instructions.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = instructions.get(i).id;
+        }
+        return ids;
+    }
+}
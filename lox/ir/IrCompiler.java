@@ -0,0 +1,95 @@
+package lox.ir;
+
+import lox.Environment;
+import lox.Stmt;
+import lox.Token;
+import lox.jit.CompiledCode;
+import lox.jit.Jit;
+
+import java.util.List;
+
+/*
+The optimizing tier for functions and methods. A hot function is translated to an SSA-form IR, optimized and run
+as JVM bytecode instead of the tree-walker:
+
+  1. IrBuilder         builds the control-flow graph in SSA form, with every type check as a separate guard.
+  2. CheckElimination  removes guards that dominating guards or the types of values already settle.
+  3. LoopInvariantCodeMotion  hoists loop-invariant values and speculates invariant property reads.
+  4. ValueNumbering    merges repeated computations and links repeated property reads.
+  5. DeadCodeElimination  removes what the other passes left unused.
+  6. BytecodeLowering  turns the result into a JVM class, like the JIT's; IrCode interprets what does not fit.
+
+Unlike the JIT, compilation happens on the calling thread, and it also covers methods, whose 'this.x' reads are
+what the property-read optimizations are for. Functions that create closures or classes stay in the tree-walker.
+*/
+public final class IrCompiler {
+    // A function is compiled once its calls plus loop iterations reach this count.
+    public static final int COMPILE_THRESHOLD = 100;
+
+    private static boolean enabled = false;
+    private static boolean dumping = false;
+
+    private IrCompiler() {
+    }
+
+    // With dumping on, every function is compiled on its first call and its IR is printed after every pass.
+    public static void enable(boolean dump) {
+        enabled = true;
+        dumping = dumping || dump;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static int threshold() {
+        return dumping ? 1 : COMPILE_THRESHOLD;
+    }
+
+    // Returns null if the function cannot be compiled.
+    public static CompiledCode compile(String name, List<Token> params, List<Stmt> body, int slotCount,
+                                       boolean isMethod, Environment globals) {
+        IrFunction function;
+        try {
+            function = IrBuilder.build(name, params, body, slotCount, isMethod);
+        } catch (IrBuilder.NotCompilable e) {
+            if (dumping) {
+                System.err.println("[ir] " + name + " stays in the interpreter: " + e.getMessage() + ".");
+            }
+            return null;
+        }
+        dump(function, "construction", function.instructionCount() + " instructions");
+        dump(function, "check elimination", CheckElimination.run(function));
+        dump(function, "loop-invariant code motion", LoopInvariantCodeMotion.run(function));
+        // Hoisting moves instructions between blocks but leaves the graph and its dominator tree as they were.
+        dump(function, "value numbering", ValueNumbering.run(function));
+        dump(function, "dead code elimination", DeadCodeElimination.run(function));
+        return lower(name, function, globals);
+    }
+
+    // Functions too big for one JVM method are interpreted by IrCode instead.
+    private static CompiledCode lower(String name, IrFunction function, Environment globals) {
+        String className = Jit.newClassName();
+        try {
+            BytecodeLowering.Generated generated = BytecodeLowering.lower(className.replace('.', '/'), function,
+                    globals);
+            CompiledCode code = Jit.load(className, generated.classFile(), generated.constants());
+            if (dumping) {
+                System.err.println("[ir] " + name + " lowered to " + generated.classFile().length
+                        + " bytes of bytecode");
+            }
+            return code;
+        } catch (BytecodeLowering.NotLowerable | ReflectiveOperationException | LinkageError e) {
+            if (dumping) {
+                System.err.println("[ir] " + name + " is interpreted: " + e.getMessage() + ".");
+            }
+            return new IrCode(function, globals);
+        }
+    }
+
+    private static void dump(IrFunction function, String stage, String summary) {
+        if (dumping) {
+            IrPrinter.print(function, stage, summary);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package lox.ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// The control-flow graph of one Lox function in SSA form.
+final class IrFunction {
+    final String name;
+    final List<BasicBlock> blocks = new ArrayList<>();
+    final BasicBlock entry;
+    private int nextBlockId = 0;
+
+    IrFunction(String name) {
+        this.name = name;
+        this.entry = newBlock();
+    }
+
+    BasicBlock newBlock() {
+        BasicBlock block = new BasicBlock(nextBlockId++);
+        blocks.add(block);
+        return block;
+    }
+
+    static void link(BasicBlock from, BasicBlock to) {
+        from.successors.add(to);
+        to.predecessors.add(from);
+    }
+
+    /*
+    Drops the blocks that cannot be reached (the code after a return, break or continue), orders the rest in
+    reverse postorder and computes the dominator tree, using the iterative algorithm of Cooper, Harvey and
+    Kennedy.
+    */
+    void computeDominators() {
+        List<BasicBlock> order = new ArrayList<>();
+        postorder(entry, new HashSet<>(), order);
+        Collections.reverse(order);
+
+        Set<BasicBlock> reachable = new HashSet<>(order);
+        for (BasicBlock block : blocks) {
+            if (!reachable.contains(block)) {
+                for (BasicBlock successor : block.successors) {
+                    removePredecessor(successor, block);
+                }
+            }
+        }
+        blocks.clear();
+        blocks.addAll(order);
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock block = blocks.get(i);
+            block.order = i;
+            block.dominator = null;
+            block.dominated.clear();
+        }
+
+        entry.dominator = entry;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : blocks) {
+                if (block == entry) {
+                    continue;
+                }
+                BasicBlock idom = null;
+                for (BasicBlock predecessor : block.predecessors) {
+                    if (predecessor.dominator != null) {
+                        idom = idom == null ? predecessor : intersect(predecessor, idom);
+                    }
+                }
+                if (idom != block.dominator) {
+                    block.dominator = idom;
+                    changed = true;
+                }
+            }
+        }
+        for (BasicBlock block : blocks) {
+            if (block != entry) {
+                block.dominator.dominated.add(block);
+            }
+        }
+    }
+
+    boolean dominates(BasicBlock dominator, BasicBlock block) {
+        while (block != dominator) {
+            if (block == entry) {
+                return false;
+            }
+            block = block.dominator;
+        }
+        return true;
+    }
+
+    // Points every use of a key at its value. The replaced instructions are left for the caller to remove.
+    void replaceUses(Map<Instruction, Instruction> replacements) {
+        if (replacements.isEmpty()) {
+            return;
+        }
+        for (BasicBlock block : blocks) {
+            replaceInputs(block.phis, replacements);
+            replaceInputs(block.instructions, replacements);
+        }
+    }
+
+    // Gives the instructions consecutive ids, which the runtime uses to index its value array.
+    int number() {
+        int id = 0;
+        for (BasicBlock block : blocks) {
+            for (Instruction phi : block.phis) {
+                phi.id = id++;
+            }
+            for (Instruction instruction : block.instructions) {
+                instruction.id = id++;
+            }
+        }
+        return id;
+    }
+
+    int instructionCount() {
+        int count = 0;
+        for (BasicBlock block : blocks) {
+            count += block.phis.size() + block.instructions.size();
+        }
+        return count;
+    }
+
+    private static void replaceInputs(List<Instruction> instructions, Map<Instruction, Instruction> replacements) {
+        for (Instruction instruction : instructions) {
+            List<Instruction> inputs = instruction.inputs;
+            for (int i = 0; i < inputs.size(); i++) {
+                Instruction replacement = replacements.get(inputs.get(i));
+                // Replacements can be chained, when a value is replaced by one that is itself replaced.
+                while (replacement != null) {
+                    inputs.set(i, replacement);
+                    replacement = replacements.get(replacement);
+                }
+            }
+        }
+    }
+
+    private static void removePredecessor(BasicBlock block, BasicBlock predecessor) {
+        int index = block.predecessors.indexOf(predecessor);
+        if (index == -1) {
+            return;
+        }
+        block.predecessors.remove(index);
+        for (Instruction phi : block.phis) {
+            phi.inputs.remove(index);
+        }
+    }
+
+    private static void postorder(BasicBlock block, Set<BasicBlock> visited, List<BasicBlock> order) {
+        visited.add(block);
+        for (BasicBlock successor : block.successors) {
+            if (!visited.contains(successor)) {
+                postorder(successor, visited, order);
+            }
+        }
+        order.add(block);
+    }
+
+    private static BasicBlock intersect(BasicBlock a, BasicBlock b) {
+        while (a != b) {
+            while (a.order > b.order) {
+                a = a.dominator;
+            }
+            while (b.order > a.order) {
+                b = b.dominator;
+            }
+        }
+        return a;
+    }
+}
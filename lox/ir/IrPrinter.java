@@ -0,0 +1,71 @@
+package lox.ir;
+
+import lox.Expr;
+
+import java.util.StringJoiner;
+
+// Writes the IR of a function to stderr, for --ir-dump.
+final class IrPrinter {
+    private IrPrinter() {
+    }
+
+    static void print(IrFunction function, String stage, String summary) {
+        function.number();
+        StringBuilder out = new StringBuilder();
+        out.append("[ir] ").append(function.name).append(" after ").append(stage);
+        if (summary != null) {
+            out.append(" (").append(summary).append(")");
+        }
+        out.append('\n');
+        for (BasicBlock block : function.blocks) {
+            out.append(block).append(" <- ").append(join(block.predecessors)).append(":\n");
+            for (Instruction phi : block.phis) {
+                line(out, phi);
+            }
+            for (Instruction instruction : block.instructions) {
+                line(out, instruction);
+            }
+        }
+        System.err.print(out);
+    }
+
+    private static void line(StringBuilder out, Instruction instruction) {
+        out.append("  ");
+        if (instruction.op.kind != Op.Kind.GUARD && !instruction.op.isTerminator() && instruction.op != Op.PRINT
+                && instruction.op != Op.GLOBAL_SET) {
+            out.append(instruction).append(" = ");
+        }
+        out.append(instruction.op.text);
+        if (!instruction.inputs.isEmpty()) {
+            out.append(' ').append(join(instruction.inputs));
+        }
+        if (instruction.op == Op.JUMP || instruction.op == Op.BRANCH) {
+            out.append(" -> ").append(join(instruction.block.successors));
+        }
+        String payload = payload(instruction);
+        if (payload != null) {
+            out.append(" ; ").append(payload);
+        }
+        out.append('\n');
+    }
+
+    private static String payload(Instruction instruction) {
+        return switch (instruction.op) {
+            case CONST -> instruction.payload instanceof String text ? '"' + text + '"'
+                    : String.valueOf(instruction.payload);
+            case PARAM -> String.valueOf(instruction.payload);
+            case GLOBAL_GET, GLOBAL_SET -> instruction.token.lexeme();
+            case GET_PROPERTY, READ_FIELD, LOOKUP_METHOD -> ((Expr.Get) instruction.payload).name.lexeme();
+            case SET_PROPERTY -> ((Expr.Set) instruction.payload).name.lexeme();
+            default -> null;
+        };
+    }
+
+    private static String join(Iterable<?> values) {
+        StringJoiner joiner = new StringJoiner(", ");
+        for (Object value : values) {
+            joiner.add(value.toString());
+        }
+        return joiner.toString();
+    }
+}
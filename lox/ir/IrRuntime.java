@@ -0,0 +1,119 @@
+package lox.ir;
+
+import lox.Expr;
+import lox.Interpreter;
+import lox.LoxFunction;
+import lox.LoxInstance;
+import lox.Token;
+import lox.exceptions.RuntimeError;
+
+import java.util.Arrays;
+
+/*
+Operations of the IR that both backends share: IrCode calls them directly and the classes BytecodeLowering
+generates call them from their run() methods. The numeric operations are total, as the IR expects (see Op); the
+guards throw the tree-walker's errors.
+*/
+public final class IrRuntime {
+    // A property that is called but is not a method: a field holding a function, or the result of a getter.
+    private record PropertyCallee(Object value) {
+    }
+
+    private IrRuntime() {
+    }
+
+    ////////////////////////////////// GUARDS //////////////////////////////////
+
+    public static void checkNumber(Object value, Token token, String message) {
+        if (!(value instanceof Double)) {
+            throw new RuntimeError(token, message);
+        }
+    }
+
+    // Only reached once the value has been checked to be a number.
+    public static void checkNonZero(Object value, Token token, String message) {
+        if ((double) value == 0.0) {
+            throw new RuntimeError(token, message);
+        }
+    }
+
+    public static void checkInstance(Object value, Token token, String message) {
+        if (!(value instanceof LoxInstance)) {
+            throw new RuntimeError(token, message);
+        }
+    }
+
+    ////////////////////////////////// NUMBERS //////////////////////////////////
+
+    public static Object addNumbers(Object left, Object right) {
+        return left instanceof Double l && right instanceof Double r ? (Object) (l + r) : null;
+    }
+
+    public static Object subtractNumbers(Object left, Object right) {
+        return left instanceof Double l && right instanceof Double r ? (Object) (l - r) : null;
+    }
+
+    public static Object multiplyNumbers(Object left, Object right) {
+        return left instanceof Double l && right instanceof Double r ? (Object) (l * r) : null;
+    }
+
+    public static Object divideNumbers(Object left, Object right) {
+        return left instanceof Double l && right instanceof Double r ? (Object) (l / r) : null;
+    }
+
+    public static Object negateNumber(Object operand) {
+        return operand instanceof Double number ? (Object) (-number) : null;
+    }
+
+    public static Object less(Object left, Object right) {
+        return left instanceof Double l && right instanceof Double r ? (Object) (l < r) : null;
+    }
+
+    public static Object lessEqual(Object left, Object right) {
+        return left instanceof Double l && right instanceof Double r ? (Object) (l <= r) : null;
+    }
+
+    public static Object greater(Object left, Object right) {
+        return left instanceof Double l && right instanceof Double r ? (Object) (l > r) : null;
+    }
+
+    public static Object greaterEqual(Object left, Object right) {
+        return left instanceof Double l && right instanceof Double r ? (Object) (l >= r) : null;
+    }
+
+    ////////////////////////////////// CALLS //////////////////////////////////
+
+    // The method obj.name(...) invokes, or a wrapper around the property's value when it is not a method.
+    // Only the latter can have run Lox code, which callers tell apart by checking for a LoxFunction.
+    public static Object lookupMethod(Interpreter interpreter, Expr.Get get, Object object) {
+        LoxFunction method = interpreter.methodToInvoke(get, object);
+        if (method == null) {
+            return new PropertyCallee(interpreter.getProperty(get, object));
+        }
+        return method;
+    }
+
+    public static Object invoke(Interpreter interpreter, Expr.Call call, Object method, Object receiver,
+                                Object[] arguments) {
+        if (method instanceof PropertyCallee callee) {
+            return interpreter.callValue(call, callee.value(), Arrays.asList(arguments));
+        }
+        return interpreter.invoke(call, (LoxFunction) method, receiver, Arrays.asList(arguments));
+    }
+
+    public static Object call(Interpreter interpreter, Expr.Call call, Object callee, Object[] arguments) {
+        return interpreter.callValue(call, callee, Arrays.asList(arguments));
+    }
+
+    public static Object tailInvoke(Interpreter interpreter, Expr.Call call, Object method, Object receiver,
+                                    Object[] arguments) {
+        if (method instanceof PropertyCallee callee) {
+            return interpreter.tailCallValue(call, callee.value(), Arrays.asList(arguments));
+        }
+        return interpreter.tailInvoke(call, (LoxFunction) method, receiver, Arrays.asList(arguments));
+    }
+
+    public static Object tailCall(Interpreter interpreter, Expr.Call call, Object callee, Object[] arguments) {
+        return interpreter.tailCallValue(call, callee, Arrays.asList(arguments));
+    }
+}
@@ -0,0 +1,145 @@
+package lox.ir;
+
+import lox.Expr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+Moves computations that give the same result on every iteration out of loops, into the block that enters the
+loop. Pure instructions whose inputs are all defined outside the loop move as they are: they never fail, so
+computing them when the loop body would not have is harmless, and the checks guarding their operands stay in
+the loop. Inner loops are handled first, so an invariant can travel out through several levels.
+
+Guards of invariant values move too when they come first in the loop header, ahead of anything with an effect:
+the header runs whenever the loop is entered, so such a guard fails at the same point either way.
+
+A property read of an object defined outside the loop gets a speculative READ_FIELD in front of the loop, if the
+loop contains nothing that could write a field. The read in the loop reuses that value for as long as the
+runtime can tell that no field has changed since (see IrCode).
+*/
+final class LoopInvariantCodeMotion {
+    private record Loop(BasicBlock header, Set<BasicBlock> blocks) {
+    }
+
+    private int hoisted = 0;
+    private int speculated = 0;
+
+    // Returns a summary for the dump.
+    static String run(IrFunction function) {
+        LoopInvariantCodeMotion pass = new LoopInvariantCodeMotion();
+        List<Loop> loops = findLoops(function);
+        loops.sort(Comparator.comparingInt(loop -> loop.blocks().size()));
+        for (Loop loop : loops) {
+            pass.hoist(loop);
+        }
+        return pass.hoisted + " instructions hoisted, " + pass.speculated + " property reads speculated";
+    }
+
+    private void hoist(Loop loop) {
+        BasicBlock preheader = preheader(loop);
+        if (preheader == null) {
+            return;
+        }
+        boolean writesFields = false;
+        List<BasicBlock> blocks = new ArrayList<>(loop.blocks());
+        blocks.sort(Comparator.comparingInt(block -> block.order));
+        for (BasicBlock block : blocks) {
+            for (Instruction instruction : block.instructions) {
+                writesFields |= instruction.op.mayWriteFields() && instruction.op != Op.GET_PROPERTY;
+            }
+        }
+
+        // One speculative read per object and name serves every read of it in the loop.
+        Map<List<Object>, Instruction> reads = new HashMap<>();
+        for (BasicBlock block : blocks) {
+            boolean leading = block == loop.header();
+            List<Instruction> kept = new ArrayList<>(block.instructions.size());
+            for (Instruction instruction : block.instructions) {
+                boolean invariant = isInvariant(instruction.inputs, loop);
+                if (invariant && (instruction.op.isPure() || leading && instruction.op.kind == Op.Kind.GUARD)) {
+                    preheader.insertBeforeTerminator(instruction);
+                    hoisted++;
+                    continue;
+                }
+                leading &= instruction.op.isPure();
+                // Getters run Lox code, but reads that turn out to call one advance the epoch at runtime.
+                if (instruction.op == Op.GET_PROPERTY && !writesFields && instruction.inputs.size() == 1
+                        && invariant) {
+                    List<Object> key = List.of(instruction.input(0), ((Expr.Get) instruction.payload).name.lexeme());
+                    Instruction read = reads.get(key);
+                    if (read == null) {
+                        read = new Instruction(Op.READ_FIELD, instruction.payload, null, instruction.input(0));
+                        preheader.insertBeforeTerminator(read);
+                        reads.put(key, read);
+                        speculated++;
+                    }
+                    instruction.inputs.add(read);
+                }
+                kept.add(instruction);
+            }
+            block.instructions.clear();
+            block.instructions.addAll(kept);
+        }
+    }
+
+    private static boolean isInvariant(List<Instruction> inputs, Loop loop) {
+        for (Instruction input : inputs) {
+            if (loop.blocks().contains(input.block)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The single block outside the loop that enters it, if it does nothing but enter it.
+    private static BasicBlock preheader(Loop loop) {
+        BasicBlock preheader = null;
+        for (BasicBlock predecessor : loop.header().predecessors) {
+            if (!loop.blocks().contains(predecessor)) {
+                if (preheader != null) {
+                    return null;
+                }
+                preheader = predecessor;
+            }
+        }
+        return preheader != null && preheader.successors.size() == 1 ? preheader : null;
+    }
+
+    // Natural loops: an edge to a block that dominates its source closes a loop. Loops sharing a header merge.
+    private static List<Loop> findLoops(IrFunction function) {
+        Map<BasicBlock, Set<BasicBlock>> bodies = new HashMap<>();
+        for (BasicBlock block : function.blocks) {
+            for (BasicBlock successor : block.successors) {
+                if (function.dominates(successor, block)) {
+                    Set<BasicBlock> body = bodies.computeIfAbsent(successor, header -> {
+                        Set<BasicBlock> blocks = new HashSet<>();
+                        blocks.add(header);
+                        return blocks;
+                    });
+                    Deque<BasicBlock> work = new ArrayDeque<>();
+                    if (body.add(block)) {
+                        work.push(block);
+                    }
+                    while (!work.isEmpty()) {
+                        for (BasicBlock predecessor : work.pop().predecessors) {
+                            if (body.add(predecessor)) {
+                                work.push(predecessor);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        List<Loop> loops = new ArrayList<>();
+        bodies.forEach((header, blocks) -> loops.add(new Loop(header, blocks)));
+        return loops;
+    }
+}
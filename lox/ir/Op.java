@@ -0,0 +1,82 @@
+package lox.ir;
+
+/*
+The instructions of the IR. Type checks are separate guard instructions, so the arithmetic behind them is total:
+a numeric operation given something other than numbers yields nil instead of failing. That is what lets passes
+move arithmetic freely while every check stays where the tree-walker would fail.
+*/
+enum Op {
+    // Values
+    CONST("const", Kind.PURE),
+    PARAM("param", Kind.FIXED),
+    RECEIVER("receiver", Kind.FIXED),
+    PHI("phi", Kind.FIXED),
+    GLOBAL_GET("global.get", Kind.EFFECT),
+    GLOBAL_SET("global.set", Kind.EFFECT),
+
+    // Guards: fail with the tree-walker's error, or do nothing
+    CHECK_NUMBER("check.number", Kind.GUARD),
+    CHECK_NONZERO("check.nonzero", Kind.GUARD),
+    CHECK_INSTANCE("check.instance", Kind.GUARD),
+
+    // Operators
+    ADD("add", Kind.EFFECT), // Numbers or strings; fails otherwise.
+    ADD_NUM("add.num", Kind.PURE),
+    SUB_NUM("sub.num", Kind.PURE),
+    MUL_NUM("mul.num", Kind.PURE),
+    DIV_NUM("div.num", Kind.PURE),
+    NEG_NUM("neg.num", Kind.PURE),
+    LESS("less", Kind.PURE),
+    LESS_EQUAL("less.equal", Kind.PURE),
+    GREATER("greater", Kind.PURE),
+    GREATER_EQUAL("greater.equal", Kind.PURE),
+    EQUAL("equal", Kind.PURE),
+    NOT_EQUAL("not.equal", Kind.PURE),
+    NOT("not", Kind.PURE),
+
+    // Objects and calls
+    GET_PROPERTY("get", Kind.EFFECT),
+    READ_FIELD("read.field", Kind.FIXED), // Speculative: never fails or runs code.
+    SET_PROPERTY("set", Kind.EFFECT),
+    CALL("call", Kind.EFFECT),
+    LOOKUP_METHOD("method", Kind.EFFECT),
+    INVOKE("invoke", Kind.EFFECT),
+    TAIL_CALL("tail.call", Kind.EFFECT), // Like CALL and INVOKE, but a call of a Lox function is left pending.
+    TAIL_INVOKE("tail.invoke", Kind.EFFECT),
+    PRINT("print", Kind.EFFECT),
+
+    // Terminators
+    JUMP("jump", Kind.TERMINATOR),
+    BRANCH("branch", Kind.TERMINATOR),
+    RETURN("return", Kind.TERMINATOR);
+
+    enum Kind {
+        PURE,       // Depends only on its inputs, never fails, has no effect: can be moved, merged or removed.
+        FIXED,      // Has no effect but has to stay where it is.
+        GUARD,      // May fail; otherwise has no effect and no value.
+        EFFECT,     // May fail, run Lox code or change state.
+        TERMINATOR
+    }
+
+    final String text;
+    final Kind kind;
+
+    Op(String text, Kind kind) {
+        this.text = text;
+        this.kind = kind;
+    }
+
+    boolean isPure() {
+        return kind == Kind.PURE;
+    }
+
+    boolean isTerminator() {
+        return kind == Kind.TERMINATOR;
+    }
+
+    // Whether the instruction can change a field or run Lox code that could.
+    boolean mayWriteFields() {
+        return this == SET_PROPERTY || this == CALL || this == LOOKUP_METHOD || this == INVOKE
+                || this == TAIL_CALL || this == TAIL_INVOKE || this == GET_PROPERTY;
+    }
+}
@@ -0,0 +1,93 @@
+package lox.ir;
+
+import lox.Expr;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Global value numbering over the dominator tree: a pure instruction that computes the same operation on the same
+inputs as one that dominates it is replaced by that one. Constants are merged by value.
+
+Repeated property reads of the same object and name, such as this.x in a method, are linked instead of merged:
+the later read names the closest earlier one as its source and takes its value at runtime, unless a store, a call or a
+getter may have changed a field in between (see IrCode).
+*/
+final class ValueNumbering {
+    private final Map<Instruction, Instruction> replacements = new IdentityHashMap<>();
+    private int merged = 0;
+    private int linked = 0;
+
+    // Returns a summary for the dump.
+    static String run(IrFunction function) {
+        ValueNumbering pass = new ValueNumbering();
+        pass.walk(function.entry, new HashMap<>());
+        function.replaceUses(pass.replacements);
+        for (BasicBlock block : function.blocks) {
+            block.instructions.removeIf(pass.replacements::containsKey);
+        }
+        return pass.merged + " values merged, " + pass.linked + " property reads linked";
+    }
+
+    private void walk(BasicBlock block, Map<List<Object>, Instruction> available) {
+        for (Instruction instruction : block.instructions) {
+            if (instruction.op.isPure()) {
+                List<Object> key = key(instruction);
+                Instruction existing = available.get(key);
+                if (existing != null) {
+                    replacements.put(instruction, existing);
+                    merged++;
+                } else {
+                    available.put(key, instruction);
+                }
+            } else if (instruction.op == Op.GET_PROPERTY || instruction.op == Op.READ_FIELD) {
+                List<Object> key = List.of(Op.GET_PROPERTY, resolve(instruction.input(0)),
+                        ((Expr.Get) instruction.payload).name.lexeme());
+                Instruction existing = available.get(key);
+                if (existing != null && instruction.op == Op.GET_PROPERTY && instruction.inputs.size() == 1) {
+                    instruction.inputs.add(existing);
+                    linked++;
+                }
+                // Later reads link to the latest one, which still holds after a store has made earlier ones stale.
+                available.put(key, instruction);
+            }
+        }
+        for (BasicBlock child : block.dominated) {
+            walk(child, new HashMap<>(available));
+        }
+    }
+
+    private List<Object> key(Instruction instruction) {
+        List<Object> key = new ArrayList<>();
+        key.add(instruction.op);
+        if (instruction.op == Op.CONST) {
+            Object value = instruction.payload;
+            key.add(value == null ? Void.class : value.getClass());
+            key.add(value == null ? Void.class : value);
+            return key;
+        }
+        List<Instruction> inputs = new ArrayList<>();
+        for (Instruction input : instruction.inputs) {
+            inputs.add(resolve(input));
+        }
+        // Operand order does not matter for these, so a + b and b + a get the same number.
+        if (isCommutative(instruction.op) && inputs.size() == 2
+                && System.identityHashCode(inputs.get(0)) > System.identityHashCode(inputs.get(1))) {
+            inputs = List.of(inputs.get(1), inputs.get(0));
+        }
+        key.addAll(inputs);
+        return key;
+    }
+
+    private Instruction resolve(Instruction value) {
+        Instruction replacement = replacements.get(value);
+        return replacement == null ? value : replacement;
+    }
+
+    private static boolean isCommutative(Op op) {
+        return op == Op.ADD_NUM || op == Op.MUL_NUM || op == Op.EQUAL || op == Op.NOT_EQUAL;
+    }
+}
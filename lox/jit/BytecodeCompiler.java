@@ -0,0 +1,421 @@
+package lox.jit;
+
+import lox.Environment;
+import lox.Expr;
+import lox.Stmt;
+import lox.Token;
+import lox.TokenType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Translates the body of one Lox function into the run() method of a CompiledCode subclass.
+Every Lox local becomes a JVM local holding an Object, globals go through the global Environment, and
+operators call JitRuntime. Functions that create closures, declare classes, touch instances or read
+variables of an enclosing function are rejected and stay in the tree-walker.
+*/
+final class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final String OBJECT = "java/lang/Object";
+    private static final String TOKEN = "lox/Token";
+    private static final String ENVIRONMENT = "lox/Environment";
+    private static final String RUNTIME = "lox/jit/JitRuntime";
+    private static final String VALUES = "lox/Values";
+    private static final String COMPILED_CODE = "lox/jit/CompiledCode";
+    private static final String OPERATOR = "(Ljava/lang/Object;Ljava/lang/Object;Llox/Token;)Ljava/lang/Object;";
+    private static final String RUN = "(Llox/Interpreter;Llox/LoxInstance;Ljava/util/List;)Ljava/lang/Object;";
+
+    private static final int INTERPRETER_LOCAL = 1;
+    private static final int ARGUMENTS_LOCAL = 3; // Local 2 holds the receiver, which functions do not use.
+    private static final int FIRST_LOCAL = 4;
+    private static final int MAX_LOCALS = 256;
+
+    static final class NotCompilable extends RuntimeException {
+        NotCompilable(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    // The class file and the constants its constructor expects.
+    record Generated(byte[] classFile, Object[] constants) {
+    }
+
+    private record Loop(MethodWriter.Label start, MethodWriter.Label end) {
+    }
+
+    private final MethodWriter method;
+    private final Environment globals;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndexes = new IdentityHashMap<>();
+    private final Deque<Loop> loops = new ArrayDeque<>();
+
+    private BytecodeCompiler(MethodWriter method, Environment globals) {
+        this.method = method;
+        this.globals = globals;
+    }
+
+    static Generated compile(String className, List<Token> params, List<Stmt> body, int slotCount,
+                             Environment globals) {
+        ClassWriter classWriter = new ClassWriter(className, COMPILED_CODE);
+
+        MethodWriter constructor = classWriter.addMethod(ClassWriter.ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V");
+        constructor.loadLocal(0);
+        constructor.loadLocal(1);
+        constructor.invokeSpecial(COMPILED_CODE, "<init>", "([Ljava/lang/Object;)V");
+        constructor.op(MethodWriter.RETURN, 0);
+
+        MethodWriter run = classWriter.addMethod(ClassWriter.ACC_PUBLIC, "run", RUN);
+        BytecodeCompiler compiler = new BytecodeCompiler(run, globals);
+        compiler.compileBody(params, body, slotCount);
+        if (run.length() > MethodWriter.MAX_CODE_LENGTH) {
+            throw new NotCompilable("the function is too long");
+        }
+        return new Generated(classWriter.toByteArray(), compiler.constants.toArray());
+    }
+
+    private void compileBody(List<Token> params, List<Stmt> body, int slotCount) {
+        if (FIRST_LOCAL + slotCount > MAX_LOCALS) {
+            throw new NotCompilable("it has too many locals");
+        }
+        // The parameters take the first slots of the function's scope.
+        for (int i = 0; i < params.size(); i++) {
+            method.loadLocal(ARGUMENTS_LOCAL);
+            method.pushInt(i);
+            method.invokeInterface("java/util/List", "get", "(I)Ljava/lang/Object;");
+            method.storeLocal(FIRST_LOCAL + i);
+        }
+        compile(body);
+        method.op(MethodWriter.ACONST_NULL, 1);
+        method.op(MethodWriter.ARETURN, -1);
+    }
+
+    /////////////////////////////// STATEMENTS ////////////////////////////////////////
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        compile(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new NotCompilable("it declares a class");
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        // A for loop with an initializer but no increment desugars to an empty expression statement.
+        if (stmt.expression != null) {
+            compile(stmt.expression);
+            method.op(MethodWriter.POP, -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new NotCompilable("it declares a nested function");
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        MethodWriter.Label elseBranch = method.newLabel();
+        MethodWriter.Label end = method.newLabel();
+        compileCondition(stmt.condition);
+        method.jump(MethodWriter.IFEQ, elseBranch);
+        compile(stmt.thenBranch);
+        method.jump(MethodWriter.GOTO, end);
+        method.place(elseBranch);
+        if (stmt.elseBranch != null) {
+            compile(stmt.elseBranch);
+        }
+        method.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        method.invokeStatic(RUNTIME, "print", "(Ljava/lang/Object;)V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.isTailCall) {
+            compileCall((Expr.Call) stmt.value, "tailCall");
+        } else if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            method.op(MethodWriter.ACONST_NULL, 1);
+        }
+        method.op(MethodWriter.ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            method.op(MethodWriter.ACONST_NULL, 1);
+        }
+        method.storeLocal(local(0, stmt.slot));
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Loop loop = new Loop(method.newLabel(), method.newLabel());
+        method.place(loop.start());
+        compileCondition(stmt.condition);
+        method.jump(MethodWriter.IFEQ, loop.end());
+        loops.push(loop);
+        compile(stmt.body);
+        loops.pop();
+        method.jump(MethodWriter.GOTO, loop.start());
+        method.place(loop.end());
+        return null;
+    }
+
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        throw new NotCompilable("it has a for-in loop");
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        throw new NotCompilable("it is a generator");
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        method.jump(MethodWriter.GOTO, loops.peek().end());
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        // Like the Interpreter, continue skips the rest of the body, including a for loop's increment.
+        method.jump(MethodWriter.GOTO, loops.peek().start());
+        return null;
+    }
+
+    ////////////////////////////////// EXPRESSIONS /////////////////////////////////////////////
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        if (expr.depth == -1) {
+            loadConstant(globals, ENVIRONMENT);
+            loadConstant(expr.name, TOKEN);
+            method.invokeStatic(RUNTIME, "assignGlobal",
+                    "(Ljava/lang/Object;Llox/Environment;Llox/Token;)Ljava/lang/Object;");
+        } else {
+            method.op(MethodWriter.DUP, 1);
+            method.storeLocal(local(expr.depth, expr.slot));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compileOperator(expr.left, expr.operator, expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryRPNExpr(Expr.BinaryRPN expr) {
+        compileOperator(expr.left, expr.operator, expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compileCall(expr, "call");
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        throw new NotCompilable("it reads a property");
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            method.op(MethodWriter.ACONST_NULL, 1);
+        } else if (expr.value instanceof Boolean value) {
+            method.getStatic("java/lang/Boolean", value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+        } else {
+            loadConstant(expr.value, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        MethodWriter.Label end = method.newLabel();
+        compile(expr.left);
+        method.op(MethodWriter.DUP, 1);
+        method.invokeStatic(VALUES, "isTruthy", "(Ljava/lang/Object;)Z");
+        // The left operand is the result if it already decides the outcome.
+        method.jump(expr.operator.tokenType() == TokenType.OR ? MethodWriter.IFNE : MethodWriter.IFEQ, end);
+        method.op(MethodWriter.POP, -1);
+        compile(expr.right);
+        method.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        throw new NotCompilable("it writes a property");
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        throw new NotCompilable("it uses 'super'");
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        throw new NotCompilable("it uses 'this'");
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        if (expr.operator.tokenType() == TokenType.MINUS) {
+            loadConstant(expr.operator, TOKEN);
+            method.invokeStatic(RUNTIME, "negate", "(Ljava/lang/Object;Llox/Token;)Ljava/lang/Object;");
+        } else {
+            method.invokeStatic(RUNTIME, "not", "(Ljava/lang/Object;)Ljava/lang/Object;");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        MethodWriter.Label elseBranch = method.newLabel();
+        MethodWriter.Label end = method.newLabel();
+        compileCondition(expr.condition);
+        method.jump(MethodWriter.IFEQ, elseBranch);
+        compile(expr.thenBranch);
+        method.jump(MethodWriter.GOTO, end);
+        method.place(elseBranch);
+        compile(expr.elseBranch);
+        method.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth == -1) {
+            loadConstant(globals, ENVIRONMENT);
+            loadConstant(expr.name, TOKEN);
+            method.invokeVirtual(ENVIRONMENT, "get", "(Llox/Token;)Ljava/lang/Object;");
+        } else {
+            method.loadLocal(local(expr.depth, expr.slot));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLambdaExpr(Expr.Lambda expr) {
+        throw new NotCompilable("it creates a lambda");
+    }
+
+    ///////////////////////////////   HELPER METHODS   ////////////////////////////////
+
+    private void compile(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    // Leaves an int on the stack: nonzero if the condition is truthy.
+    private void compileCondition(Expr condition) {
+        compile(condition);
+        method.invokeStatic(VALUES, "isTruthy", "(Ljava/lang/Object;)Z");
+    }
+
+    private void compileOperator(Expr left, Token operator, Expr right) {
+        String helper = switch (operator.tokenType()) {
+            case PLUS -> "add";
+            case MINUS -> "subtract";
+            case STAR -> "multiply";
+            case SLASH -> "divide";
+            case GREATER -> "greater";
+            case GREATER_EQUAL -> "greaterEqual";
+            case LESS -> "less";
+            case LESS_EQUAL -> "lessEqual";
+            case EQUAL_EQUAL -> "equal";
+            case BANG_EQUAL -> "notEqual";
+            default -> throw new NotCompilable("it uses the operator " + operator.lexeme());
+        };
+        compile(left);
+        compile(right);
+        loadConstant(operator, TOKEN);
+        method.invokeStatic(RUNTIME, helper, OPERATOR);
+    }
+
+    // The helper is JitRuntime's call or tailCall.
+    private void compileCall(Expr.Call expr, String helper) {
+        compile(expr.callee);
+        method.pushInt(expr.arguments.size());
+        method.typeInstruction(MethodWriter.ANEWARRAY, OBJECT);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            method.op(MethodWriter.DUP, 1);
+            method.pushInt(i);
+            compile(expr.arguments.get(i));
+            method.op(MethodWriter.AASTORE, -3);
+        }
+        method.loadLocal(INTERPRETER_LOCAL);
+        loadConstant(expr.paren, TOKEN);
+        method.invokeStatic(RUNTIME, helper,
+                "(Ljava/lang/Object;[Ljava/lang/Object;Llox/Interpreter;Llox/Token;)Ljava/lang/Object;");
+    }
+
+    private void loadConstant(Object value, String type) {
+        Integer index = constantIndexes.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndexes.put(value, index);
+        }
+        method.loadLocal(0);
+        method.getField(COMPILED_CODE, "constants", "[Ljava/lang/Object;");
+        method.pushInt(index);
+        method.op(MethodWriter.AALOAD, -1);
+        if (type != null) {
+            method.typeInstruction(MethodWriter.CHECKCAST, type);
+        }
+    }
+
+    // Maps a resolved local to its JVM local.
+    // Every slot of the function's frame has a JVM local of its own.
+    private int local(int depth, int slot) {
+        if (depth != 0) {
+            throw new NotCompilable("it uses variables of an enclosing function");
+        }
+        return FIRST_LOCAL + slot;
+    }
+}
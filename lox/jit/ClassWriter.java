@@ -0,0 +1,149 @@
+package lox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Just enough of the class file format to describe one generated class: a constant pool with class, member and
+string entries, and methods with a Code attribute. Classes are written as version 49 (Java 5), which the JVM
+still verifies by type inference, so no StackMapTable has to be computed.
+*/
+public final class ClassWriter {
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    private static final int CLASS_FILE_VERSION = 49;
+
+    private static final byte CONSTANT_UTF8 = 1;
+    private static final byte CONSTANT_CLASS = 7;
+    private static final byte CONSTANT_FIELD_REF = 9;
+    private static final byte CONSTANT_METHOD_REF = 10;
+    private static final byte CONSTANT_INTERFACE_METHOD_REF = 11;
+    private static final byte CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndexes = new HashMap<>();
+    private int poolCount = 1;
+
+    private final String name;
+    private final String superName;
+    private final List<MethodWriter> methods = new ArrayList<>();
+
+    // Names are internal names, such as "lox/jit/CompiledCode".
+    public ClassWriter(String name, String superName) {
+        this.name = name;
+        this.superName = superName;
+    }
+
+    public MethodWriter addMethod(int access, String methodName, String descriptor) {
+        MethodWriter method = new MethodWriter(this, access, methodName, descriptor);
+        methods.add(method);
+        return method;
+    }
+
+    public byte[] toByteArray() {
+        try {
+            int thisClass = classRef(name);
+            int superClass = classRef(superName);
+            // Intern every name the methods need before the pool is written out.
+            for (MethodWriter method : methods) {
+                method.prepare();
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_FILE_VERSION);
+            out.writeShort(poolCount);
+            poolOut.flush();
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for (MethodWriter method : methods) {
+                method.write(out);
+            }
+            out.writeShort(0); // attributes
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Writing to a byte array cannot fail.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //////////////////////////////// CONSTANT POOL ////////////////////////////////
+
+    int utf8(String value) {
+        return constant("U" + value, () -> {
+            poolOut.writeByte(CONSTANT_UTF8);
+            poolOut.writeUTF(value);
+        });
+    }
+
+    int classRef(String internalName) {
+        int nameIndex = utf8(internalName);
+        return constant("C" + internalName, () -> {
+            poolOut.writeByte(CONSTANT_CLASS);
+            poolOut.writeShort(nameIndex);
+        });
+    }
+
+    int fieldRef(String owner, String fieldName, String descriptor) {
+        return memberRef(CONSTANT_FIELD_REF, owner, fieldName, descriptor);
+    }
+
+    int methodRef(String owner, String methodName, String descriptor) {
+        return memberRef(CONSTANT_METHOD_REF, owner, methodName, descriptor);
+    }
+
+    int interfaceMethodRef(String owner, String methodName, String descriptor) {
+        return memberRef(CONSTANT_INTERFACE_METHOD_REF, owner, methodName, descriptor);
+    }
+
+    private int memberRef(byte tag, String owner, String memberName, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(memberName);
+        int typeIndex = utf8(descriptor);
+        int nameAndType = constant("N" + memberName + ":" + descriptor, () -> {
+            poolOut.writeByte(CONSTANT_NAME_AND_TYPE);
+            poolOut.writeShort(nameIndex);
+            poolOut.writeShort(typeIndex);
+        });
+        return constant(tag + owner + "." + memberName + ":" + descriptor, () -> {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(ownerIndex);
+            poolOut.writeShort(nameAndType);
+        });
+    }
+
+    private interface PoolEntry {
+        void write() throws IOException;
+    }
+
+    private int constant(String key, PoolEntry entry) {
+        Integer index = poolIndexes.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            entry.write();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        index = poolCount++;
+        poolIndexes.put(key, index);
+        return index;
+    }
+}
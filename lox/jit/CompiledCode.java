@@ -0,0 +1,26 @@
+package lox.jit;
+
+import lox.Interpreter;
+import lox.LoxInstance;
+
+import java.util.List;
+
+/*
+The base class of the code of compiled functions. A LoxFunction that has been compiled runs its body through run()
+instead of the tree-walker; the receiver is null unless the function is a method. Classes generated by the JIT keep
+the objects they refer to (tokens for error messages, boxed number literals, strings, the global environment) in
+the constants array, since they have no other way to reach them.
+*/
+public abstract class CompiledCode {
+    protected final Object[] constants;
+
+    protected CompiledCode(Object[] constants) {
+        this.constants = constants;
+    }
+
+    protected CompiledCode() {
+        this(new Object[0]);
+    }
+
+    public abstract Object run(Interpreter interpreter, LoxInstance receiver, List<Object> arguments);
+}
@@ -0,0 +1,99 @@
+package lox.jit;
+
+import lox.Environment;
+import lox.Stmt;
+import lox.Token;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/*
+The second tier. LoxFunction counts its calls and loop iterations, and once a function is hot it is queued
+here. A background thread compiles it to a JVM class, loads it through its own class loader (so it can be
+unloaded with the function) and hands the result back, after which calls run the generated code, which
+HotSpot is free to optimize like any other Java. If a function cannot be compiled it keeps running in the
+tree-walker, which stays the first tier and the fallback.
+*/
+public final class Jit {
+    // A function is queued once its calls plus loop iterations reach this count.
+    public static final int COMPILE_THRESHOLD = 1000;
+
+    private static final AtomicInteger classCounter = new AtomicInteger();
+    private static boolean enabled = false;
+    private static boolean logging = false;
+    private static ExecutorService compiler;
+
+    private Jit() {
+    }
+
+    private static final class CodeLoader extends ClassLoader {
+        CodeLoader() {
+            super(Jit.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+
+    // With logging on, every tier-up and every rejected function is reported on stderr.
+    public static void enable(boolean log) {
+        enabled = true;
+        logging = logging || log;
+        if (compiler == null) {
+            compiler = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "lox-jit");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void submit(String name, List<Token> params, List<Stmt> body, int slotCount, Environment globals,
+                              Consumer<CompiledCode> install) {
+        compiler.execute(() -> compile(name, params, body, slotCount, globals, install));
+    }
+
+    private static void compile(String name, List<Token> params, List<Stmt> body, int slotCount,
+                                Environment globals, Consumer<CompiledCode> install) {
+        long start = System.nanoTime();
+        String className = newClassName();
+        try {
+            BytecodeCompiler.Generated generated = BytecodeCompiler.compile(className.replace('.', '/'),
+                    params, body, slotCount, globals);
+            CompiledCode code = load(className, generated.classFile(), generated.constants());
+            install.accept(code);
+            log(String.format("[jit] %s compiled in %.2f ms (%d bytes of bytecode)", name,
+                    (System.nanoTime() - start) / 1e6, generated.classFile().length));
+        } catch (BytecodeCompiler.NotCompilable e) {
+            log("[jit] " + name + " stays in the interpreter: " + e.getMessage() + ".");
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log("[jit] " + name + " failed to load and stays in the interpreter: " + e);
+        }
+    }
+
+    // A fresh binary name for a generated CompiledCode subclass.
+    public static String newClassName() {
+        return "lox.jit.generated.Function" + classCounter.incrementAndGet();
+    }
+
+    // Defines a generated class in a loader of its own and creates its single instance.
+    public static CompiledCode load(String className, byte[] classFile, Object[] constants)
+            throws ReflectiveOperationException {
+        Class<?> codeClass = new CodeLoader().define(className, classFile);
+        return (CompiledCode) codeClass.getConstructor(Object[].class).newInstance((Object) constants);
+    }
+
+    private static void log(String message) {
+        if (logging) {
+            System.err.println(message);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package lox.jit;
+
+import lox.Environment;
+import lox.Interpreter;
+import lox.LoxCallable;
+import lox.LoxFunction;
+import lox.Rope;
+import lox.Token;
+import lox.exceptions.RuntimeError;
+
+import java.util.Arrays;
+
+import static lox.Values.isEqual;
+import static lox.Values.isTruthy;
+import static lox.Values.stringify;
+
+/*
+Operations called from generated code. They implement exactly the checks and error messages of the
+Interpreter, so a function behaves the same before and after it is compiled. They are small and static,
+which lets HotSpot inline them into the compiled Lox code and remove most of the boxing.
+*/
+public final class JitRuntime {
+    private JitRuntime() {
+    }
+
+    public static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l + r;
+        }
+        if (left instanceof CharSequence l && right instanceof CharSequence r) {
+            return Rope.concat(l, r);
+        }
+        if (left instanceof CharSequence l && right instanceof Double) {
+            return Rope.concat(l, stringify(right));
+        }
+        if (left instanceof Double && right instanceof CharSequence r) {
+            return Rope.concat(stringify(left), r);
+        }
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+
+    public static Object subtract(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left - (double) right;
+    }
+
+    public static Object multiply(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left * (double) right;
+    }
+
+    public static Object divide(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        if ((double) right == 0.0) {
+            throw new RuntimeError(operator, "Division by zero");
+        }
+        return (double) left / (double) right;
+    }
+
+    public static Object greater(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left > (double) right;
+    }
+
+    public static Object greaterEqual(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left >= (double) right;
+    }
+
+    public static Object less(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left < (double) right;
+    }
+
+    public static Object lessEqual(Object left, Object right, Token operator) {
+        checkNumberOperands(operator, left, right);
+        return (double) left <= (double) right;
+    }
+
+    public static Object equal(Object left, Object right, Token operator) {
+        return isEqual(left, right);
+    }
+
+    public static Object notEqual(Object left, Object right, Token operator) {
+        return !isEqual(left, right);
+    }
+
+    public static Object negate(Object operand, Token operator) {
+        if (operand instanceof Double number) {
+            return -number;
+        }
+        throw new RuntimeError(operator, "Operand must be a number");
+    }
+
+    public static Object not(Object operand) {
+        return !isTruthy(operand);
+    }
+
+    public static void print(Object value) {
+        System.out.println(stringify(value));
+    }
+
+    public static Object assignGlobal(Object value, Environment globals, Token name) {
+        globals.assign(name, value);
+        return value;
+    }
+
+    public static Object call(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        if (!(callee instanceof LoxCallable function)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        checkArity(function, arguments, paren);
+        return interpreter.call(function, Arrays.asList(arguments), paren);
+    }
+
+    // For 'return f(...)': a call of a Lox function is left for the caller's LoxFunction.invoke to make.
+    public static Object tailCall(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        if (!(callee instanceof LoxFunction function)) {
+            return call(callee, arguments, interpreter, paren);
+        }
+        checkArity(function, arguments, paren);
+        return interpreter.deferCall(function, function.getReceiver(), Arrays.asList(arguments));
+    }
+
+    private static void checkArity(LoxCallable function, Object[] arguments, Token paren) {
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                    function.arity() + " arguments but got " +
+                    arguments.length + ".");
+        }
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return;
+        }
+        throw new RuntimeError(operator, "Operands must be a numbers");
+    }
+}
@@ -0,0 +1,281 @@
+package lox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Emits the instructions of one method. Every emit method also tracks the operand stack depth, so the
+maximum stack size falls out of code generation. Jumps to labels that are not placed yet are patched
+once the label is placed.
+*/
+public final class MethodWriter {
+    public static final int ACONST_NULL = 0x01;
+    public static final int BIPUSH = 0x10;
+    public static final int SIPUSH = 0x11;
+    public static final int ILOAD = 0x15;
+    public static final int ALOAD = 0x19;
+    public static final int ISTORE = 0x36;
+    public static final int ASTORE = 0x3a;
+    public static final int AALOAD = 0x32;
+    public static final int AASTORE = 0x53;
+    public static final int POP = 0x57;
+    public static final int DUP = 0x59;
+    public static final int IINC = 0x84;
+    public static final int IFEQ = 0x99;
+    public static final int IFNE = 0x9a;
+    public static final int IF_ICMPEQ = 0x9f;
+    public static final int IF_ICMPNE = 0xa0;
+    public static final int IF_ACMPNE = 0xa6;
+    public static final int GOTO = 0xa7;
+    public static final int ARETURN = 0xb0;
+    public static final int RETURN = 0xb1;
+    public static final int GETSTATIC = 0xb2;
+    public static final int GETFIELD = 0xb4;
+    public static final int INVOKEVIRTUAL = 0xb6;
+    public static final int INVOKESPECIAL = 0xb7;
+    public static final int INVOKESTATIC = 0xb8;
+    public static final int INVOKEINTERFACE = 0xb9;
+    public static final int ANEWARRAY = 0xbd;
+    public static final int CHECKCAST = 0xc0;
+    public static final int INSTANCEOF = 0xc1;
+    public static final int WIDE = 0xc4;
+
+    // Branch offsets are signed 16-bit values; longer methods are not compiled.
+    public static final int MAX_CODE_LENGTH = 0x7fff;
+
+    public static final class Label {
+        private int offset = -1;
+        private int stackDepth = -1;
+        private final List<Integer> jumpsToPatch = new ArrayList<>();
+    }
+
+    private final ClassWriter owner;
+    private final int access;
+    private final String name;
+    private final String descriptor;
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private final List<Label> labels = new ArrayList<>();
+    private int nameIndex;
+    private int descriptorIndex;
+    private int codeAttributeIndex;
+    private int stackDepth = 0;
+    private int maxStack = 0;
+    private int maxLocals;
+
+    MethodWriter(ClassWriter owner, int access, String name, String descriptor) {
+        this.owner = owner;
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+        this.maxLocals = argumentSlots(descriptor) + 1; // Generated methods are instance methods.
+    }
+
+    public int length() {
+        return code.size();
+    }
+
+    // Makes sure the method's frame has room for the given local.
+    public void useLocal(int index) {
+        maxLocals = Math.max(maxLocals, index + 1);
+    }
+
+    ////////////////////////////////// INSTRUCTIONS //////////////////////////////////
+
+    public void op(int opcode, int stackChange) {
+        code.write(opcode);
+        adjustStack(stackChange);
+    }
+
+    public void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            op(0x03 + value, 1); // iconst_<n>
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH, 1);
+            code.write(value);
+        } else {
+            op(SIPUSH, 1);
+            writeShort(value);
+        }
+    }
+
+    public void loadLocal(int index) {
+        localInstruction(ALOAD, index, 1);
+    }
+
+    public void storeLocal(int index) {
+        localInstruction(ASTORE, index, -1);
+    }
+
+    public void loadIntLocal(int index) {
+        localInstruction(ILOAD, index, 1);
+    }
+
+    public void storeIntLocal(int index) {
+        localInstruction(ISTORE, index, -1);
+    }
+
+    // Adds a small constant to an int local.
+    public void increment(int index, int amount) {
+        useLocal(index);
+        if (index > 0xff) {
+            code.write(WIDE);
+            op(IINC, 0);
+            writeShort(index);
+            writeShort(amount);
+        } else {
+            op(IINC, 0);
+            code.write(index);
+            code.write(amount);
+        }
+    }
+
+    public void getStatic(String ownerClass, String fieldName, String fieldDescriptor) {
+        op(GETSTATIC, 1);
+        writeShort(owner.fieldRef(ownerClass, fieldName, fieldDescriptor));
+    }
+
+    public void getField(String ownerClass, String fieldName, String fieldDescriptor) {
+        op(GETFIELD, 0);
+        writeShort(owner.fieldRef(ownerClass, fieldName, fieldDescriptor));
+    }
+
+    public void invokeStatic(String ownerClass, String methodName, String methodDescriptor) {
+        op(INVOKESTATIC, returnSlots(methodDescriptor) - argumentSlots(methodDescriptor));
+        writeShort(owner.methodRef(ownerClass, methodName, methodDescriptor));
+    }
+
+    public void invokeVirtual(String ownerClass, String methodName, String methodDescriptor) {
+        op(INVOKEVIRTUAL, returnSlots(methodDescriptor) - argumentSlots(methodDescriptor) - 1);
+        writeShort(owner.methodRef(ownerClass, methodName, methodDescriptor));
+    }
+
+    public void invokeSpecial(String ownerClass, String methodName, String methodDescriptor) {
+        op(INVOKESPECIAL, returnSlots(methodDescriptor) - argumentSlots(methodDescriptor) - 1);
+        writeShort(owner.methodRef(ownerClass, methodName, methodDescriptor));
+    }
+
+    public void invokeInterface(String ownerClass, String methodName, String methodDescriptor) {
+        int arguments = argumentSlots(methodDescriptor);
+        op(INVOKEINTERFACE, returnSlots(methodDescriptor) - arguments - 1);
+        writeShort(owner.interfaceMethodRef(ownerClass, methodName, methodDescriptor));
+        code.write(arguments + 1);
+        code.write(0);
+    }
+
+    public void typeInstruction(int opcode, String internalName) {
+        op(opcode, 0);
+        writeShort(owner.classRef(internalName));
+    }
+
+    public Label newLabel() {
+        Label label = new Label();
+        labels.add(label);
+        return label;
+    }
+
+    // Conditional jumps pop their operands, two for the comparisons; goto leaves the code after it unreachable
+    // until a label is placed.
+    public void jump(int opcode, Label target) {
+        int at = code.size();
+        op(opcode, opcode == GOTO ? 0 : opcode >= IF_ICMPEQ && opcode <= IF_ACMPNE ? -2 : -1);
+        if (target.stackDepth == -1) {
+            target.stackDepth = stackDepth;
+        }
+        if (target.offset != -1) {
+            writeShort(target.offset - at);
+        } else {
+            target.jumpsToPatch.add(at);
+            writeShort(0);
+        }
+    }
+
+    public void place(Label label) {
+        label.offset = code.size();
+        if (label.stackDepth != -1) {
+            stackDepth = label.stackDepth;
+        } else {
+            label.stackDepth = stackDepth;
+        }
+    }
+
+    ////////////////////////////////// OUTPUT //////////////////////////////////
+
+    void prepare() {
+        nameIndex = owner.utf8(name);
+        descriptorIndex = owner.utf8(descriptor);
+        codeAttributeIndex = owner.utf8("Code");
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        byte[] bytes = code.toByteArray();
+        // Jumps to labels placed after them carry the offset relative to the jump instruction.
+        for (Label label : labels) {
+            for (int at : label.jumpsToPatch) {
+                int offset = label.offset - at;
+                bytes[at + 1] = (byte) (offset >> 8);
+                bytes[at + 2] = (byte) offset;
+            }
+        }
+
+        out.writeShort(access);
+        out.writeShort(nameIndex);
+        out.writeShort(descriptorIndex);
+        out.writeShort(1); // attributes: Code
+        out.writeShort(codeAttributeIndex);
+        out.writeInt(12 + bytes.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    // Locals past 255 need the wide form, with a two-byte index.
+    private void localInstruction(int opcode, int index, int stackChange) {
+        useLocal(index);
+        if (index > 0xff) {
+            code.write(WIDE);
+            op(opcode, stackChange);
+            writeShort(index);
+        } else {
+            op(opcode, stackChange);
+            code.write(index);
+        }
+    }
+
+    private void writeShort(int value) {
+        code.write(value >> 8);
+        code.write(value);
+    }
+
+    private void adjustStack(int change) {
+        stackDepth += change;
+        maxStack = Math.max(maxStack, stackDepth);
+    }
+
+    // Only reference types and int appear in the descriptors used here; each takes one slot.
+    private static int argumentSlots(String methodDescriptor) {
+        int count = 0;
+        int i = 1;
+        while (methodDescriptor.charAt(i) != ')') {
+            char c = methodDescriptor.charAt(i);
+            while (c == '[') {
+                c = methodDescriptor.charAt(++i);
+            }
+            if (c == 'L') {
+                i = methodDescriptor.indexOf(';', i);
+            }
+            count++;
+            i++;
+        }
+        return count;
+    }
+
+    private static int returnSlots(String methodDescriptor) {
+        return methodDescriptor.endsWith(")V") ? 0 : 1;
+    }
+}
@@ -0,0 +1,435 @@
+package lox.node;
+
+import lox.Rope;
+import lox.Token;
+import lox.exceptions.RuntimeError;
+
+/*
+Binary and unary operators.
+Each operator starts out uninitialized, looks at the first operands it sees and replaces itself with a node
+specialized for them (for example DoubleAdd). A specialized node that meets other operand types rewrites
+itself to the generic node, which implements the full semantics and never changes again.
+The numeric specializations ask their operands for primitive doubles, so nested arithmetic allocates nothing;
+a result is only boxed when a parent asks for an Object.
+*/
+final class ArithmeticNodes {
+    private ArithmeticNodes() {
+    }
+
+    abstract static class BinaryNode extends ExpressionNode {
+        ExpressionNode left;
+        ExpressionNode right;
+        final Token operator;
+
+        BinaryNode(ExpressionNode left, ExpressionNode right, Token operator) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+            this.operator = operator;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object leftValue = left.execute(frame);
+            Object rightValue = right.execute(frame);
+            return executeWith(leftValue, rightValue);
+        }
+
+        abstract Object executeWith(Object leftValue, Object rightValue);
+
+        final Object generalize(Object leftValue, Object rightValue) {
+            return replace(new GenericBinary(left, right, operator)).executeWith(leftValue, rightValue);
+        }
+
+        @Override
+        final void replaceChild(Node oldChild, Node newChild) {
+            if (oldChild == left) {
+                left = (ExpressionNode) newChild;
+            } else {
+                right = (ExpressionNode) newChild;
+            }
+        }
+    }
+
+    // Arithmetic on two numbers, computed on primitives.
+    abstract static class DoubleArithmetic extends BinaryNode {
+        DoubleArithmetic(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        abstract double compute(double leftValue, double rightValue);
+
+        @Override
+        final Object execute(Frame frame) {
+            try {
+                return executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        final double executeDouble(Frame frame) throws UnexpectedResultException {
+            double leftValue;
+            try {
+                leftValue = left.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(generalize(e.result, right.execute(frame)));
+            }
+            double rightValue;
+            try {
+                rightValue = right.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(generalize(leftValue, e.result));
+            }
+            return compute(leftValue, rightValue);
+        }
+
+        @Override
+        final Object executeWith(Object leftValue, Object rightValue) {
+            if (leftValue instanceof Double l && rightValue instanceof Double r) {
+                return compute(l, r);
+            }
+            return generalize(leftValue, rightValue);
+        }
+    }
+
+    // A comparison of two numbers, computed on primitives. Booleans are never allocated, so only the operands matter.
+    abstract static class DoubleComparison extends BinaryNode {
+        DoubleComparison(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        abstract boolean compare(double leftValue, double rightValue);
+
+        @Override
+        final Object execute(Frame frame) {
+            double leftValue;
+            try {
+                leftValue = left.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return generalize(e.result, right.execute(frame));
+            }
+            double rightValue;
+            try {
+                rightValue = right.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return generalize(leftValue, e.result);
+            }
+            return compare(leftValue, rightValue);
+        }
+
+        @Override
+        final Object executeWith(Object leftValue, Object rightValue) {
+            if (leftValue instanceof Double l && rightValue instanceof Double r) {
+                return compare(l, r);
+            }
+            return generalize(leftValue, rightValue);
+        }
+    }
+
+    static final class UninitializedBinary extends BinaryNode {
+        UninitializedBinary(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object executeWith(Object leftValue, Object rightValue) {
+            boolean numbers = leftValue instanceof Double && rightValue instanceof Double;
+            BinaryNode specialized = switch (operator.tokenType()) {
+                case PLUS -> numbers ? new DoubleAdd(left, right, operator)
+                        : leftValue instanceof CharSequence && rightValue instanceof CharSequence
+                        ? new StringAdd(left, right, operator)
+                        : new GenericBinary(left, right, operator);
+                case MINUS -> numbers ? new DoubleSubtract(left, right, operator) : null;
+                case STAR -> numbers ? new DoubleMultiply(left, right, operator) : null;
+                case SLASH -> numbers ? new DoubleDivide(left, right, operator) : null;
+                case LESS -> numbers ? new DoubleLess(left, right, operator) : null;
+                case LESS_EQUAL -> numbers ? new DoubleLessEqual(left, right, operator) : null;
+                case GREATER -> numbers ? new DoubleGreater(left, right, operator) : null;
+                case GREATER_EQUAL -> numbers ? new DoubleGreaterEqual(left, right, operator) : null;
+                case EQUAL_EQUAL -> new Equal(left, right, operator);
+                case BANG_EQUAL -> new NotEqual(left, right, operator);
+                default -> null;
+            };
+            if (specialized == null) {
+                specialized = new GenericBinary(left, right, operator);
+            }
+            return replace(specialized).executeWith(leftValue, rightValue);
+        }
+    }
+
+    static final class DoubleAdd extends DoubleArithmetic {
+        DoubleAdd(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        double compute(double leftValue, double rightValue) {
+            return leftValue + rightValue;
+        }
+    }
+
+    static final class StringAdd extends BinaryNode {
+        StringAdd(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object executeWith(Object leftValue, Object rightValue) {
+            if (leftValue instanceof CharSequence l && rightValue instanceof CharSequence r) {
+                return Rope.concat(l, r);
+            }
+            return generalize(leftValue, rightValue);
+        }
+    }
+
+    static final class DoubleSubtract extends DoubleArithmetic {
+        DoubleSubtract(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        double compute(double leftValue, double rightValue) {
+            return leftValue - rightValue;
+        }
+    }
+
+    static final class DoubleMultiply extends DoubleArithmetic {
+        DoubleMultiply(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        double compute(double leftValue, double rightValue) {
+            return leftValue * rightValue;
+        }
+    }
+
+    static final class DoubleDivide extends DoubleArithmetic {
+        DoubleDivide(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        double compute(double leftValue, double rightValue) {
+            if (rightValue == 0.0) {
+                throw new RuntimeError(operator, "Division by zero");
+            }
+            return leftValue / rightValue;
+        }
+    }
+
+    static final class DoubleLess extends DoubleComparison {
+        DoubleLess(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        boolean compare(double leftValue, double rightValue) {
+            return leftValue < rightValue;
+        }
+    }
+
+    static final class DoubleLessEqual extends DoubleComparison {
+        DoubleLessEqual(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        boolean compare(double leftValue, double rightValue) {
+            return leftValue <= rightValue;
+        }
+    }
+
+    static final class DoubleGreater extends DoubleComparison {
+        DoubleGreater(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        boolean compare(double leftValue, double rightValue) {
+            return leftValue > rightValue;
+        }
+    }
+
+    static final class DoubleGreaterEqual extends DoubleComparison {
+        DoubleGreaterEqual(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        boolean compare(double leftValue, double rightValue) {
+            return leftValue >= rightValue;
+        }
+    }
+
+    static final class Equal extends BinaryNode {
+        Equal(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object executeWith(Object leftValue, Object rightValue) {
+            return lox.Values.isEqual(leftValue, rightValue);
+        }
+    }
+
+    static final class NotEqual extends BinaryNode {
+        NotEqual(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object executeWith(Object leftValue, Object rightValue) {
+            return !lox.Values.isEqual(leftValue, rightValue);
+        }
+    }
+
+    // The de-specialized form: the same checks and errors as Interpreter.visitBinaryExpr.
+    static final class GenericBinary extends BinaryNode {
+        GenericBinary(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object executeWith(Object leftValue, Object rightValue) {
+            switch (operator.tokenType()) {
+                case GREATER:
+                    checkNumberOperands(leftValue, rightValue);
+                    return (double) leftValue > (double) rightValue;
+                case LESS:
+                    checkNumberOperands(leftValue, rightValue);
+                    return (double) leftValue < (double) rightValue;
+                case GREATER_EQUAL:
+                    checkNumberOperands(leftValue, rightValue);
+                    return (double) leftValue >= (double) rightValue;
+                case LESS_EQUAL:
+                    checkNumberOperands(leftValue, rightValue);
+                    return (double) leftValue <= (double) rightValue;
+                case BANG_EQUAL:
+                    return !lox.Values.isEqual(leftValue, rightValue);
+                case EQUAL_EQUAL:
+                    return lox.Values.isEqual(leftValue, rightValue);
+                case MINUS:
+                    checkNumberOperands(leftValue, rightValue);
+                    return (double) leftValue - (double) rightValue;
+                case PLUS:
+                    if (leftValue instanceof Double && rightValue instanceof Double) {
+                        return (double) leftValue + (double) rightValue;
+                    }
+                    if (leftValue instanceof CharSequence l && rightValue instanceof CharSequence r) {
+                        return Rope.concat(l, r);
+                    }
+                    if (leftValue instanceof CharSequence l && rightValue instanceof Double) {
+                        return Rope.concat(l, lox.Values.stringify(rightValue));
+                    }
+                    if (leftValue instanceof Double && rightValue instanceof CharSequence r) {
+                        return Rope.concat(lox.Values.stringify(leftValue), r);
+                    }
+                    throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+                case SLASH:
+                    checkNumberOperands(leftValue, rightValue);
+                    if ((double) rightValue == 0.0) {
+                        throw new RuntimeError(operator, "Division by zero");
+                    }
+                    return (double) leftValue / (double) rightValue;
+                case STAR:
+                    checkNumberOperands(leftValue, rightValue);
+                    return (double) leftValue * (double) rightValue;
+                default:
+                    throw new IllegalStateException("Unexpected binary operator " + operator.lexeme());
+            }
+        }
+
+        private void checkNumberOperands(Object leftValue, Object rightValue) {
+            if (leftValue instanceof Double && rightValue instanceof Double) {
+                return;
+            }
+            throw new RuntimeError(operator, "Operands must be a numbers");
+        }
+    }
+
+    abstract static class UnaryNode extends ExpressionNode {
+        ExpressionNode operand;
+        final Token operator;
+
+        UnaryNode(ExpressionNode operand, Token operator) {
+            this.operand = adopt(operand);
+            this.operator = operator;
+        }
+
+        @Override
+        final void replaceChild(Node oldChild, Node newChild) {
+            operand = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class UninitializedNegate extends UnaryNode {
+        UninitializedNegate(ExpressionNode operand, Token operator) {
+            super(operand, operator);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object value = operand.execute(frame);
+            if (value instanceof Double number) {
+                replace(new DoubleNegate(operand, operator));
+                return -number;
+            }
+            return replace(new GenericNegate(operand, operator)).negate(value);
+        }
+    }
+
+    static final class DoubleNegate extends UnaryNode {
+        DoubleNegate(ExpressionNode operand, Token operator) {
+            super(operand, operator);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            try {
+                return executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        double executeDouble(Frame frame) throws UnexpectedResultException {
+            try {
+                return -operand.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return expectDouble(replace(new GenericNegate(operand, operator)).negate(e.result));
+            }
+        }
+    }
+
+    static final class GenericNegate extends UnaryNode {
+        GenericNegate(ExpressionNode operand, Token operator) {
+            super(operand, operator);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            return negate(operand.execute(frame));
+        }
+
+        Object negate(Object value) {
+            if (value instanceof Double number) {
+                return -number;
+            }
+            throw new RuntimeError(operator, "Operand must be a number");
+        }
+    }
+
+    static final class Not extends UnaryNode {
+        Not(ExpressionNode operand, Token operator) {
+            super(operand, operator);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            return !lox.Values.isTruthy(operand.execute(frame));
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package lox.node;
+
+import lox.Token;
+import lox.exceptions.RuntimeError;
+
+// Counts the nested calls of one engine's program, so that recursing too deep fails as in the other engines.
+final class CallDepth {
+    private final int max;
+    private int depth = 0;
+
+    CallDepth(int max) {
+        this.max = max;
+    }
+
+    void enter(Token site) {
+        if (depth == max) {
+            throw stackOverflow(site);
+        }
+        depth++;
+    }
+
+    void exit() {
+        depth--;
+    }
+
+    static RuntimeError stackOverflow(Token site) {
+        return new RuntimeError(site, "Stack overflow.");
+    }
+}
@@ -0,0 +1,151 @@
+package lox.node;
+
+import lox.Token;
+import lox.exceptions.RuntimeError;
+
+final class CallNodes {
+    private CallNodes() {
+    }
+
+    abstract static class CallNode extends ExpressionNode {
+        ExpressionNode callee;
+        final ExpressionNode[] arguments;
+        final Token paren;
+
+        CallNode(ExpressionNode callee, ExpressionNode[] arguments, Token paren) {
+            this.callee = adopt(callee);
+            this.arguments = adopt(arguments);
+            this.paren = paren;
+        }
+
+        @Override
+        final Object execute(Frame frame) {
+            return executeWith(frame, callee.execute(frame));
+        }
+
+        abstract Object executeWith(Frame frame, Object function);
+
+        final Object[] evaluateArguments(Frame frame) {
+            Object[] values = new Object[arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                values[i] = arguments[i].execute(frame);
+            }
+            return values;
+        }
+
+        @Override
+        final void replaceChild(Node oldChild, Node newChild) {
+            if (oldChild == callee) {
+                callee = (ExpressionNode) newChild;
+            } else {
+                replaceIn(arguments, oldChild, newChild);
+            }
+        }
+    }
+
+    static final class UninitializedCall extends CallNode {
+        UninitializedCall(ExpressionNode callee, ExpressionNode[] arguments, Token paren) {
+            super(callee, arguments, paren);
+        }
+
+        @Override
+        Object executeWith(Frame frame, Object function) {
+            CallNode specialized;
+            if (function instanceof NodeFunction target && target.root.arity == arguments.length) {
+                specialized = new DirectCall(callee, arguments, paren, target.root);
+            } else {
+                specialized = new GenericCall(callee, arguments, paren);
+            }
+            return replace(specialized).executeWith(frame, function);
+        }
+    }
+
+    // Calls closures of one particular function, evaluating the arguments straight into the callee's frame.
+    static final class DirectCall extends CallNode {
+        private final FunctionRoot target;
+
+        DirectCall(ExpressionNode callee, ExpressionNode[] arguments, Token paren, FunctionRoot target) {
+            super(callee, arguments, paren);
+            this.target = target;
+        }
+
+        @Override
+        Object executeWith(Frame frame, Object function) {
+            if (!(function instanceof NodeFunction closure) || closure.root != target) {
+                return replace(new GenericCall(callee, arguments, paren)).executeWith(frame, function);
+            }
+            Object[] slots = new Object[target.frameSize];
+            for (int i = 0; i < arguments.length; i++) {
+                slots[i + 1] = arguments[i].execute(frame);
+            }
+            return closure.invoke(slots, paren);
+        }
+    }
+
+    static final class GenericCall extends CallNode {
+        GenericCall(ExpressionNode callee, ExpressionNode[] arguments, Token paren) {
+            super(callee, arguments, paren);
+        }
+
+        @Override
+        Object executeWith(Frame frame, Object function) {
+            return Values.call(function, evaluateArguments(frame), paren);
+        }
+    }
+
+    // A call of the form object.name(arguments). Methods are invoked with the receiver placed directly in
+    // the callee's frame, so no bound method is created; fields and getter results are called normally.
+    static final class Invoke extends ExpressionNode {
+        private ExpressionNode receiver;
+        private final Token name;
+        private final ExpressionNode[] arguments;
+        private final Token paren;
+
+        Invoke(ExpressionNode receiver, Token name, ExpressionNode[] arguments, Token paren) {
+            this.receiver = adopt(receiver);
+            this.name = name;
+            this.arguments = adopt(arguments);
+            this.paren = paren;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object object = receiver.execute(frame);
+            if (!(object instanceof NodeInstance instance)) {
+                throw new RuntimeError(name, "Only instances have properties.");
+            }
+            Object field = instance.fields.get(name.lexeme());
+            if (field != null || instance.fields.containsKey(name.lexeme())) {
+                return Values.call(field, evaluateArguments(frame), paren);
+            }
+            NodeFunction method = Values.findMethod(instance, name);
+            if (method.isGetter()) {
+                return Values.call(Values.callGetter(instance, method, name), evaluateArguments(frame), paren);
+            }
+            Object[] slots = new Object[Math.max(method.root.frameSize, arguments.length + 1)];
+            slots[0] = instance;
+            for (int i = 0; i < arguments.length; i++) {
+                slots[i + 1] = arguments[i].execute(frame);
+            }
+            Values.checkArity(method.root.arity, arguments.length, paren);
+            return method.invoke(slots, paren);
+        }
+
+        private Object[] evaluateArguments(Frame frame) {
+            Object[] values = new Object[arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                values[i] = arguments[i].execute(frame);
+            }
+            return values;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (oldChild == receiver) {
+                receiver = (ExpressionNode) newChild;
+            } else {
+                replaceIn(arguments, oldChild, newChild);
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package lox.node;
+
+// A box for a local variable that some closure captures, shared between the frame and the closures.
+final class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
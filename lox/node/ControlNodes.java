@@ -0,0 +1,70 @@
+package lox.node;
+
+import lox.TokenType;
+
+// Expressions that only evaluate some of their operands.
+final class ControlNodes {
+    private ControlNodes() {
+    }
+
+    static final class Logical extends ExpressionNode {
+        private ExpressionNode left;
+        private ExpressionNode right;
+        private final boolean isOr;
+
+        Logical(ExpressionNode left, ExpressionNode right, TokenType operator) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+            this.isOr = operator == TokenType.OR;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object leftValue = left.execute(frame);
+            if (lox.Values.isTruthy(leftValue) == isOr) {
+                return leftValue;
+            }
+            return right.execute(frame);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (oldChild == left) {
+                left = (ExpressionNode) newChild;
+            } else {
+                right = (ExpressionNode) newChild;
+            }
+        }
+    }
+
+    static final class Ternary extends ExpressionNode {
+        private ExpressionNode condition;
+        private ExpressionNode thenBranch;
+        private ExpressionNode elseBranch;
+
+        Ternary(ExpressionNode condition, ExpressionNode thenBranch, ExpressionNode elseBranch) {
+            this.condition = adopt(condition);
+            this.thenBranch = adopt(thenBranch);
+            this.elseBranch = adopt(elseBranch);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            if (lox.Values.isTruthy(condition.execute(frame))) {
+                return thenBranch.execute(frame);
+            }
+            return elseBranch.execute(frame);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (oldChild == condition) {
+                condition = (ExpressionNode) newChild;
+            } else if (oldChild == thenBranch) {
+                thenBranch = (ExpressionNode) newChild;
+            } else {
+                elseBranch = (ExpressionNode) newChild;
+            }
+        }
+    }
+}
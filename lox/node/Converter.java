@@ -0,0 +1,426 @@
+package lox.node;
+
+import lox.Expr;
+import lox.Lox;
+import lox.Stmt;
+import lox.Token;
+import lox.TokenType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Converts the resolved syntax tree into executable nodes.
+Scoping follows the Resolver: every local of a function gets its own frame slot, locals that inner functions
+refer to are marked as captured, and names that resolve to no scope become globals.
+*/
+final class Converter implements Expr.Visitor<ExpressionNode>, Stmt.Visitor<StatementNode> {
+    private enum FunctionType {
+        FUNCTION,
+        METHOD,
+        INITIALIZER
+    }
+
+    static final class FunctionContext {
+        final FunctionContext enclosing;
+        final FunctionRoot root;
+        final List<LocalVariable> locals = new ArrayList<>();
+        final List<LocalVariable> captures = new ArrayList<>();
+        final Map<LocalVariable, Integer> captureIndexes = new IdentityHashMap<>();
+        int loopDepth = 0;
+
+        FunctionContext(FunctionContext enclosing, FunctionRoot root) {
+            this.enclosing = enclosing;
+            this.root = root;
+        }
+
+        int captureIndex(LocalVariable variable) {
+            Integer index = captureIndexes.get(variable);
+            if (index == null) {
+                index = captures.size();
+                captures.add(variable);
+                captureIndexes.put(variable, index);
+            }
+            return index;
+        }
+    }
+
+    private final Map<String, GlobalCell> globals;
+    private final CallDepth callDepth;
+    private final List<Map<String, LocalVariable>> scopes = new ArrayList<>();
+    private FunctionContext current;
+    private boolean hadError = false;
+
+    private Converter(Map<String, GlobalCell> globals, CallDepth callDepth) {
+        this.globals = globals;
+        this.callDepth = callDepth;
+    }
+
+    // Returns null if the program could not be converted; the errors have already been reported.
+    static FunctionRoot convertScript(List<Stmt> statements, Map<String, GlobalCell> globals, CallDepth callDepth) {
+        Converter converter = new Converter(globals, callDepth);
+        FunctionRoot script = new FunctionRoot("script", 0, false, callDepth);
+        converter.current = new FunctionContext(null, script);
+        converter.current.locals.add(new LocalVariable("", 0, converter.current));
+        StatementNode[] body = converter.convertAll(statements);
+        converter.finishFunction(body);
+        return converter.hadError ? null : script;
+    }
+
+    /////////////////////////////// STATEMENTS ////////////////////////////////////////
+
+    @Override
+    public StatementNode visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        StatementNode[] statements = convertAll(stmt.statements);
+        endScope();
+        return new StatementNodes.Block(statements);
+    }
+
+    @Override
+    public StatementNode visitClassStmt(Stmt.Class stmt) {
+        ExpressionNode superClass = stmt.superClass == null ? null : convert(stmt.superClass);
+
+        GlobalCell globalTarget = null;
+        LocalVariable localTarget = null;
+        if (scopes.isEmpty()) {
+            globalTarget = globalCell(stmt.name.lexeme());
+        } else {
+            localTarget = declare(stmt.name.lexeme());
+        }
+
+        LocalVariable superVariable = null;
+        if (stmt.superClass != null) {
+            beginScope();
+            superVariable = declare("super");
+            superVariable.isCaptured = true;
+        }
+
+        int count = stmt.methods.size();
+        String[] names = new String[count];
+        VariableNodes.ClosureNode[] methods = new VariableNodes.ClosureNode[count];
+        boolean[] isStatic = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            Stmt.Function method = stmt.methods.get(i);
+            FunctionType type = method.name.lexeme().equals("init") && !method.isStatic
+                    ? FunctionType.INITIALIZER
+                    : FunctionType.METHOD;
+            names[i] = method.name.lexeme();
+            methods[i] = function(method.name.lexeme(), method.params, method.body, type);
+            isStatic[i] = method.isStatic;
+        }
+
+        if (stmt.superClass != null) {
+            endScope();
+        }
+        Token superClassName = stmt.superClass == null ? null : stmt.superClass.name;
+        return new StatementNodes.ClassDeclaration(stmt.name, superClass, superClassName, globalTarget, localTarget,
+                superVariable, names, methods, isStatic);
+    }
+
+    @Override
+    public StatementNode visitExpressionStmt(Stmt.Expression stmt) {
+        // A for loop with an initializer but no increment desugars to an empty expression statement.
+        if (stmt.expression == null) {
+            return new StatementNodes.Block(new StatementNode[0]);
+        }
+        return new StatementNodes.ExpressionStatement(convert(stmt.expression));
+    }
+
+    @Override
+    public StatementNode visitFunctionStmt(Stmt.Function stmt) {
+        if (scopes.isEmpty()) {
+            GlobalCell cell = globalCell(stmt.name.lexeme());
+            return new StatementNodes.DefineGlobal(cell,
+                    function(stmt.name.lexeme(), stmt.params, stmt.body, FunctionType.FUNCTION));
+        }
+        // Declare the name before converting the body so the function can refer to itself.
+        LocalVariable variable = declare(stmt.name.lexeme());
+        return new StatementNodes.DeclareLocal(variable,
+                function(stmt.name.lexeme(), stmt.params, stmt.body, FunctionType.FUNCTION));
+    }
+
+    @Override
+    public StatementNode visitIfStmt(Stmt.If stmt) {
+        return new StatementNodes.If(convert(stmt.condition), convert(stmt.thenBranch),
+                stmt.elseBranch == null ? null : convert(stmt.elseBranch));
+    }
+
+    @Override
+    public StatementNode visitPrintStmt(Stmt.Print stmt) {
+        return new StatementNodes.Print(convert(stmt.expression));
+    }
+
+    @Override
+    public StatementNode visitReturnStmt(Stmt.Return stmt) {
+        return new StatementNodes.Return(stmt.value == null ? null : convert(stmt.value));
+    }
+
+    @Override
+    public StatementNode visitVarStmt(Stmt.Var stmt) {
+        ExpressionNode initializer = stmt.initializer == null ? null : convert(stmt.initializer);
+        if (scopes.isEmpty()) {
+            return new StatementNodes.DefineGlobal(globalCell(stmt.name.lexeme()), initializer);
+        }
+        return new StatementNodes.DeclareLocal(declare(stmt.name.lexeme()), initializer);
+    }
+
+    @Override
+    public StatementNode visitWhileStmt(Stmt.While stmt) {
+        ExpressionNode condition = convert(stmt.condition);
+        current.loopDepth++;
+        StatementNode body = convert(stmt.body);
+        current.loopDepth--;
+        return new StatementNodes.While(condition, body);
+    }
+
+    @Override
+    public StatementNode visitForInStmt(Stmt.ForIn stmt) {
+        ExpressionNode iterable = convert(stmt.iterable);
+        beginScope();
+        LocalVariable variable = declare(stmt.name.lexeme());
+        current.loopDepth++;
+        StatementNode body = convert(stmt.body);
+        current.loopDepth--;
+        endScope();
+        return new StatementNodes.ForIn(stmt.keyword, variable, iterable, body);
+    }
+
+    @Override
+    public StatementNode visitYieldStmt(Stmt.Yield stmt) {
+        error(stmt.keyword, "Generators are only supported by the interpreter.");
+        return new StatementNodes.Block(new StatementNode[0]);
+    }
+
+    @Override
+    public StatementNode visitBreakStmt(Stmt.Break stmt) {
+        if (current.loopDepth == 0) {
+            error(stmt.keyword, "'break' outside of loop");
+        }
+        return new StatementNodes.Break();
+    }
+
+    @Override
+    public StatementNode visitContinueStmt(Stmt.Continue stmt) {
+        if (current.loopDepth == 0) {
+            error(stmt.keyword, "'continue' outside of loop");
+        }
+        return new StatementNodes.Continue();
+    }
+
+    ////////////////////////////////// EXPRESSIONS /////////////////////////////////////////////
+
+    @Override
+    public ExpressionNode visitBinaryExpr(Expr.Binary expr) {
+        return new ArithmeticNodes.UninitializedBinary(convert(expr.left), convert(expr.right), expr.operator);
+    }
+
+    @Override
+    public ExpressionNode visitBinaryRPNExpr(Expr.BinaryRPN expr) {
+        return new ArithmeticNodes.UninitializedBinary(convert(expr.left), convert(expr.right), expr.operator);
+    }
+
+    @Override
+    public ExpressionNode visitAssignExpr(Expr.Assign expr) {
+        ExpressionNode value = convert(expr.value);
+        LocalVariable variable = resolve(expr.name.lexeme());
+        if (variable == null) {
+            return new VariableNodes.WriteGlobal(globalCell(expr.name.lexeme()), expr.name, value);
+        }
+        if (variable.owner == current) {
+            return new VariableNodes.UninitializedWriteLocal(variable, value);
+        }
+        return new VariableNodes.WriteCaptured(capture(variable), value);
+    }
+
+    @Override
+    public ExpressionNode visitGroupingExpr(Expr.Grouping expr) {
+        return convert(expr.expression);
+    }
+
+    @Override
+    public ExpressionNode visitLiteralExpr(Expr.Literal expr) {
+        return new LiteralNode(expr.value);
+    }
+
+    @Override
+    public ExpressionNode visitLogicalExpr(Expr.Logical expr) {
+        return new ControlNodes.Logical(convert(expr.left), convert(expr.right), expr.operator.tokenType());
+    }
+
+    @Override
+    public ExpressionNode visitSetExpr(Expr.Set expr) {
+        return new ObjectNodes.SetProperty(convert(expr.object), expr.name, convert(expr.value));
+    }
+
+    @Override
+    public ExpressionNode visitThisExpr(Expr.This expr) {
+        return read(expr.keyword);
+    }
+
+    @Override
+    public ExpressionNode visitSuperExpr(Expr.Super expr) {
+        Token thisToken = new Token(TokenType.THIS, "this", null, expr.keyword.line());
+        return new ObjectNodes.SuperMethod(read(expr.keyword), read(thisToken), expr.method);
+    }
+
+    @Override
+    public ExpressionNode visitUnaryExpr(Expr.Unary expr) {
+        ExpressionNode operand = convert(expr.right);
+        if (expr.operator.tokenType() == TokenType.MINUS) {
+            return new ArithmeticNodes.UninitializedNegate(operand, expr.operator);
+        }
+        return new ArithmeticNodes.Not(operand, expr.operator);
+    }
+
+    @Override
+    public ExpressionNode visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get get) {
+            return new CallNodes.Invoke(convert(get.object), get.name, convertArguments(expr.arguments), expr.paren);
+        }
+        return new CallNodes.UninitializedCall(convert(expr.callee), convertArguments(expr.arguments), expr.paren);
+    }
+
+    @Override
+    public ExpressionNode visitGetExpr(Expr.Get expr) {
+        return new ObjectNodes.GetProperty(convert(expr.object), expr.name);
+    }
+
+    @Override
+    public ExpressionNode visitTernaryExpr(Expr.Ternary expr) {
+        return new ControlNodes.Ternary(convert(expr.condition), convert(expr.thenBranch), convert(expr.elseBranch));
+    }
+
+    @Override
+    public ExpressionNode visitVariableExpr(Expr.Variable expr) {
+        return read(expr.name);
+    }
+
+    @Override
+    public ExpressionNode visitLambdaExpr(Expr.Lambda expr) {
+        return function(null, expr.params, expr.body, FunctionType.FUNCTION);
+    }
+
+    ///////////////////////////////   HELPER METHODS   ////////////////////////////////
+
+    private StatementNode convert(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private ExpressionNode convert(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private StatementNode[] convertAll(List<Stmt> statements) {
+        List<StatementNode> nodes = new ArrayList<>();
+        for (Stmt statement : statements) {
+            // The parser leaves a null in place of a declaration it could not parse.
+            if (statement != null) {
+                nodes.add(convert(statement));
+            }
+        }
+        return nodes.toArray(new StatementNode[0]);
+    }
+
+    private ExpressionNode[] convertArguments(List<Expr> expressions) {
+        ExpressionNode[] nodes = new ExpressionNode[expressions.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = convert(expressions.get(i));
+        }
+        return nodes;
+    }
+
+    private VariableNodes.ClosureNode function(String name, List<Token> params, List<Stmt> body, FunctionType type) {
+        FunctionRoot root = new FunctionRoot(name, params.size(), type == FunctionType.INITIALIZER, callDepth);
+        FunctionContext context = new FunctionContext(current, root);
+        current = context;
+
+        beginScope();
+        LocalVariable receiver = new LocalVariable("this", 0, context);
+        context.locals.add(receiver);
+        if (type != FunctionType.FUNCTION) {
+            scopes.get(scopes.size() - 1).put("this", receiver);
+        }
+        for (Token param : params) {
+            declare(param.lexeme());
+        }
+        StatementNode[] statements = convertAll(body);
+        endScope();
+        finishFunction(statements);
+        current = context.enclosing;
+
+        // Describe where each captured variable comes from in the frame that creates the closure.
+        int[] sources = new int[context.captures.size()];
+        for (int i = 0; i < sources.length; i++) {
+            LocalVariable variable = context.captures.get(i);
+            sources[i] = variable.owner == current ? variable.slot : -capture(variable) - 1;
+        }
+        return new VariableNodes.ClosureNode(root, sources);
+    }
+
+    private void finishFunction(StatementNode[] statements) {
+        FunctionRoot root = current.root;
+        root.body = root.adopt(new StatementNodes.Block(statements));
+        root.frameSize = current.locals.size();
+        // Every captured slot starts out as a cell, so a closure can capture a local whose declaration has
+        // not run yet; declarations replace it with a fresh cell.
+        root.boxedSlots = current.locals.stream()
+                .filter(local -> local.isCaptured)
+                .mapToInt(local -> local.slot)
+                .toArray();
+    }
+
+    private void beginScope() {
+        scopes.add(new HashMap<>());
+    }
+
+    private void endScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    private LocalVariable declare(String name) {
+        LocalVariable variable = new LocalVariable(name, current.locals.size(), current);
+        current.locals.add(variable);
+        scopes.get(scopes.size() - 1).put(name, variable);
+        return variable;
+    }
+
+    private LocalVariable resolve(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            LocalVariable variable = scopes.get(i).get(name);
+            if (variable != null) {
+                return variable;
+            }
+        }
+        return null;
+    }
+
+    private ExpressionNode read(Token name) {
+        LocalVariable variable = resolve(name.lexeme());
+        if (variable == null) {
+            return new VariableNodes.ReadGlobal(globalCell(name.lexeme()), name);
+        }
+        if (variable.owner == current) {
+            return new VariableNodes.UninitializedReadLocal(variable);
+        }
+        return new VariableNodes.ReadCaptured(capture(variable));
+    }
+
+    // Marks a variable of an enclosing function as captured and returns its index in the current closure.
+    private int capture(LocalVariable variable) {
+        variable.isCaptured = true;
+        return current.captureIndex(variable);
+    }
+
+    private GlobalCell globalCell(String name) {
+        return globals.computeIfAbsent(name, GlobalCell::new);
+    }
+
+    private void error(Token token, String message) {
+        Lox.error(token, message);
+        hadError = true;
+    }
+}
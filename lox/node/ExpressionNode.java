@@ -0,0 +1,22 @@
+package lox.node;
+
+abstract class ExpressionNode extends Node {
+    abstract Object execute(Frame frame);
+
+    // Numeric nodes override this to hand a primitive to their parent without boxing it.
+    double executeDouble(Frame frame) throws UnexpectedResultException {
+        return expectDouble(execute(frame));
+    }
+
+    // Used where the value is discarded, so a node that computes a primitive never has to box it.
+    void executeVoid(Frame frame) {
+        execute(frame);
+    }
+
+    static double expectDouble(Object value) throws UnexpectedResultException {
+        if (value instanceof Double number) {
+            return number;
+        }
+        throw new UnexpectedResultException(value);
+    }
+}
@@ -0,0 +1,26 @@
+package lox.node;
+
+// The activation of one function call.
+// Slot zero holds the receiver, the parameters follow it, and every other local of the function has a fixed slot.
+// A local holding a number is kept unboxed in the primitives array; its object slot then holds the DOUBLE marker.
+final class Frame {
+    static final Object DOUBLE = new Object();
+
+    final Object[] slots;
+    final Cell[] captured;
+    double[] primitives; // Allocated the first time the call stores an unboxed number.
+    Object returnValue;
+
+    Frame(Object[] slots, Cell[] captured) {
+        this.slots = slots;
+        this.captured = captured;
+    }
+
+    void setDouble(int slot, double value) {
+        if (primitives == null) {
+            primitives = new double[slots.length];
+        }
+        primitives[slot] = value;
+        slots[slot] = DOUBLE;
+    }
+}
@@ -0,0 +1,24 @@
+package lox.node;
+
+// The executable tree of one function declaration, shared by every closure created from it.
+final class FunctionRoot extends Node {
+    final String name; // null for lambdas
+    final int arity;
+    final boolean isInitializer;
+    final CallDepth callDepth; // Shared by every function of the program.
+    StatementNode body;
+    int frameSize;
+    int[] boxedSlots; // Parameters (and the receiver) captured by closures; they are moved into cells on entry.
+
+    FunctionRoot(String name, int arity, boolean isInitializer, CallDepth callDepth) {
+        this.name = name;
+        this.arity = arity;
+        this.isInitializer = isInitializer;
+        this.callDepth = callDepth;
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+        body = (StatementNode) newChild;
+    }
+}
@@ -0,0 +1,12 @@
+package lox.node;
+
+// Holds one global variable. Nodes that read a global keep a direct reference to its cell.
+final class GlobalCell {
+    final String name;
+    Object value;
+    boolean isDefined = false;
+
+    GlobalCell(String name) {
+        this.name = name;
+    }
+}
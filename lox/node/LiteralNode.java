@@ -0,0 +1,19 @@
+package lox.node;
+
+final class LiteralNode extends ExpressionNode {
+    private final Object value;
+
+    LiteralNode(Object value) {
+        this.value = value;
+    }
+
+    @Override
+    Object execute(Frame frame) {
+        return value;
+    }
+
+    @Override
+    double executeDouble(Frame frame) throws UnexpectedResultException {
+        return expectDouble(value);
+    }
+}
@@ -0,0 +1,16 @@
+package lox.node;
+
+// A local declared in some function. Whether it is captured is only known once that function has been
+// converted completely, so the nodes accessing it pick their specialization when they first run.
+final class LocalVariable {
+    final String name;
+    final int slot;
+    final Converter.FunctionContext owner;
+    boolean isCaptured = false;
+
+    LocalVariable(String name, int slot, Converter.FunctionContext owner) {
+        this.name = name;
+        this.slot = slot;
+        this.owner = owner;
+    }
+}
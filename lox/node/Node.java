@@ -0,0 +1,44 @@
+package lox.node;
+
+/*
+Base class of the executable tree.
+Nodes specialize by replacing themselves in their parent, so every node that owns replaceable children
+implements replaceChild for them.
+*/
+abstract class Node {
+    Node parent;
+
+    final <T extends Node> T adopt(T child) {
+        if (child != null) {
+            child.parent = this;
+        }
+        return child;
+    }
+
+    final <T extends Node> T[] adopt(T[] children) {
+        for (T child : children) {
+            adopt(child);
+        }
+        return children;
+    }
+
+    final <T extends Node> T replace(T newNode) {
+        parent.replaceChild(this, newNode);
+        newNode.parent = parent;
+        return newNode;
+    }
+
+    void replaceChild(Node oldChild, Node newChild) {
+        throw new IllegalStateException(getClass().getSimpleName() + " has no replaceable children.");
+    }
+
+    static void replaceIn(Node[] children, Node oldChild, Node newChild) {
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] == oldChild) {
+                children[i] = newChild;
+                return;
+            }
+        }
+        throw new IllegalStateException("Not a child of this node.");
+    }
+}
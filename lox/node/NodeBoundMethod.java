@@ -0,0 +1,16 @@
+package lox.node;
+
+final class NodeBoundMethod {
+    final Object receiver;
+    final NodeFunction method;
+
+    NodeBoundMethod(Object receiver, NodeFunction method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
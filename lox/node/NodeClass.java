@@ -0,0 +1,32 @@
+package lox.node;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class NodeClass extends NodeInstance {
+    final String name;
+    final NodeClass superClass;
+    // Own methods merged with the inherited ones; classes cannot change after their declaration.
+    final Map<String, NodeFunction> methods = new HashMap<>();
+    final NodeFunction initializer;
+
+    NodeClass(String name, NodeClass superClass, Map<String, NodeFunction> ownMethods) {
+        super(null);
+        this.name = name;
+        this.superClass = superClass;
+        if (superClass != null) {
+            methods.putAll(superClass.methods);
+        }
+        methods.putAll(ownMethods);
+        this.initializer = methods.get("init");
+    }
+
+    int arity() {
+        return initializer == null ? 0 : initializer.root.arity;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,40 @@
+package lox.node;
+
+import lox.Interpreter;
+import lox.Stmt;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Runs programs as trees of self-specializing executable nodes.
+Each statement and expression becomes a node with a single execute method; operators rewrite themselves
+for the operand types they observe, so hot code ends up running type-specific nodes without visitor dispatch.
+*/
+public final class NodeEngine {
+    private final Map<String, GlobalCell> globals = new HashMap<>();
+    private final CallDepth callDepth;
+
+    public NodeEngine() {
+        this(Interpreter.DEFAULT_MAX_CALL_DEPTH);
+    }
+
+    // Calls nested deeper than maxCallDepth fail with "Stack overflow.".
+    public NodeEngine(int maxCallDepth) {
+        callDepth = new CallDepth(maxCallDepth);
+        GlobalCell clock = new GlobalCell("clock");
+        clock.value = new NodeNative(0, arguments -> (double) System.currentTimeMillis() / 1000.0);
+        clock.isDefined = true;
+        globals.put(clock.name, clock);
+    }
+
+    public void interpret(List<Stmt> statements) {
+        FunctionRoot script = Converter.convertScript(statements, globals, callDepth);
+        if (script == null) {
+            return;
+        }
+        Object[] slots = new Object[script.frameSize];
+        new NodeFunction(script, new Cell[0]).run(slots);
+    }
+}
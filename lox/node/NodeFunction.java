@@ -0,0 +1,56 @@
+package lox.node;
+
+import lox.Token;
+
+final class NodeFunction {
+    final FunctionRoot root;
+    final Cell[] captured;
+
+    NodeFunction(FunctionRoot root, Cell[] captured) {
+        this.root = root;
+        this.captured = captured;
+    }
+
+    /*
+    The caller has already placed the receiver in slot zero and the arguments after it. The call counts against the
+    depth limit, and site is where a "Stack overflow." is reported, whether the limit is reached or the Java stack
+    runs out first.
+    */
+    Object invoke(Object[] slots, Token site) {
+        CallDepth callDepth = root.callDepth;
+        callDepth.enter(site);
+        try {
+            return run(slots);
+        } catch (StackOverflowError error) {
+            throw CallDepth.stackOverflow(site);
+        } finally {
+            callDepth.exit();
+        }
+    }
+
+    // Runs the body without counting a call, as for the script itself.
+    Object run(Object[] slots) {
+        Object receiver = slots[0];
+        for (int slot : root.boxedSlots) {
+            slots[slot] = new Cell(slots[slot]);
+        }
+        Frame frame = new Frame(slots, captured);
+        root.body.execute(frame);
+        if (root.isInitializer) {
+            return receiver;
+        }
+        return frame.returnValue;
+    }
+
+    boolean isGetter() {
+        return root.arity == 0;
+    }
+
+    @Override
+    public String toString() {
+        if (root.name == null) {
+            return "<fn anonymous>";
+        }
+        return "<fn " + root.name + ">";
+    }
+}
@@ -0,0 +1,18 @@
+package lox.node;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class NodeInstance {
+    final NodeClass klass; // null for classes themselves, which only carry static fields
+    final Map<String, Object> fields = new HashMap<>();
+
+    NodeInstance(NodeClass klass) {
+        this.klass = klass;
+    }
+
+    @Override
+    public String toString() {
+        return klass.name + " instance";
+    }
+}
@@ -0,0 +1,18 @@
+package lox.node;
+
+import java.util.function.Function;
+
+final class NodeNative {
+    final int arity;
+    final Function<Object[], Object> function;
+
+    NodeNative(int arity, Function<Object[], Object> function) {
+        this.arity = arity;
+        this.function = function;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,92 @@
+package lox.node;
+
+import lox.Token;
+import lox.exceptions.RuntimeError;
+
+final class ObjectNodes {
+    private ObjectNodes() {
+    }
+
+    static final class GetProperty extends ExpressionNode {
+        private ExpressionNode object;
+        private final Token name;
+
+        GetProperty(ExpressionNode object, Token name) {
+            this.object = adopt(object);
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            return Values.getProperty(object.execute(frame), name);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            object = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class SetProperty extends ExpressionNode {
+        private ExpressionNode object;
+        private final Token name;
+        private ExpressionNode value;
+
+        SetProperty(ExpressionNode object, Token name, ExpressionNode value) {
+            this.object = adopt(object);
+            this.name = name;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            if (!(object.execute(frame) instanceof NodeInstance instance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+            Object result = value.execute(frame);
+            instance.fields.put(name.lexeme(), result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (oldChild == object) {
+                object = (ExpressionNode) newChild;
+            } else {
+                value = (ExpressionNode) newChild;
+            }
+        }
+    }
+
+    static final class SuperMethod extends ExpressionNode {
+        private ExpressionNode superClass;
+        private ExpressionNode receiver;
+        private final Token method;
+
+        SuperMethod(ExpressionNode superClass, ExpressionNode receiver, Token method) {
+            this.superClass = adopt(superClass);
+            this.receiver = adopt(receiver);
+            this.method = method;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            NodeClass klass = (NodeClass) superClass.execute(frame);
+            Object instance = receiver.execute(frame);
+            NodeFunction function = klass.methods.get(method.lexeme());
+            if (function == null) {
+                throw new RuntimeError(method, "Undefined property '" + method.lexeme() + "'.");
+            }
+            return new NodeBoundMethod(instance, function);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (oldChild == superClass) {
+                superClass = (ExpressionNode) newChild;
+            } else {
+                receiver = (ExpressionNode) newChild;
+            }
+        }
+    }
+}
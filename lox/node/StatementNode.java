@@ -0,0 +1,11 @@
+package lox.node;
+
+// Statements report how they completed instead of throwing, so loops and calls can react without unwinding.
+abstract class StatementNode extends Node {
+    static final int NORMAL = 0;
+    static final int BREAK = 1;
+    static final int CONTINUE = 2;
+    static final int RETURN = 3;
+
+    abstract int execute(Frame frame);
+}
@@ -0,0 +1,349 @@
+package lox.node;
+
+import lox.Token;
+import lox.TokenType;
+import lox.exceptions.RuntimeError;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class StatementNodes {
+    private StatementNodes() {
+    }
+
+    // Blocks need no environment of their own: every local already has a slot in the function's frame.
+    static final class Block extends StatementNode {
+        private final StatementNode[] statements;
+
+        Block(StatementNode[] statements) {
+            this.statements = adopt(statements);
+        }
+
+        @Override
+        int execute(Frame frame) {
+            for (StatementNode statement : statements) {
+                int completion = statement.execute(frame);
+                if (completion != NORMAL) {
+                    return completion;
+                }
+            }
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            replaceIn(statements, oldChild, newChild);
+        }
+    }
+
+    static final class ExpressionStatement extends StatementNode {
+        private ExpressionNode expression;
+
+        ExpressionStatement(ExpressionNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        int execute(Frame frame) {
+            expression.executeVoid(frame);
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            expression = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class Print extends StatementNode {
+        private ExpressionNode expression;
+
+        Print(ExpressionNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        int execute(Frame frame) {
+            System.out.println(lox.Values.stringify(expression.execute(frame)));
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            expression = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class If extends StatementNode {
+        private ExpressionNode condition;
+        private final StatementNode thenBranch;
+        private final StatementNode elseBranch;
+
+        If(ExpressionNode condition, StatementNode thenBranch, StatementNode elseBranch) {
+            this.condition = adopt(condition);
+            this.thenBranch = adopt(thenBranch);
+            this.elseBranch = adopt(elseBranch);
+        }
+
+        @Override
+        int execute(Frame frame) {
+            if (lox.Values.isTruthy(condition.execute(frame))) {
+                return thenBranch.execute(frame);
+            }
+            if (elseBranch != null) {
+                return elseBranch.execute(frame);
+            }
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            condition = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class While extends StatementNode {
+        private ExpressionNode condition;
+        private final StatementNode body;
+
+        While(ExpressionNode condition, StatementNode body) {
+            this.condition = adopt(condition);
+            this.body = adopt(body);
+        }
+
+        @Override
+        int execute(Frame frame) {
+            while (lox.Values.isTruthy(condition.execute(frame))) {
+                int completion = body.execute(frame);
+                if (completion == BREAK) {
+                    break;
+                }
+                if (completion == RETURN) {
+                    return RETURN;
+                }
+            }
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            condition = (ExpressionNode) newChild;
+        }
+    }
+
+    // Reads the iterable's iterator property, then the iterator's next property once per element until it is nil.
+    // The loop variable is declared afresh for every element, like DeclareLocal does.
+    static final class ForIn extends StatementNode {
+        private final Token iteratorName;
+        private final Token nextName;
+        private final LocalVariable variable;
+        private ExpressionNode iterable;
+        private final StatementNode body;
+
+        ForIn(Token keyword, LocalVariable variable, ExpressionNode iterable, StatementNode body) {
+            this.iteratorName = new Token(TokenType.IDENTIFIER, "iterator", null, keyword.line());
+            this.nextName = new Token(TokenType.IDENTIFIER, "next", null, keyword.line());
+            this.variable = variable;
+            this.iterable = adopt(iterable);
+            this.body = adopt(body);
+        }
+
+        @Override
+        int execute(Frame frame) {
+            Object iterator = Values.getProperty(iterable.execute(frame), iteratorName);
+            Object element;
+            while ((element = Values.getProperty(iterator, nextName)) != null) {
+                frame.slots[variable.slot] = variable.isCaptured ? new Cell(element) : element;
+                int completion = body.execute(frame);
+                if (completion == BREAK) {
+                    break;
+                }
+                if (completion == RETURN) {
+                    return RETURN;
+                }
+            }
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            iterable = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class Return extends StatementNode {
+        private ExpressionNode value;
+
+        Return(ExpressionNode value) {
+            this.value = adopt(value);
+        }
+
+        @Override
+        int execute(Frame frame) {
+            frame.returnValue = value == null ? null : value.execute(frame);
+            return RETURN;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            value = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class Break extends StatementNode {
+        @Override
+        int execute(Frame frame) {
+            return BREAK;
+        }
+    }
+
+    static final class Continue extends StatementNode {
+        @Override
+        int execute(Frame frame) {
+            return CONTINUE;
+        }
+    }
+
+    // Declares a local. A captured local gets a fresh cell every time the declaration runs,
+    // so closures created in different loop iterations do not share it.
+    static final class DeclareLocal extends StatementNode {
+        private final LocalVariable variable;
+        private ExpressionNode initializer;
+        private boolean initializerIsDouble = true; // Cleared once the initializer produces anything else.
+
+        DeclareLocal(LocalVariable variable, ExpressionNode initializer) {
+            this.variable = variable;
+            this.initializer = adopt(initializer);
+        }
+
+        @Override
+        int execute(Frame frame) {
+            if (variable.isCaptured) {
+                Cell cell = new Cell(null);
+                frame.slots[variable.slot] = cell;
+                if (initializer != null) {
+                    cell.value = initializer.execute(frame);
+                }
+            } else if (initializer == null) {
+                frame.slots[variable.slot] = null;
+            } else if (initializerIsDouble) {
+                try {
+                    frame.setDouble(variable.slot, initializer.executeDouble(frame));
+                } catch (UnexpectedResultException e) {
+                    initializerIsDouble = false;
+                    frame.slots[variable.slot] = e.result;
+                }
+            } else {
+                frame.slots[variable.slot] = initializer.execute(frame);
+            }
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            initializer = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class DefineGlobal extends StatementNode {
+        private final GlobalCell cell;
+        private ExpressionNode initializer;
+
+        DefineGlobal(GlobalCell cell, ExpressionNode initializer) {
+            this.cell = cell;
+            this.initializer = adopt(initializer);
+        }
+
+        @Override
+        int execute(Frame frame) {
+            Object value = initializer == null ? null : initializer.execute(frame);
+            cell.value = value;
+            cell.isDefined = true;
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            initializer = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class ClassDeclaration extends StatementNode {
+        private final Token name;
+        private ExpressionNode superClass;
+        private final Token superClassName;
+        private final GlobalCell globalTarget;  // set for classes declared at the top level
+        private final LocalVariable localTarget; // set for classes declared in a scope
+        private final LocalVariable superVariable;
+        private final String[] methodNames;
+        private final VariableNodes.ClosureNode[] methods;
+        private final boolean[] isStatic;
+
+        ClassDeclaration(Token name, ExpressionNode superClass, Token superClassName, GlobalCell globalTarget,
+                         LocalVariable localTarget, LocalVariable superVariable, String[] methodNames,
+                         VariableNodes.ClosureNode[] methods, boolean[] isStatic) {
+            this.name = name;
+            this.superClass = adopt(superClass);
+            this.superClassName = superClassName;
+            this.globalTarget = globalTarget;
+            this.localTarget = localTarget;
+            this.superVariable = superVariable;
+            this.methodNames = methodNames;
+            this.methods = adopt(methods);
+            this.isStatic = isStatic;
+        }
+
+        @Override
+        int execute(Frame frame) {
+            NodeClass parent = null;
+            if (superClass != null) {
+                if (!(superClass.execute(frame) instanceof NodeClass klass)) {
+                    throw new RuntimeError(superClassName, "Superclass must be a class");
+                }
+                parent = klass;
+            }
+
+            Cell localCell = null;
+            if (globalTarget != null) {
+                globalTarget.value = null;
+                globalTarget.isDefined = true;
+            } else if (localTarget.isCaptured) {
+                localCell = new Cell(null);
+                frame.slots[localTarget.slot] = localCell;
+            } else {
+                frame.slots[localTarget.slot] = null;
+            }
+            if (superVariable != null) {
+                frame.slots[superVariable.slot] = new Cell(parent);
+            }
+
+            Map<String, NodeFunction> instanceMethods = new HashMap<>();
+            for (int i = 0; i < methods.length; i++) {
+                if (!isStatic[i]) {
+                    instanceMethods.put(methodNames[i], (NodeFunction) methods[i].execute(frame));
+                }
+            }
+            NodeClass klass = new NodeClass(name.lexeme(), parent, instanceMethods);
+            for (int i = 0; i < methods.length; i++) {
+                if (isStatic[i]) {
+                    // Static methods see the class itself as 'this'.
+                    klass.fields.put(methodNames[i], new NodeBoundMethod(klass, (NodeFunction) methods[i].execute(frame)));
+                }
+            }
+
+            if (globalTarget != null) {
+                globalTarget.value = klass;
+            } else if (localCell != null) {
+                localCell.value = klass;
+            } else {
+                frame.slots[localTarget.slot] = klass;
+            }
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            superClass = (ExpressionNode) newChild;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package lox.node;
+
+// Thrown by a typed execute method when the value does not have the type the caller asked for.
+// The caller gets the value anyway and usually rewrites itself to a more general node.
+final class UnexpectedResultException extends Exception {
+    final Object result;
+
+    UnexpectedResultException(Object result) {
+        super(null, null, false, false);
+        this.result = result;
+    }
+}
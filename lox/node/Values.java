@@ -0,0 +1,80 @@
+package lox.node;
+
+import lox.Token;
+import lox.exceptions.RuntimeError;
+
+// Operations on Lox values shared by the nodes' generic (unspecialized) paths.
+final class Values {
+    private Values() {
+    }
+
+    static Object call(Object callee, Object[] arguments, Token paren) {
+        if (callee instanceof NodeFunction function) {
+            checkArity(function.root.arity, arguments.length, paren);
+            return function.invoke(slotsFor(function, null, arguments), paren);
+        }
+        if (callee instanceof NodeBoundMethod bound) {
+            checkArity(bound.method.root.arity, arguments.length, paren);
+            return bound.method.invoke(slotsFor(bound.method, bound.receiver, arguments), paren);
+        }
+        if (callee instanceof NodeClass klass) {
+            checkArity(klass.arity(), arguments.length, paren);
+            NodeInstance instance = new NodeInstance(klass);
+            if (klass.initializer != null) {
+                klass.initializer.invoke(slotsFor(klass.initializer, instance, arguments), paren);
+            }
+            return instance;
+        }
+        if (callee instanceof NodeNative nativeFunction) {
+            checkArity(nativeFunction.arity, arguments.length, paren);
+            return nativeFunction.function.apply(arguments);
+        }
+        throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+
+    static void checkArity(int arity, int argumentCount, Token paren) {
+        if (argumentCount != arity) {
+            throw new RuntimeError(paren, "Expected " + arity + " arguments but got " + argumentCount + ".");
+        }
+    }
+
+    static Object[] slotsFor(NodeFunction function, Object receiver, Object[] arguments) {
+        Object[] slots = new Object[function.root.frameSize];
+        slots[0] = receiver;
+        System.arraycopy(arguments, 0, slots, 1, arguments.length);
+        return slots;
+    }
+
+    // Looks up a property the way LoxInstance.get does: fields first, then methods, running getters right away.
+    static Object getProperty(Object object, Token name) {
+        if (!(object instanceof NodeInstance instance)) {
+            throw new RuntimeError(name, "Only instances have properties.");
+        }
+        Object value = instance.fields.get(name.lexeme());
+        if (value != null || instance.fields.containsKey(name.lexeme())) {
+            return value;
+        }
+        NodeFunction method = findMethod(instance, name);
+        if (method.isGetter()) {
+            return callGetter(instance, method, name);
+        }
+        return new NodeBoundMethod(instance, method);
+    }
+
+    static NodeFunction findMethod(NodeInstance instance, Token name) {
+        if (instance.klass == null) {
+            throw new RuntimeError(name, "You cannot call a non-static method without first initialising the class!");
+        }
+        NodeFunction method = instance.klass.methods.get(name.lexeme());
+        if (method == null) {
+            throw new RuntimeError(name, "Undefined property: '" + name.lexeme() + "'.");
+        }
+        return method;
+    }
+
+    static Object callGetter(NodeInstance instance, NodeFunction getter, Token name) {
+        Object[] slots = new Object[getter.root.frameSize];
+        slots[0] = instance;
+        return getter.invoke(slots, name);
+    }
+}
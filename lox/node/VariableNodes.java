@@ -0,0 +1,273 @@
+package lox.node;
+
+import lox.Token;
+import lox.exceptions.RuntimeError;
+
+// Reads and writes of locals, captured variables and globals.
+final class VariableNodes {
+    private VariableNodes() {
+    }
+
+    // Becomes a plain slot access or a cell access depending on whether a closure captures the variable.
+    static final class UninitializedReadLocal extends ExpressionNode {
+        private final LocalVariable variable;
+
+        UninitializedReadLocal(LocalVariable variable) {
+            this.variable = variable;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            ExpressionNode specialized = variable.isCaptured
+                    ? new ReadCell(variable.slot)
+                    : new ReadLocal(variable.slot);
+            return replace(specialized).execute(frame);
+        }
+    }
+
+    static final class ReadLocal extends ExpressionNode {
+        private final int slot;
+
+        ReadLocal(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object value = frame.slots[slot];
+            if (value == Frame.DOUBLE) {
+                return frame.primitives[slot];
+            }
+            return value;
+        }
+
+        @Override
+        double executeDouble(Frame frame) throws UnexpectedResultException {
+            Object value = frame.slots[slot];
+            if (value == Frame.DOUBLE) {
+                return frame.primitives[slot];
+            }
+            return expectDouble(value);
+        }
+    }
+
+    static final class ReadCell extends ExpressionNode {
+        private final int slot;
+
+        ReadCell(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            return ((Cell) frame.slots[slot]).value;
+        }
+    }
+
+    static final class ReadCaptured extends ExpressionNode {
+        private final int index;
+
+        ReadCaptured(int index) {
+            this.index = index;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            return frame.captured[index].value;
+        }
+    }
+
+    static final class ReadGlobal extends ExpressionNode {
+        private final GlobalCell cell;
+        private final Token name;
+
+        ReadGlobal(GlobalCell cell, Token name) {
+            this.cell = cell;
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object value = cell.value;
+            if (value == null) {
+                if (!cell.isDefined) {
+                    throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'");
+                }
+                throw new RuntimeError(name, "Uninitialized variable " + name.lexeme() +
+                        ". Please assign this variable before calling it.");
+            }
+            return value;
+        }
+    }
+
+    abstract static class WriteNode extends ExpressionNode {
+        ExpressionNode value;
+
+        WriteNode(ExpressionNode value) {
+            this.value = adopt(value);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            value = (ExpressionNode) newChild;
+        }
+    }
+
+    // Becomes a cell write for a captured local, otherwise an unboxed write if the first value is a number.
+    static final class UninitializedWriteLocal extends WriteNode {
+        private final LocalVariable variable;
+
+        UninitializedWriteLocal(LocalVariable variable, ExpressionNode value) {
+            super(value);
+            this.variable = variable;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            if (variable.isCaptured) {
+                return replace(new WriteCell(variable.slot, value)).execute(frame);
+            }
+            Object result = value.execute(frame);
+            if (result instanceof Double number) {
+                replace(new WriteDoubleLocal(variable.slot, value));
+                frame.setDouble(variable.slot, number);
+            } else {
+                replace(new WriteLocal(variable.slot, value));
+                frame.slots[variable.slot] = result;
+            }
+            return result;
+        }
+    }
+
+    static final class WriteDoubleLocal extends WriteNode {
+        private final int slot;
+
+        WriteDoubleLocal(int slot, ExpressionNode value) {
+            super(value);
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            try {
+                return executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        double executeDouble(Frame frame) throws UnexpectedResultException {
+            double result;
+            try {
+                result = value.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                replace(new WriteLocal(slot, value));
+                frame.slots[slot] = e.result;
+                throw e;
+            }
+            frame.setDouble(slot, result);
+            return result;
+        }
+
+        @Override
+        void executeVoid(Frame frame) {
+            try {
+                executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                // The value has been stored boxed and the node has generalized.
+            }
+        }
+    }
+
+    static final class WriteLocal extends WriteNode {
+        private final int slot;
+
+        WriteLocal(int slot, ExpressionNode value) {
+            super(value);
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object result = value.execute(frame);
+            frame.slots[slot] = result;
+            return result;
+        }
+    }
+
+    static final class WriteCell extends WriteNode {
+        private final int slot;
+
+        WriteCell(int slot, ExpressionNode value) {
+            super(value);
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object result = value.execute(frame);
+            ((Cell) frame.slots[slot]).value = result;
+            return result;
+        }
+    }
+
+    static final class WriteCaptured extends WriteNode {
+        private final int index;
+
+        WriteCaptured(int index, ExpressionNode value) {
+            super(value);
+            this.index = index;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object result = value.execute(frame);
+            frame.captured[index].value = result;
+            return result;
+        }
+    }
+
+    static final class WriteGlobal extends WriteNode {
+        private final GlobalCell cell;
+        private final Token name;
+
+        WriteGlobal(GlobalCell cell, Token name, ExpressionNode value) {
+            super(value);
+            this.cell = cell;
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object result = value.execute(frame);
+            if (!cell.isDefined) {
+                throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'");
+            }
+            cell.value = result;
+            return result;
+        }
+    }
+
+    // Creates a function value, copying the cells it captures out of the current frame or closure.
+    static final class ClosureNode extends ExpressionNode {
+        private final FunctionRoot root;
+        // A source >= 0 is a slot of the enclosing frame, a negative one is -(index + 1) into its captured cells.
+        private final int[] sources;
+
+        ClosureNode(FunctionRoot root, int[] sources) {
+            this.root = root;
+            this.sources = sources;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Cell[] cells = new Cell[sources.length];
+            for (int i = 0; i < sources.length; i++) {
+                int source = sources[i];
+                cells[i] = source >= 0 ? (Cell) frame.slots[source] : frame.captured[-source - 1];
+            }
+            return new NodeFunction(root, cells);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package lox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A sequence of bytecode together with its constant pool and a line number for every byte.
+public final class Chunk {
+    private byte[] code = new byte[16];
+    private int[] lines = new int[16];
+    private int count = 0;
+    private final List<Object> constants = new ArrayList<>();
+    // Numbers and strings are deduplicated so a literal used in a loop takes one pool entry.
+    private final Map<Object, Integer> constantIndexes = new HashMap<>();
+
+    int write(int value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte) value;
+        lines[count] = line;
+        return count++;
+    }
+
+    void patch(int offset, int value) {
+        code[offset] = (byte) value;
+    }
+
+    int addConstant(Object value) {
+        if (value instanceof Double || value instanceof String) {
+            Integer existing = constantIndexes.get(value);
+            if (existing != null) {
+                return existing;
+            }
+            constantIndexes.put(value, constants.size());
+        }
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    int count() {
+        return count;
+    }
+
+    byte[] code() {
+        return code;
+    }
+
+    int line(int offset) {
+        return lines[offset];
+    }
+
+    Object[] constants() {
+        return constants.toArray();
+    }
+
+    // Restores a chunk written by ProgramImage.
+    void load(byte[] code, int[] lines, Object[] constants) {
+        this.code = code;
+        this.lines = lines;
+        this.count = code.length;
+        this.constants.clear();
+        this.constants.addAll(Arrays.asList(constants));
+    }
+}
@@ -0,0 +1,707 @@
+package lox.vm;
+
+import lox.Expr;
+import lox.Lox;
+import lox.Stmt;
+import lox.Token;
+import lox.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Walks the resolved syntax tree once and emits bytecode for the VM.
+Local variables live in stack slots numbered at compile time, variables captured by closures become upvalues,
+and everything else is a global addressed through the VM's GlobalTable.
+*/
+public final class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int MAX_JUMP = 0xffff;
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        METHOD,
+        STATIC_METHOD,
+        INITIALIZER
+    }
+
+    private static final class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private record Upvalue(int index, boolean isLocal) {
+    }
+
+    private static final class Loop {
+        final Loop enclosing;
+        final int start;
+        final int scopeDepth;
+        final List<Integer> breakJumps = new ArrayList<>();
+
+        Loop(Loop enclosing, int start, int scopeDepth) {
+            this.enclosing = enclosing;
+            this.start = start;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    private static final class FunctionState {
+        final FunctionState enclosing;
+        final ObjFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        int stackDepth = 0;
+        Loop loop = null;
+
+        FunctionState(FunctionState enclosing, ObjFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+        }
+    }
+
+    private final GlobalTable globals;
+    private FunctionState current;
+    private int line = 1;
+    private boolean hadError = false;
+
+    private Compiler(GlobalTable globals) {
+        this.globals = globals;
+    }
+
+    // Returns null if the program could not be compiled; the errors have already been reported.
+    static ObjFunction compile(List<Stmt> statements, GlobalTable globals) {
+        Compiler compiler = new Compiler(globals);
+        ObjFunction script = new ObjFunction(null);
+        script.isScript = true;
+        compiler.beginFunction(script, FunctionType.SCRIPT);
+        for (Stmt statement : statements) {
+            compiler.compile(statement);
+        }
+        compiler.endFunction();
+        return compiler.hadError ? null : script;
+    }
+
+    /////////////////////////////// STATEMENTS ////////////////////////////////////////
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line();
+        String className = stmt.name.lexeme();
+        int nameConstant = makeConstant(className);
+
+        boolean isLocal = current.scopeDepth > 0;
+        emitWithShort(OpCode.CLASS, nameConstant, 1);
+        defineVariable(className, isLocal);
+
+        if (stmt.superClass != null) {
+            namedVariable(stmt.superClass.name, false);
+            beginScope();
+            addLocal("super");
+            namedVariable(stmt.name, false);
+            line = stmt.superClass.name.line();
+            emit(OpCode.INHERIT, -1);
+        }
+
+        namedVariable(stmt.name, false);
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = FunctionType.METHOD;
+            if (method.isStatic) {
+                type = FunctionType.STATIC_METHOD;
+            } else if (method.name.lexeme().equals("init")) {
+                type = FunctionType.INITIALIZER;
+            }
+            function(method.name.lexeme(), method.params, method.body, type);
+            line = method.name.line();
+            emitWithShort(method.isStatic ? OpCode.STATIC_METHOD : OpCode.METHOD,
+                    makeConstant(method.name.lexeme()), -1);
+        }
+        emit(OpCode.POP, -1);
+
+        if (stmt.superClass != null) {
+            endScope();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        // A for loop with an initializer but no increment desugars to an empty expression statement.
+        if (stmt.expression == null) {
+            return null;
+        }
+        compile(stmt.expression);
+        emit(OpCode.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line();
+        boolean isLocal = current.scopeDepth > 0;
+        if (isLocal) {
+            // Declare the name before compiling the body so the function can refer to itself.
+            addLocal(stmt.name.lexeme());
+        }
+        function(stmt.name.lexeme(), stmt.params, stmt.body, FunctionType.FUNCTION);
+        if (!isLocal) {
+            defineVariable(stmt.name.lexeme(), false);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+        compile(stmt.thenBranch);
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emit(OpCode.POP, 0);
+        if (stmt.elseBranch != null) {
+            compile(stmt.elseBranch);
+        }
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line();
+        if (current.type == FunctionType.INITIALIZER) {
+            emitWithByte(OpCode.GET_LOCAL, 0, 1);
+        } else if (stmt.value == null) {
+            emit(OpCode.NIL, 1);
+        } else {
+            compile(stmt.value);
+        }
+        emit(OpCode.RETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line();
+        boolean isLocal = current.scopeDepth > 0;
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+        line = stmt.name.line();
+        defineVariable(stmt.name.lexeme(), isLocal);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.function.chunk.count();
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+
+        current.loop = new Loop(current.loop, loopStart, current.scopeDepth);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emit(OpCode.POP, 0);
+        for (int breakJump : current.loop.breakJumps) {
+            patchJump(breakJump);
+        }
+        current.loop = current.loop.enclosing;
+        return null;
+    }
+
+    /*
+    The VM has no native collections, so it iterates only through the iterator and next properties. The iterator
+    stays in a local without a name, and each element read from it is the loop variable, in a scope of its own
+    so that break and continue pop it and a closure captures a new one every iteration.
+    */
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        beginScope();
+        compile(stmt.iterable);
+        line = stmt.keyword.line();
+        emitWithShort(OpCode.GET_PROPERTY, makeConstant("iterator"), 0);
+        addLocal("");
+        int iterator = current.locals.size() - 1;
+
+        int loopStart = current.function.chunk.count();
+        emitWithByte(OpCode.GET_LOCAL, iterator, 1);
+        emitWithShort(OpCode.GET_PROPERTY, makeConstant("next"), 0);
+        beginScope();
+        addLocal(stmt.name.lexeme());
+        emitWithByte(OpCode.GET_LOCAL, iterator + 1, 1);
+        emit(OpCode.NIL, 1);
+        emit(OpCode.NOT_EQUAL, -1);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+
+        current.loop = new Loop(current.loop, loopStart, current.scopeDepth - 1);
+        compile(stmt.body);
+        endScope();
+        emitLoop(loopStart);
+
+        // The condition and the nil that ended the loop are still on the stack here.
+        patchJump(exitJump);
+        emit(OpCode.POP, 0);
+        emit(OpCode.POP, 0);
+        for (int breakJump : current.loop.breakJumps) {
+            patchJump(breakJump);
+        }
+        current.loop = current.loop.enclosing;
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        error(stmt.keyword, "Generators are only supported by the interpreter.");
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        line = stmt.keyword.line();
+        if (current.loop == null) {
+            error(stmt.keyword, "'break' outside of loop");
+            return null;
+        }
+        discardLoopLocals();
+        current.loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        line = stmt.keyword.line();
+        if (current.loop == null) {
+            error(stmt.keyword, "'continue' outside of loop");
+            return null;
+        }
+        discardLoopLocals();
+        emitLoop(current.loop.start);
+        return null;
+    }
+
+    ////////////////////////////////// EXPRESSIONS /////////////////////////////////////////////
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line();
+        emit(binaryOpCode(expr.operator), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryRPNExpr(Expr.BinaryRPN expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line();
+        emit(binaryOpCode(expr.operator), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        namedVariable(expr.name, true);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL, 1);
+        } else if (expr.value instanceof Boolean value) {
+            emit(value ? OpCode.TRUE : OpCode.FALSE, 1);
+        } else {
+            emitWithShort(OpCode.CONSTANT, makeConstant(expr.value), 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        if (expr.operator.tokenType() == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line();
+        emitWithShort(OpCode.SET_PROPERTY, makeConstant(expr.name.lexeme()), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        namedVariable(expr.keyword, false);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        namedVariable(new Token(TokenType.THIS, "this", null, expr.keyword.line()), false);
+        namedVariable(expr.keyword, false);
+        line = expr.method.line();
+        emitWithShort(OpCode.GET_SUPER, makeConstant(expr.method.lexeme()), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line();
+        emit(expr.operator.tokenType() == TokenType.MINUS ? OpCode.NEGATE : OpCode.NOT, 0);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get get) {
+            // Look the method up without binding it; CALL_METHOD passes the receiver straight into slot 0.
+            compile(get.object);
+            line = get.name.line();
+            emitWithShort(OpCode.GET_METHOD, makeConstant(get.name.lexeme()), 1);
+            compileArguments(expr.arguments);
+            line = expr.paren.line();
+            emitWithByte(OpCode.CALL_METHOD, expr.arguments.size(), -expr.arguments.size() - 1);
+            return null;
+        }
+        compile(expr.callee);
+        compileArguments(expr.arguments);
+        line = expr.paren.line();
+        emitWithByte(OpCode.CALL, expr.arguments.size(), -expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line();
+        emitWithShort(OpCode.GET_PROPERTY, makeConstant(expr.name.lexeme()), 0);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        compile(expr.condition);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+        compile(expr.thenBranch);
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        emit(OpCode.POP, -1);
+        compile(expr.elseBranch);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        namedVariable(expr.name, false);
+        return null;
+    }
+
+    @Override
+    public Void visitLambdaExpr(Expr.Lambda expr) {
+        function(null, expr.params, expr.body, FunctionType.FUNCTION);
+        return null;
+    }
+
+    ///////////////////////////////   HELPER METHODS   ////////////////////////////////
+
+    private void compile(Stmt stmt) {
+        // The parser leaves a null in place of a declaration it could not parse.
+        if (stmt != null) {
+            stmt.accept(this);
+        }
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void compileArguments(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            compile(argument);
+        }
+    }
+
+    // Compiles a function body into its own ObjFunction and emits the CLOSURE instruction that creates it.
+    private void function(String name, List<Token> params, List<Stmt> body, FunctionType type) {
+        ObjFunction function = new ObjFunction(name);
+        function.arity = params.size();
+        beginFunction(function, type);
+        beginScope();
+        for (Token param : params) {
+            addLocal(param.lexeme());
+        }
+        current.stackDepth = current.locals.size();
+        current.function.maxStack = Math.max(current.function.maxStack, current.stackDepth);
+        for (Stmt statement : body) {
+            compile(statement);
+        }
+        FunctionState state = endFunction();
+
+        emitWithShort(OpCode.CLOSURE, makeConstant(function), 1);
+        for (Upvalue upvalue : state.upvalues) {
+            current.function.chunk.write(upvalue.isLocal() ? 1 : 0, line);
+            current.function.chunk.write(upvalue.index(), line);
+        }
+    }
+
+    private void beginFunction(ObjFunction function, FunctionType type) {
+        current = new FunctionState(current, function, type);
+        // Slot zero holds the receiver in methods and the callee itself everywhere else.
+        boolean hasReceiver = type != FunctionType.FUNCTION && type != FunctionType.SCRIPT;
+        current.locals.add(new Local(hasReceiver ? "this" : "", 0));
+        current.stackDepth = 1;
+        current.function.maxStack = 1;
+    }
+
+    private FunctionState endFunction() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emitWithByte(OpCode.GET_LOCAL, 0, 1);
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+        emit(OpCode.RETURN, -1);
+
+        FunctionState state = current;
+        state.function.upvalueCount = state.upvalues.size();
+        state.function.seal();
+        current = current.enclosing;
+        return state;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            Local local = locals.remove(locals.size() - 1);
+            emit(local.isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP, -1);
+        }
+    }
+
+    // Pops the locals declared inside the innermost loop before jumping out of or back to the top of it.
+    // The locals stay declared for the code that follows the jump.
+    private void discardLoopLocals() {
+        int depth = current.stackDepth;
+        List<Local> locals = current.locals;
+        for (int i = locals.size() - 1; i >= 0 && locals.get(i).depth > current.loop.scopeDepth; i--) {
+            emit(locals.get(i).isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP, -1);
+        }
+        current.stackDepth = depth;
+    }
+
+    // The value of the variable is on top of the stack. A local simply keeps it in that slot.
+    private void defineVariable(String name, boolean isLocal) {
+        if (isLocal) {
+            addLocal(name);
+        } else {
+            emitWithShort(OpCode.DEFINE_GLOBAL, globals.indexOf(name), -1);
+        }
+    }
+
+    private void addLocal(String name) {
+        if (current.locals.size() == MAX_LOCALS) {
+            error(line, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+
+    private void namedVariable(Token name, boolean assign) {
+        line = name.line();
+        int slot = resolveLocal(current, name.lexeme());
+        if (slot != -1) {
+            emitWithByte(assign ? OpCode.SET_LOCAL : OpCode.GET_LOCAL, slot, assign ? 0 : 1);
+            return;
+        }
+        int upvalue = resolveUpvalue(current, name.lexeme());
+        if (upvalue != -1) {
+            emitWithByte(assign ? OpCode.SET_UPVALUE : OpCode.GET_UPVALUE, upvalue, assign ? 0 : 1);
+            return;
+        }
+        emitWithShort(assign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL, globals.indexOf(name.lexeme()), assign ? 0 : 1);
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) {
+            return -1;
+        }
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(state, upvalue, false);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.index() == index && upvalue.isLocal() == isLocal) {
+                return i;
+            }
+        }
+        if (state.upvalues.size() == MAX_UPVALUES) {
+            error(line, "Too many closure variables in function.");
+            return 0;
+        }
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private static byte binaryOpCode(Token operator) {
+        return switch (operator.tokenType()) {
+            case GREATER -> OpCode.GREATER;
+            case GREATER_EQUAL -> OpCode.GREATER_EQUAL;
+            case LESS -> OpCode.LESS;
+            case LESS_EQUAL -> OpCode.LESS_EQUAL;
+            case BANG_EQUAL -> OpCode.NOT_EQUAL;
+            case EQUAL_EQUAL -> OpCode.EQUAL;
+            case MINUS -> OpCode.SUBTRACT;
+            case PLUS -> OpCode.ADD;
+            case SLASH -> OpCode.DIVIDE;
+            case STAR -> OpCode.MULTIPLY;
+            default -> throw new IllegalArgumentException("Unexpected binary operator " + operator.lexeme());
+        };
+    }
+
+    private int makeConstant(Object value) {
+        int constant = current.function.chunk.addConstant(value);
+        if (constant > 0xffff) {
+            error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return constant;
+    }
+
+    // Every emit records how the instruction moves the stack pointer so the VM can size frames up front.
+    private void emit(byte opCode, int stackEffect) {
+        current.function.chunk.write(opCode, line);
+        current.stackDepth += stackEffect;
+        current.function.maxStack = Math.max(current.function.maxStack, current.stackDepth);
+    }
+
+    private void emitWithByte(byte opCode, int operand, int stackEffect) {
+        emit(opCode, stackEffect);
+        current.function.chunk.write(operand, line);
+    }
+
+    private void emitWithShort(byte opCode, int operand, int stackEffect) {
+        emit(opCode, stackEffect);
+        current.function.chunk.write(operand >> 8, line);
+        current.function.chunk.write(operand, line);
+    }
+
+    private int emitJump(byte opCode) {
+        emit(opCode, 0);
+        current.function.chunk.write(0xff, line);
+        return current.function.chunk.write(0xff, line) - 1;
+    }
+
+    private void patchJump(int offset) {
+        Chunk chunk = current.function.chunk;
+        int jump = chunk.count() - offset - 2;
+        if (jump > MAX_JUMP) {
+            error(line, "Too much code to jump over.");
+        }
+        chunk.patch(offset, jump >> 8);
+        chunk.patch(offset + 1, jump);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP, 0);
+        Chunk chunk = current.function.chunk;
+        int offset = chunk.count() - loopStart + 2;
+        if (offset > MAX_JUMP) {
+            error(line, "Loop body too large.");
+        }
+        chunk.write(offset >> 8, line);
+        chunk.write(offset, line);
+    }
+
+    private void error(Token token, String message) {
+        Lox.error(token, message);
+        hadError = true;
+    }
+
+    private void error(int line, String message) {
+        Lox.error(line, message);
+        hadError = true;
+    }
+}
@@ -0,0 +1,45 @@
+package lox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Global variables, addressed by an index the compiler assigns to each name.
+// The table outlives a single compilation so REPL lines see each other's definitions.
+final class GlobalTable {
+    // Marks a slot whose name has been referenced but never defined.
+    static final Object UNDEFINED = new Object();
+
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    Object[] values = new Object[64];
+
+    int indexOf(String name) {
+        Integer index = indexes.get(name);
+        if (index != null) {
+            return index;
+        }
+        int newIndex = names.size();
+        indexes.put(name, newIndex);
+        names.add(name);
+        if (newIndex == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[newIndex] = UNDEFINED;
+        return newIndex;
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    String name(int index) {
+        return names.get(index);
+    }
+
+    void define(String name, Object value) {
+        values[indexOf(name)] = value;
+    }
+}
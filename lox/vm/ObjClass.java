@@ -0,0 +1,21 @@
+package lox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Classes are instances as well, so static methods can live in their fields just like in LoxClass.
+final class ObjClass extends ObjInstance {
+    final String name;
+    final Map<String, ObjClosure> methods = new HashMap<>();
+    ObjClosure initializer;
+
+    ObjClass(String name) {
+        super(null);
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,35 @@
+package lox.vm;
+
+// The compiled form of a function body. Closures created from it at runtime share this object.
+final class ObjFunction {
+    final String name; // null for the top-level script and for lambdas
+    final Chunk chunk = new Chunk();
+    int arity = 0;
+    int upvalueCount = 0;
+    int maxStack = 0;
+    boolean isScript = false;
+
+    // Snapshots of the chunk taken once compilation has finished, read directly by the dispatch loop.
+    byte[] code;
+    Object[] constants;
+
+    ObjFunction(String name) {
+        this.name = name;
+    }
+
+    void seal() {
+        code = chunk.code();
+        constants = chunk.constants();
+    }
+
+    @Override
+    public String toString() {
+        if (isScript) {
+            return "<script>";
+        }
+        if (name == null) {
+            return "<fn anonymous>";
+        }
+        return "<fn " + name + ">";
+    }
+}
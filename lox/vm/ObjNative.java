@@ -0,0 +1,20 @@
+package lox.vm;
+
+final class ObjNative {
+    interface NativeFn {
+        Object call(Object[] args, int offset);
+    }
+
+    final int arity;
+    final NativeFn function;
+
+    ObjNative(int arity, NativeFn function) {
+        this.arity = arity;
+        this.function = function;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,16 @@
+package lox.vm;
+
+// A variable captured by a closure.
+// While the enclosing function is still running it points at a stack slot; once that slot goes away
+// the value is moved into the upvalue itself ("closed over").
+final class ObjUpvalue {
+    int slot;
+    boolean isOpen = true;
+    Object closed;
+    ObjUpvalue next; // The VM keeps open upvalues in a list sorted by slot, highest first.
+
+    ObjUpvalue(int slot, ObjUpvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
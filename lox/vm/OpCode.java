@@ -0,0 +1,64 @@
+package lox.vm;
+
+// The instruction set of the bytecode VM.
+// Opcodes are plain bytes so the dispatch loop in VM can switch on them directly.
+// Operands follow the opcode in the chunk: u8 for slots and argument counts, u16 for constants and jumps.
+final class OpCode {
+    static final byte CONSTANT = 0;         // u16 constant
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte GET_LOCAL = 5;        // u8 slot
+    static final byte SET_LOCAL = 6;        // u8 slot
+    static final byte GET_GLOBAL = 7;       // u16 global index
+    static final byte DEFINE_GLOBAL = 8;    // u16 global index
+    static final byte SET_GLOBAL = 9;       // u16 global index
+    static final byte GET_UPVALUE = 10;     // u8 upvalue
+    static final byte SET_UPVALUE = 11;     // u8 upvalue
+    static final byte GET_PROPERTY = 12;    // u16 name constant
+    static final byte SET_PROPERTY = 13;    // u16 name constant
+    static final byte GET_METHOD = 14;      // u16 name constant, pushes [callee, receiver]
+    static final byte GET_SUPER = 15;       // u16 name constant
+    static final byte EQUAL = 16;
+    static final byte NOT_EQUAL = 17;
+    static final byte GREATER = 18;
+    static final byte GREATER_EQUAL = 19;
+    static final byte LESS = 20;
+    static final byte LESS_EQUAL = 21;
+    static final byte ADD = 22;
+    static final byte SUBTRACT = 23;
+    static final byte MULTIPLY = 24;
+    static final byte DIVIDE = 25;
+    static final byte NOT = 26;
+    static final byte NEGATE = 27;
+    static final byte PRINT = 28;
+    static final byte JUMP = 29;            // u16 forward offset
+    static final byte JUMP_IF_FALSE = 30;   // u16 forward offset, leaves the condition on the stack
+    static final byte LOOP = 31;            // u16 backward offset
+    static final byte CALL = 32;            // u8 argument count
+    static final byte CALL_METHOD = 33;     // u8 argument count, follows GET_METHOD
+    static final byte CLOSURE = 34;         // u16 function constant, then (isLocal, index) byte pairs
+    static final byte CLOSE_UPVALUE = 35;
+    static final byte RETURN = 36;
+    static final byte CLASS = 37;           // u16 name constant
+    static final byte INHERIT = 38;
+    static final byte METHOD = 39;          // u16 name constant
+    static final byte STATIC_METHOD = 40;   // u16 name constant
+
+    private static final String[] NAMES = {
+            "CONSTANT", "NIL", "TRUE", "FALSE", "POP", "GET_LOCAL", "SET_LOCAL", "GET_GLOBAL",
+            "DEFINE_GLOBAL", "SET_GLOBAL", "GET_UPVALUE", "SET_UPVALUE", "GET_PROPERTY", "SET_PROPERTY",
+            "GET_METHOD", "GET_SUPER", "EQUAL", "NOT_EQUAL", "GREATER", "GREATER_EQUAL", "LESS", "LESS_EQUAL",
+            "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE", "NOT", "NEGATE", "PRINT", "JUMP", "JUMP_IF_FALSE", "LOOP",
+            "CALL", "CALL_METHOD", "CLOSURE", "CLOSE_UPVALUE", "RETURN", "CLASS", "INHERIT", "METHOD",
+            "STATIC_METHOD"
+    };
+
+    private OpCode() {
+    }
+
+    static String name(byte opCode) {
+        return opCode >= 0 && opCode < NAMES.length ? NAMES[opCode] : "UNKNOWN_" + opCode;
+    }
+}
@@ -0,0 +1,142 @@
+package lox.vm;
+
+import lox.Stmt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/*
+A compiled program in a form that can be stored and run later without the front end: the names of the
+global slots in index order, followed by the script function. A function is written with its chunk, and
+the functions in its constant pool are written recursively in place.
+*/
+public final class ProgramImage {
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+    private static final int VERSION = 1;
+
+    private static final byte DOUBLE = 'D';
+    private static final byte STRING = 'S';
+    private static final byte FUNCTION = 'F';
+
+    private ProgramImage() {
+    }
+
+    // Returns null if the program could not be compiled; the errors have already been reported.
+    public static byte[] compile(List<Stmt> statements) {
+        // A fresh VM supplies the global table, so the natives occupy the same slots as when the image runs.
+        GlobalTable globals = new VM().globals();
+        ObjFunction script = Compiler.compile(statements, globals);
+        if (script == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(globals.size());
+            for (int i = 0; i < globals.size(); i++) {
+                out.writeUTF(globals.name(i));
+            }
+            writeFunction(out, script);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Writing to a byte array cannot fail.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static ObjFunction read(InputStream input, GlobalTable globals) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a compiled Lox program.");
+        }
+        int globalCount = in.readInt();
+        for (int i = 0; i < globalCount; i++) {
+            String name = in.readUTF();
+            if (globals.indexOf(name) != i) {
+                throw new IOException("The program was compiled for a different set of natives.");
+            }
+        }
+        return readFunction(in);
+    }
+
+    private static void writeFunction(DataOutputStream out, ObjFunction function) throws IOException {
+        out.writeBoolean(function.name != null);
+        if (function.name != null) {
+            out.writeUTF(function.name);
+        }
+        out.writeBoolean(function.isScript);
+        out.writeInt(function.arity);
+        out.writeInt(function.upvalueCount);
+        out.writeInt(function.maxStack);
+
+        Chunk chunk = function.chunk;
+        out.writeInt(chunk.count());
+        out.write(chunk.code(), 0, chunk.count());
+        for (int i = 0; i < chunk.count(); i++) {
+            out.writeInt(chunk.line(i));
+        }
+
+        Object[] constants = chunk.constants();
+        out.writeInt(constants.length);
+        for (Object constant : constants) {
+            if (constant instanceof Double number) {
+                out.writeByte(DOUBLE);
+                out.writeDouble(number);
+            } else if (constant instanceof String string) {
+                // Not writeUTF, which cannot hold string literals longer than 64 KB.
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                out.writeByte(STRING);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            } else if (constant instanceof ObjFunction nested) {
+                out.writeByte(FUNCTION);
+                writeFunction(out, nested);
+            } else {
+                throw new IllegalStateException("Unexpected constant " + constant);
+            }
+        }
+    }
+
+    private static ObjFunction readFunction(DataInputStream in) throws IOException {
+        String name = in.readBoolean() ? in.readUTF() : null;
+        ObjFunction function = new ObjFunction(name);
+        function.isScript = in.readBoolean();
+        function.arity = in.readInt();
+        function.upvalueCount = in.readInt();
+        function.maxStack = in.readInt();
+
+        byte[] code = new byte[in.readInt()];
+        in.readFully(code);
+        int[] lines = new int[code.length];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = in.readInt();
+        }
+
+        Object[] constants = new Object[in.readInt()];
+        for (int i = 0; i < constants.length; i++) {
+            byte tag = in.readByte();
+            constants[i] = switch (tag) {
+                case DOUBLE -> in.readDouble();
+                case STRING -> {
+                    byte[] utf8 = new byte[in.readInt()];
+                    in.readFully(utf8);
+                    yield new String(utf8, StandardCharsets.UTF_8);
+                }
+                case FUNCTION -> readFunction(in);
+                default -> throw new IOException("Unknown constant tag " + tag + ".");
+            };
+        }
+
+        function.chunk.load(code, lines, constants);
+        function.seal();
+        return function;
+    }
+}
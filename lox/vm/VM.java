@@ -0,0 +1,576 @@
+package lox.vm;
+
+import lox.Interpreter;
+import lox.Rope;
+import lox.Stmt;
+import lox.Token;
+import lox.TokenType;
+import lox.exceptions.RuntimeError;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static lox.Values.isEqual;
+import static lox.Values.isTruthy;
+import static lox.Values.stringify;
+
+/*
+A stack-based virtual machine that runs the bytecode produced by Compiler.
+Values are the same Java objects the tree-walking Interpreter uses (Double, Boolean, String or Rope, null),
+so printing, equality and the runtime error messages behave identically.
+*/
+public final class VM {
+    // Pushed in place of a receiver when GET_METHOD finds a plain value rather than a method.
+    private static final Object NO_RECEIVER = new Object();
+
+    private static final class CallFrame {
+        ObjClosure closure;
+        byte[] code;
+        Object[] constants;
+        int ip;
+        int base;               // Stack index of slot zero.
+        int returnTo;           // Stack index that receives the return value.
+        boolean pushNoReceiver; // Set for getters called by GET_METHOD, whose result is then called itself.
+    }
+
+    private final GlobalTable globals = new GlobalTable();
+    private Object[] stack = new Object[1024];
+    private int sp = 0;
+    private CallFrame[] frames;
+    private int frameCount = 0;
+    private final int maxFrames;
+    private ObjUpvalue openUpvalues = null;
+
+    public VM() {
+        this(Interpreter.DEFAULT_MAX_CALL_DEPTH);
+    }
+
+    // Calls deeper than maxFrames fail with "Stack overflow.".
+    public VM(int maxFrames) {
+        this.maxFrames = maxFrames;
+        frames = new CallFrame[Math.min(64, maxFrames)];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new CallFrame();
+        }
+        globals.define("clock", new ObjNative(0, (args, offset) -> (double) System.currentTimeMillis() / 1000.0));
+    }
+
+    public void interpret(List<Stmt> statements) {
+        ObjFunction script = Compiler.compile(statements, globals);
+        if (script == null) {
+            return;
+        }
+        execute(script);
+    }
+
+    // Runs a program stored by ProgramImage, skipping the front end and the compiler entirely.
+    public void interpret(InputStream image) throws IOException {
+        execute(ProgramImage.read(image, globals));
+    }
+
+    GlobalTable globals() {
+        return globals;
+    }
+
+    private void execute(ObjFunction script) {
+        ObjClosure closure = new ObjClosure(script);
+        stack[0] = closure;
+        sp = 1;
+        try {
+            callClosure(closure, 0, 0, 0, false);
+            run();
+        } finally {
+            // Leave the machine ready for the next REPL line even if this one failed.
+            Arrays.fill(stack, 0, sp, null);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+        }
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.code;
+        Object[] constants = frame.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        while (true) {
+            byte instruction = code[ip++];
+            switch (instruction) {
+                case OpCode.CONSTANT: {
+                    int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    stack[sp++] = constants[index];
+                    break;
+                }
+                case OpCode.NIL:
+                    stack[sp++] = null;
+                    break;
+                case OpCode.TRUE:
+                    stack[sp++] = Boolean.TRUE;
+                    break;
+                case OpCode.FALSE:
+                    stack[sp++] = Boolean.FALSE;
+                    break;
+                case OpCode.POP:
+                    stack[--sp] = null;
+                    break;
+                case OpCode.GET_LOCAL:
+                    stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                    break;
+                case OpCode.SET_LOCAL:
+                    stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                    break;
+                case OpCode.GET_GLOBAL: {
+                    int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    Object value = globals.values[index];
+                    if (value == null || value == GlobalTable.UNDEFINED) {
+                        frame.ip = ip;
+                        String name = globals.name(index);
+                        throw error(value == null
+                                ? "Uninitialized variable " + name + ". Please assign this variable before calling it."
+                                : "Undefined variable '" + name + "'");
+                    }
+                    stack[sp++] = value;
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    globals.values[index] = stack[--sp];
+                    stack[sp] = null;
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if (globals.values[index] == GlobalTable.UNDEFINED) {
+                        frame.ip = ip;
+                        throw error("Undefined variable '" + globals.name(index) + "'");
+                    }
+                    globals.values[index] = stack[sp - 1];
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    ObjUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    stack[sp++] = upvalue.isOpen ? stack[upvalue.slot] : upvalue.closed;
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    ObjUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.isOpen) {
+                        stack[upvalue.slot] = stack[sp - 1];
+                    } else {
+                        upvalue.closed = stack[sp - 1];
+                    }
+                    break;
+                }
+                case OpCode.GET_PROPERTY:
+                case OpCode.GET_METHOD: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    frame.ip = ip;
+                    boolean forCall = instruction == OpCode.GET_METHOD;
+                    if (getProperty(name, forCall)) {
+                        // A getter was invoked and pushed a frame.
+                        frame = frames[frameCount - 1];
+                        code = frame.code;
+                        constants = frame.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                    }
+                    break;
+                }
+                case OpCode.SET_PROPERTY: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!(stack[sp - 2] instanceof ObjInstance instance)) {
+                        frame.ip = ip;
+                        throw error("Only instances have fields.");
+                    }
+                    Object value = stack[--sp];
+                    instance.fields.put(name, value);
+                    stack[sp - 1] = value;
+                    stack[sp] = null;
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    ObjClass superClass = (ObjClass) stack[--sp];
+                    stack[sp] = null;
+                    ObjClosure method = superClass.methods.get(name);
+                    if (method == null) {
+                        frame.ip = ip;
+                        throw error("Undefined property '" + name + "'.");
+                    }
+                    stack[sp - 1] = new ObjBoundMethod(stack[sp - 1], method);
+                    break;
+                }
+                case OpCode.EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp] = null;
+                    stack[sp - 1] = isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp] = null;
+                    stack[sp - 1] = !isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.GREATER:
+                case OpCode.GREATER_EQUAL:
+                case OpCode.LESS:
+                case OpCode.LESS_EQUAL: {
+                    Object left = stack[sp - 2];
+                    Object right = stack[sp - 1];
+                    if (!(left instanceof Double l) || !(right instanceof Double r)) {
+                        frame.ip = ip;
+                        throw error("Operands must be a numbers");
+                    }
+                    boolean result = switch (instruction) {
+                        case OpCode.GREATER -> l > r;
+                        case OpCode.GREATER_EQUAL -> l >= r;
+                        case OpCode.LESS -> l < r;
+                        default -> l <= r;
+                    };
+                    stack[--sp] = null;
+                    stack[sp - 1] = result;
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object left = stack[sp - 2];
+                    Object right = stack[sp - 1];
+                    Object result;
+                    if (left instanceof Double l && right instanceof Double r) {
+                        result = l + r;
+                    } else if (left instanceof CharSequence l && right instanceof CharSequence r) {
+                        result = Rope.concat(l, r);
+                    } else if (left instanceof CharSequence l && right instanceof Double) {
+                        result = Rope.concat(l, stringify(right));
+                    } else if (left instanceof Double && right instanceof CharSequence r) {
+                        result = Rope.concat(stringify(left), r);
+                    } else {
+                        frame.ip = ip;
+                        throw error("Operands must be two numbers or two strings.");
+                    }
+                    stack[--sp] = null;
+                    stack[sp - 1] = result;
+                    break;
+                }
+                case OpCode.SUBTRACT:
+                case OpCode.MULTIPLY:
+                case OpCode.DIVIDE: {
+                    Object left = stack[sp - 2];
+                    Object right = stack[sp - 1];
+                    if (!(left instanceof Double l) || !(right instanceof Double r)) {
+                        frame.ip = ip;
+                        throw error("Operands must be a numbers");
+                    }
+                    double result;
+                    if (instruction == OpCode.SUBTRACT) {
+                        result = l - r;
+                    } else if (instruction == OpCode.MULTIPLY) {
+                        result = l * r;
+                    } else {
+                        if (r == 0.0) {
+                            frame.ip = ip;
+                            throw error("Division by zero");
+                        }
+                        result = l / r;
+                    }
+                    stack[--sp] = null;
+                    stack[sp - 1] = result;
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE: {
+                    if (!(stack[sp - 1] instanceof Double value)) {
+                        frame.ip = ip;
+                        throw error("Operand must be a number");
+                    }
+                    stack[sp - 1] = -value;
+                    break;
+                }
+                case OpCode.PRINT:
+                    System.out.println(stringify(stack[--sp]));
+                    stack[sp] = null;
+                    break;
+                case OpCode.JUMP: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 + offset;
+                    break;
+                }
+                case OpCode.JUMP_IF_FALSE: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if (!isTruthy(stack[sp - 1])) {
+                        ip += offset;
+                    }
+                    break;
+                }
+                case OpCode.LOOP: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 - offset;
+                    break;
+                }
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    int calleeSlot = sp - argCount - 1;
+                    callValue(stack[calleeSlot], argCount, calleeSlot, calleeSlot, false);
+                    frame = frames[frameCount - 1];
+                    code = frame.code;
+                    constants = frame.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.CALL_METHOD: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    int receiverSlot = sp - argCount - 1;
+                    Object callee = stack[receiverSlot - 1];
+                    if (stack[receiverSlot] != NO_RECEIVER && callee instanceof ObjClosure method) {
+                        callClosure(method, argCount, receiverSlot, receiverSlot - 1, false);
+                    } else {
+                        callValue(callee, argCount, receiverSlot, receiverSlot - 1, false);
+                    }
+                    frame = frames[frameCount - 1];
+                    code = frame.code;
+                    constants = frame.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    ObjFunction function = (ObjFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    ObjClosure closure = new ObjClosure(function);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        closure.upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+                    }
+                    stack[sp++] = closure;
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    stack[--sp] = null;
+                    break;
+                case OpCode.RETURN: {
+                    Object result = stack[--sp];
+                    closeUpvalues(base);
+                    frameCount--;
+                    if (frameCount == 0) {
+                        return;
+                    }
+                    int returnTo = frame.returnTo;
+                    boolean pushNoReceiver = frame.pushNoReceiver;
+                    frame.closure = null;
+                    Arrays.fill(stack, returnTo, sp, null);
+                    sp = returnTo;
+                    stack[sp++] = result;
+                    if (pushNoReceiver) {
+                        stack[sp++] = NO_RECEIVER;
+                    }
+                    frame = frames[frameCount - 1];
+                    code = frame.code;
+                    constants = frame.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.CLASS: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    stack[sp++] = new ObjClass(name);
+                    break;
+                }
+                case OpCode.INHERIT: {
+                    ObjClass subClass = (ObjClass) stack[--sp];
+                    stack[sp] = null;
+                    if (!(stack[sp - 1] instanceof ObjClass superClass)) {
+                        frame.ip = ip;
+                        throw error("Superclass must be a class");
+                    }
+                    // Methods cannot be added to a class after its declaration, so copying them down
+                    // gives the same result as walking the superclass chain on every lookup.
+                    subClass.methods.putAll(superClass.methods);
+                    subClass.initializer = superClass.initializer;
+                    break;
+                }
+                case OpCode.METHOD: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    ObjClosure method = (ObjClosure) stack[--sp];
+                    stack[sp] = null;
+                    ObjClass klass = (ObjClass) stack[sp - 1];
+                    klass.methods.put(name, method);
+                    if (name.equals("init")) {
+                        klass.initializer = method;
+                    }
+                    break;
+                }
+                case OpCode.STATIC_METHOD: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    ObjClosure method = (ObjClosure) stack[--sp];
+                    stack[sp] = null;
+                    ObjClass klass = (ObjClass) stack[sp - 1];
+                    klass.fields.put(name, new ObjBoundMethod(klass, method));
+                    break;
+                }
+                default:
+                    frame.ip = ip;
+                    throw error("Unknown opcode " + OpCode.name(instruction) + ".");
+            }
+        }
+    }
+
+    // Replaces the object on top of the stack with the named property.
+    // Returns true if that meant invoking a getter, which leaves a new frame running.
+    private boolean getProperty(String name, boolean forCall) {
+        if (!(stack[sp - 1] instanceof ObjInstance instance)) {
+            throw error("Only instances have properties.");
+        }
+        Object value = instance.fields.get(name);
+        if (value != null || instance.fields.containsKey(name)) {
+            stack[sp - 1] = value;
+            if (forCall) {
+                stack[sp++] = NO_RECEIVER;
+            }
+            return false;
+        }
+        if (instance.klass == null) {
+            throw error("You cannot call a non-static method without first initialising the class!");
+        }
+        ObjClosure method = instance.klass.methods.get(name);
+        if (method == null) {
+            throw error("Undefined property: '" + name + "'.");
+        }
+        if (method.function.arity == 0) {
+            // Methods without parameters are getters and run as soon as they are accessed.
+            callClosure(method, 0, sp - 1, sp - 1, forCall);
+            return true;
+        }
+        if (forCall) {
+            stack[sp - 1] = method;
+            stack[sp++] = instance;
+        } else {
+            stack[sp - 1] = new ObjBoundMethod(instance, method);
+        }
+        return false;
+    }
+
+    // Calls callee with its arguments in the slots after base. The result ends up in returnTo,
+    // either right away or when the frame pushed for a Lox function returns.
+    private void callValue(Object callee, int argCount, int base, int returnTo, boolean pushNoReceiver) {
+        if (callee instanceof ObjClosure closure) {
+            callClosure(closure, argCount, base, returnTo, pushNoReceiver);
+        } else if (callee instanceof ObjBoundMethod bound) {
+            stack[base] = bound.receiver;
+            callClosure(bound.method, argCount, base, returnTo, pushNoReceiver);
+        } else if (callee instanceof ObjClass klass) {
+            ObjInstance instance = new ObjInstance(klass);
+            stack[base] = instance;
+            if (klass.initializer != null) {
+                callClosure(klass.initializer, argCount, base, returnTo, pushNoReceiver);
+            } else {
+                checkArity(0, argCount);
+                completeCall(instance, returnTo, pushNoReceiver);
+            }
+        } else if (callee instanceof ObjNative nativeFunction) {
+            checkArity(nativeFunction.arity, argCount);
+            completeCall(nativeFunction.function.call(stack, base + 1), returnTo, pushNoReceiver);
+        } else {
+            throw error("Can only call functions and classes.");
+        }
+    }
+
+    private void callClosure(ObjClosure closure, int argCount, int base, int returnTo, boolean pushNoReceiver) {
+        ObjFunction function = closure.function;
+        checkArity(function.arity, argCount);
+        if (frameCount == frames.length) {
+            if (frameCount >= maxFrames) {
+                throw error("Stack overflow.");
+            }
+            int oldLength = frames.length;
+            frames = Arrays.copyOf(frames, Math.min(oldLength * 2, maxFrames));
+            for (int i = oldLength; i < frames.length; i++) {
+                frames[i] = new CallFrame();
+            }
+        }
+        // Leave room for the callee's locals and temporaries, plus the marker a getter may push on return.
+        int needed = base + function.maxStack + 2;
+        if (needed > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(needed, stack.length * 2));
+        }
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.code = function.code;
+        frame.constants = function.constants;
+        frame.ip = 0;
+        frame.base = base;
+        frame.returnTo = returnTo;
+        frame.pushNoReceiver = pushNoReceiver;
+    }
+
+    private void completeCall(Object result, int returnTo, boolean pushNoReceiver) {
+        Arrays.fill(stack, returnTo, sp, null);
+        sp = returnTo;
+        stack[sp++] = result;
+        if (pushNoReceiver) {
+            stack[sp++] = NO_RECEIVER;
+        }
+    }
+
+    private void checkArity(int arity, int argCount) {
+        if (argCount != arity) {
+            throw error("Expected " + arity + " arguments but got " + argCount + ".");
+        }
+    }
+
+    private ObjUpvalue captureUpvalue(int slot) {
+        ObjUpvalue previous = null;
+        ObjUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) {
+            return upvalue;
+        }
+        ObjUpvalue created = new ObjUpvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int lastSlot) {
+        while (openUpvalues != null && openUpvalues.slot >= lastSlot) {
+            ObjUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.isOpen = false;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    // Builds the error for the instruction the innermost frame is executing; callers store frame.ip first.
+    private RuntimeError error(String message) {
+        CallFrame frame = frames[frameCount - 1];
+        int line = frame.closure.function.chunk.line(frame.ip - 1);
+        return new RuntimeError(new Token(TokenType.EOF, "", null, line), message);
+    }
+}
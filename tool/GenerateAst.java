@@ -5,8 +5,12 @@ import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 public class GenerateAst {
+    // Node types that carry a parameter list and a body, and so can be resolved and called like functions.
+    private static final Set<String> FUNCTION_LIKE = Set.of("Function", "Lambda");
+
     public static void main(String[] args) throws IOException {
         if (args.length != 1) {
             System.err.println("Usage: generate_ast <output directory>");
@@ -15,34 +19,36 @@ public class GenerateAst {
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
                 "Binary     : Expr left, Token operator, Expr right",
-                "Assign     : Token name, Expr value",
+                "Assign     : Token name, Expr value ; int depth = -1, int slot, boolean isCaptured",
                 "Grouping   : Expr expression",
                 "Literal    : Object value",
                 "Logical    : Expr left, Token operator, Expr right",
-                "Set        : Expr object, Token name, Expr value",
-                "This       : Token keyword",
-                "Super      : Token keyword, Token method",
+                "Set        : Expr object, Token name, Expr value ; InlineCache cache",
+                "This       : Token keyword ; int depth = -1, int slot, boolean isCaptured",
+                "Super      : Token keyword, Token method ; int slot, This receiver",
                 "Unary      : Token operator, Expr right",
                 "Call       : Expr callee, Token paren, List<Expr> arguments",
-                "Get        : Expr object, Token name",
+                "Get        : Expr object, Token name ; InlineCache cache",
                 "BinaryRPN  : Expr left, Token operator, Expr right",
                 "Ternary    : Expr condition, Expr thenBranch, Expr elseBranch",
-                "Variable   : Token name",
-                "Lambda     : List<Token> params, List<Stmt> body"
+                "Variable   : Token name ; int depth = -1, int slot, boolean isCaptured",
+                "Lambda     : List<Token> params, List<Stmt> body ; int slotCount, int[] boxedSlots, int[] captures, boolean isGenerator"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
-                "Class      : Token name, List<Stmt.Function> methods, Expr.Variable superClass",
+                "Block      : List<Stmt> statements ; int slotCount",
+                "Class      : Token name, List<Stmt.Function> methods, Expr.Variable superClass ; int slot = -1, boolean isCaptured, int slotCount, int superSlot",
                 "Expression : Expr expression",
-                "Function   : Token name, List<Token> params, List<Stmt> body, boolean isStatic",
+                "Function   : Token name, List<Token> params, List<Stmt> body, boolean isStatic ; int slotCount, int[] boxedSlots, int[] captures, int slot = -1, boolean isCaptured, boolean isGenerator",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print      : Expr expression",
-                "Return     : Token keyword, Expr value",
-                "Var        : Token name, Expr initializer",
-                "While      : Expr condition, Stmt body",
+                "Return     : Token keyword, Expr value ; boolean isTailCall",
+                "Var        : Token name, Expr initializer ; int slot = -1, boolean isCaptured",
+                "While      : Expr condition, Stmt body ; CountedLoop counted",
+                "ForIn      : Token keyword, Token name, Expr iterable, Stmt body ; int slot = -1, boolean isCaptured, InlineCache iteratorCache, InlineCache nextCache",
                 "Break      : Token keyword",
-                "Continue   : Token keyword"
+                "Continue   : Token keyword",
+                "Yield      : Token keyword, Expr value"
         ));
     }
 
@@ -54,65 +60,118 @@ public class GenerateAst {
         writer.println();
         writer.println("import java.util.List;");
         writer.println();
-        writer.println("abstract class " + baseName + " {");
+        writer.println("public abstract class " + baseName + " {");
 
         defineVisitor(writer, baseName, types);
 
         // The AST classes
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] fields = type.split(":")[1].split(";");
+            String resolvedFields = fields.length > 1 ? fields[1].trim() : null;
+            writer.println();
+            defineType(writer, baseName, className, fields[0].trim(), resolvedFields);
         }
 
         // The base accept() method
-        writer.println("");
-        writer.println("  abstract <R> R accept(Visitor<R> visitor);");
+        writer.println();
+        writer.println("    public abstract <R> R accept(Visitor<R> visitor);");
 
         writer.println("}");
         writer.close();
     }
 
     private static void defineVisitor(PrintWriter writer, String baseName, List<String> types) {
-        writer.println("  interface Visitor<R> {");
-
-        for (String type : types) {
-            String typeName = type.split(":")[0].trim();
-            writer.println("    R visit" + typeName + baseName + "(" +
+        writer.println("    public interface Visitor<R> {");
+
+        for (int i = 0; i < types.size(); i++) {
+            String typeName = types.get(i).split(":")[0].trim();
+            if (i > 0) {
+                writer.println();
+            }
+            writer.println("        R visit" + typeName + baseName + "(" +
                     typeName + " " + baseName.toLowerCase() + ");");
         }
 
-        writer.println("  }");
+        writer.println("    }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
-        writer.println("  static class " + className + " extends " +
-                baseName + " {");
+    // Fields after a ';' in a type description are not constructor parameters; the Resolver fills them in.
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+                                   String resolvedFieldList) {
+        boolean functionLike = FUNCTION_LIKE.contains(className);
+        writer.println("    public static class " + className + " extends " + baseName +
+                (functionLike ? " implements FunctionLikeable" : "") + " {");
 
         // Constructor.
-        writer.println("    " + className + "(" + fieldList + ") {");
+        writer.println("        " + className + "(" + fieldList + ") {");
 
         String[] fields = fieldList.split(", ");
         for (String field : fields) {
             String name = field.split(" ")[1];
-            writer.println("      this." + name + " = " + name + ";");
+            writer.println("            this." + name + " = " + name + ";");
         }
-        writer.println("    }");
+        writer.println("        }");
 
         // Visitor pattern.
         writer.println();
-        writer.println("    @Override");
-        writer.println("    <R> R accept(Visitor<R> visitor) {");
-        writer.println("      return visitor.visit" +
+        writer.println("        @Override");
+        writer.println("        public <R> R accept(Visitor<R> visitor) {");
+        writer.println("            return visitor.visit" +
                 className + baseName + "(this);");
-        writer.println("    }");
+        writer.println("        }");
 
         // Fields.
         writer.println();
         for (String field : fields) {
-            writer.println("    final " + field + ";");
+            writer.println("        public final " + field + ";");
+        }
+
+        if (resolvedFieldList != null) {
+            writer.println();
+            writer.println("        // Filled in by the Resolver.");
+            for (String field : resolvedFieldList.split(", ")) {
+                writer.println("        public " + field + ";");
+            }
+        }
+
+        if (functionLike) {
+            defineFunctionLikeable(writer);
         }
 
-        writer.println("  }");
+        writer.println("    }");
+    }
+
+    private static void defineFunctionLikeable(PrintWriter writer) {
+        writer.println();
+        writer.println("        @Override");
+        writer.println("        public List<Token> getParams() {");
+        writer.println("            return params;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        @Override");
+        writer.println("        public List<Stmt> getBody() {");
+        writer.println("            return body;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        @Override");
+        writer.println("        public int getSlotCount() {");
+        writer.println("            return slotCount;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        @Override");
+        writer.println("        public int[] getBoxedSlots() {");
+        writer.println("            return boxedSlots;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        @Override");
+        writer.println("        public int[] getCaptures() {");
+        writer.println("            return captures;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        @Override");
+        writer.println("        public boolean isGenerator() {");
+        writer.println("            return isGenerator;");
+        writer.println("        }");
     }
 }